@@ -1,15 +1,42 @@
 package simpledb.buffer;
 
 import simpledb.file.*;
+import java.util.*;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * A page table maps each assigned block to its buffer,
+ * and a {@link ReplacementPolicy} chooses which unpinned
+ * buffer to replace when a block is not in the pool.
+ * The manager counts how many pins found their block
+ * already in the pool (hits) and how many had to read it (misses).
+ * It also keeps a dirty-buffer table, which records the buffers
+ * that each active transaction has modified, so that
+ * flushing a transaction's buffers visits only those buffers.
+ * An unpinned buffer can be lent to another manager, so that
+ * the buffers go where the blocks being pinned need them.
  * @author Edward Sciore
  *
  */
 class BasicBufferMgr {
-   private Buffer[] bufferpool;
+   // Orders buffers by file name and block number, so that
+   // the blocks of a file are written in sequence.
+   private static final Comparator<Buffer> BLOCK_ORDER = new Comparator<Buffer>() {
+      public int compare(Buffer b1, Buffer b2) {
+         int cmp = b1.block().fileName().compareTo(b2.block().fileName());
+         if (cmp != 0)
+            return cmp;
+         return b1.block().number() - b2.block().number();
+      }
+   };
+
+   private List<Buffer> bufferpool;
+   private Map<Block,Buffer> pageTable;
+   private ReplacementPolicy policy;
    private int numAvailable;
+   private long hits = 0, misses = 0;
+   private int writeCursor = 0;
+   private Map<Integer,Set<Buffer>> dirtyBuffers = new HashMap<Integer,Set<Buffer>>();
 
    /**
     * Creates a buffer manager having the specified number
@@ -23,22 +50,113 @@ class BasicBufferMgr {
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
     * @param numbuffs the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
     */
-   BasicBufferMgr(int numbuffs) {
-      bufferpool = new Buffer[numbuffs];
+   BasicBufferMgr(int numbuffs, String policyname) {
+      bufferpool = new ArrayList<Buffer>(numbuffs);
+      pageTable = new HashMap<Block,Buffer>(numbuffs * 2);
+      policy = newPolicy(policyname, numbuffs);
       numAvailable = numbuffs;
-      for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer();
+      for (int i=0; i<numbuffs; i++) {
+         Buffer buff = new Buffer(this);
+         bufferpool.add(buff);
+         policy.unpinned(buff);
+      }
    }
 
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Flushes the dirty buffers modified by the specified transaction,
+    * in block order, and forgets the transaction's dirty buffers.
+    * A buffer in the table may since have been written and reused,
+    * so only the buffers still modified by the transaction are flushed.
     * @param txnum the transaction's id number
     */
    synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
+      Set<Buffer> dirty = dirtyBuffers.remove(txnum);
+      if (dirty == null)
+         return;
+      List<Buffer> buffs = new ArrayList<Buffer>(dirty);
+      Collections.sort(buffs, BLOCK_ORDER);
+      for (Buffer buff : buffs)
          if (buff.isModifiedBy(txnum))
-         buff.flush();
+            buff.flush();
+   }
+
+   /**
+    * Forgets the dirty buffers modified by the specified transaction,
+    * without writing them.
+    * @param txnum the transaction's id number
+    */
+   synchronized void forget(int txnum) {
+      dirtyBuffers.remove(txnum);
+   }
+
+   /**
+    * Records that the specified transaction has modified the buffer.
+    * The buffer calls this method when the transaction
+    * first modifies it after it was last written.
+    * @param buff the modified buffer
+    * @param txnum the id of the modifying transaction
+    */
+   synchronized void modified(Buffer buff, int txnum) {
+      Set<Buffer> dirty = dirtyBuffers.get(txnum);
+      if (dirty == null) {
+         dirty = new HashSet<Buffer>();
+         dirtyBuffers.put(txnum, dirty);
+      }
+      dirty.add(buff);
+   }
+
+   /**
+    * Writes the unpinned buffers whose unwritten modifications
+    * began before the specified LSN.
+    * @param lsn the LSN
+    */
+   synchronized void flushOlderThan(long lsn) {
+      for (Buffer buff : bufferpool) {
+         long first = buff.firstLSN();
+         if (!buff.isPinned() && first >= 0 && first < lsn)
+            buff.flush();
+      }
+   }
+
+   /**
+    * Returns the LSN of the first log record for the oldest
+    * modification that has not been written, or -1 if every
+    * logged modification has been written.
+    * @return the LSN of the oldest unwritten modification
+    */
+   synchronized long oldestLSN() {
+      long oldest = -1;
+      for (Buffer buff : bufferpool) {
+         long first = buff.firstLSN();
+         if (first >= 0 && (oldest < 0 || first < oldest))
+            oldest = first;
+      }
+      return oldest;
+   }
+
+   /**
+    * Writes the next dirty, unpinned buffer to disk, if there is one.
+    * The buffers are examined in circular order, starting
+    * after the buffer examined last by the previous call.
+    * An unpinned buffer cannot be modified without first
+    * being pinned, which requires this manager's lock,
+    * so the write cannot interleave with a modification.
+    * This method is called by the {@link BufferWriter}.
+    * @return true if a buffer was written
+    */
+   synchronized boolean writeNextDirty() {
+      for (int i=0; i<bufferpool.size(); i++) {
+         writeCursor = writeCursor % bufferpool.size();
+         Buffer buff = bufferpool.get(writeCursor);
+         writeCursor++;
+         if (!buff.isPinned() && buff.isDirty()) {
+            buff.flush();
+            return true;
+         }
+      }
+      return false;
    }
 
    /**
@@ -53,44 +171,92 @@ class BasicBufferMgr {
    synchronized Buffer pin(Block blk) {
       Buffer buff = findExistingBuffer(blk);
       if (buff == null) {
-         buff = chooseUnpinnedBuffer();
+         buff = policy.chooseUnpinnedBuffer();
          if (buff == null)
             return null;
+         unmap(buff);
          buff.assignToBlock(blk);
+         pageTable.put(blk, buff);
+         misses++;
       }
+      else
+         hits++;
       if (!buff.isPinned())
          numAvailable--;
       buff.pin();
+      policy.pinned(buff);
       return buff;
    }
 
    /**
-    * Allocates a new block in the specified file, and
-    * pins a buffer to it.
-    * Returns null (without allocating the block) if
-    * there are no available buffers.
-    * @param filename the name of the file
-    * @param fmtr a pageformatter object, used to format the new block
+    * Takes in a lent buffer whose page has just been appended
+    * to its file as a new block, and pins it.
+    * If another thread has already pinned the new block,
+    * then that buffer is pinned instead, and the lent buffer
+    * joins this manager's unpinned buffers.
+    * @param buff a lent buffer, assigned to the new block
     * @return the pinned buffer
     */
-   synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = chooseUnpinnedBuffer();
+   synchronized Buffer pinNew(Buffer buff) {
+      Buffer existing = findExistingBuffer(buff.block());
+      if (existing != null) {
+         adopt(buff);
+         return pin(existing.block());
+      }
+      buff.setOwner(this);
+      bufferpool.add(buff);
+      pageTable.put(buff.block(), buff);
+      misses++;
+      buff.pin();
+      policy.pinned(buff);
+      return buff;
+   }
+
+   /**
+    * Removes an unpinned buffer, chosen by the replacement policy,
+    * so that it can be used by another manager.
+    * The buffer's page is written first if it is dirty,
+    * since its block can no longer be found in this manager.
+    * Returns a null value if there are no available buffers.
+    * @return the removed buffer, or null
+    */
+   synchronized Buffer lend() {
+      Buffer buff = policy.chooseUnpinnedBuffer();
       if (buff == null)
          return null;
-      buff.assignToNew(filename, fmtr);
+      buff.flush();
+      unmap(buff);
+      bufferpool.remove(buff);
+      for (Set<Buffer> dirty : dirtyBuffers.values())
+         dirty.remove(buff);
       numAvailable--;
-      buff.pin();
       return buff;
    }
 
+   /**
+    * Adds an unpinned buffer lent by another manager
+    * to this manager's buffers.
+    * The page table does not map the buffer's block to it,
+    * so the buffer's page is only used once it is replaced.
+    * @param buff the lent buffer
+    */
+   synchronized void adopt(Buffer buff) {
+      buff.setOwner(this);
+      bufferpool.add(buff);
+      numAvailable++;
+      policy.unpinned(buff);
+   }
+
    /**
     * Unpins the specified buffer.
     * @param buff the buffer to be unpinned
     */
    synchronized void unpin(Buffer buff) {
       buff.unpin();
-      if (!buff.isPinned())
+      if (!buff.isPinned()) {
          numAvailable++;
+         policy.unpinned(buff);
+      }
    }
 
    /**
@@ -101,42 +267,51 @@ class BasicBufferMgr {
       return numAvailable;
    }
 
-   private Buffer findExistingBuffer(Block blk) {
-      for (Buffer buff : bufferpool) {
-         Block b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
-      }
-      return null;
+   /**
+    * Returns the number of pins that found their block
+    * already assigned to a buffer.
+    * @return the number of buffer hits
+    */
+   long hits() {
+      return hits;
    }
 
    /**
-    * Uses LRU replacement algorithm to choose an unpinned buffer.
+    * Returns the number of pins that had to replace a buffer.
+    * @return the number of buffer misses
     */
-   private Buffer chooseUnpinnedBuffer() {
-      int chosenIndex = -1;
-      long leastTime = Long.MAX_VALUE;
-
-      for(int i = 0; i < bufferpool.length; i++) {
-         Buffer buff = bufferpool[i];
+   long misses() {
+      return misses;
+   }
 
-         // We only want to look at unpinned buffers.
-         if(!buff.isPinned()) {
-            long lastUsed = buff.lastUsed();
+   private Buffer findExistingBuffer(Block blk) {
+      return pageTable.get(blk);
+   }
 
-            // If, out of the buffers so far, this one was last used the longest ago.
-            if(lastUsed < leastTime) {
-               leastTime = lastUsed;
-               chosenIndex = i;
-            }
-         }
-      }
+   /**
+    * Removes the buffer's block from the page table, unless
+    * the block is mapped to another buffer, as the block of
+    * a lent buffer may be.
+    */
+   private void unmap(Buffer buff) {
+      if (pageTable.get(buff.block()) == buff)
+         pageTable.remove(buff.block());
+   }
 
-      // If no unpinned buffers were found.
-      if(chosenIndex == -1) {
-         return null;
-      } else {
-         return bufferpool[chosenIndex];
-      }
+   /**
+    * Creates the replacement policy having the specified name.
+    * @param policyname one of the names defined in {@link ReplacementPolicy}
+    * @param numbuffs the number of buffers managed by the policy
+    * @return the replacement policy
+    */
+   private static ReplacementPolicy newPolicy(String policyname, int numbuffs) {
+      if (policyname.equals(ReplacementPolicy.LRU))
+         return new LRUPolicy();
+      else if (policyname.equals(ReplacementPolicy.LRU_K))
+         return new LRUKPolicy(2, numbuffs);
+      else if (policyname.equals(ReplacementPolicy.TWO_Q))
+         return new TwoQueuePolicy(numbuffs);
+      else
+         throw new RuntimeException("unknown replacement policy " + policyname);
    }
 }
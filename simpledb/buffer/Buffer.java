@@ -11,21 +11,30 @@ import simpledb.file.*;
  * whether the contents of the page have been modified,
  * and if so, the id of the modifying transaction and
  * the LSN of the corresponding log record.
+ * The buffer also remembers the LSN of the first log record
+ * for the modifications since the page was last written,
+ * which tells a checkpoint how far back recovery must start.
+ * Transactions holding locks on different records of the block may
+ * change the page at the same time; each latches the buffer, by
+ * synchronizing on it, while it logs and makes its change.
  * @author Edward Sciore
  */
 public class Buffer {
+   private BasicBufferMgr owner;
    private Page contents = new Page();
    private Block blk = null;
    private int pins = 0;
    private int modifiedBy = -1;  // negative means not modified
-   private int logSequenceNumber = -1; // negative means no corresponding log record
+   private long logSequenceNumber = -1; // negative means no corresponding log record
+   private volatile long firstLSN = -1; // negative means no logged modification since the page was written
    private long lastUsed = System.nanoTime();
 
    /**
     * Creates a new buffer, wrapping a new
     * {@link simpledb.file.Page page}.
     * This constructor is called exclusively by the
-    * class {@link BasicBufferMgr}.
+    * class {@link BasicBufferMgr}, which is told
+    * whenever a transaction first modifies the buffer.
     * It depends on  the
     * {@link simpledb.log.LogMgr LogMgr} object
     * that it gets from the class
@@ -34,8 +43,21 @@ public class Buffer {
     * Thus this constructor cannot be called until
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
+    * @param owner the basic buffer manager that holds this buffer
     */
-   public Buffer() {}
+   Buffer(BasicBufferMgr owner) {
+      this.owner = owner;
+   }
+
+   /**
+    * Moves the buffer to another basic buffer manager,
+    * which takes it from the manager that held it
+    * while the buffer is unpinned.
+    * @param owner the basic buffer manager that now holds this buffer
+    */
+   void setOwner(BasicBufferMgr owner) {
+      this.owner = owner;
+   }
 
    /**
     * Returns the integer value at the specified offset of the
@@ -75,10 +97,15 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setInt(int offset, int val, int txnum, int lsn) {
+   public void setInt(int offset, int val, int txnum, long lsn) {
+      if (modifiedBy != txnum)
+         owner.modified(this, txnum);
       modifiedBy = txnum;
-      if (lsn >= 0)
+      if (lsn >= 0) {
+         if (firstLSN < 0)
+            firstLSN = lsn;
 	      logSequenceNumber = lsn;
+      }
       contents.setInt(offset, val);
    }
 
@@ -96,10 +123,15 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setString(int offset, String val, int txnum, int lsn) {
+   public void setString(int offset, String val, int txnum, long lsn) {
+      if (modifiedBy != txnum)
+         owner.modified(this, txnum);
       modifiedBy = txnum;
-      if (lsn >= 0)
+      if (lsn >= 0) {
+         if (firstLSN < 0)
+            firstLSN = lsn;
 	      logSequenceNumber = lsn;
+      }
       contents.setString(offset, val);
    }
 
@@ -124,6 +156,7 @@ public class Buffer {
          SimpleDB.logMgr().flush(logSequenceNumber);
          contents.write(blk);
          modifiedBy = -1;
+         firstLSN = -1;
       }
    }
 
@@ -165,6 +198,24 @@ public class Buffer {
       return pins > 0;
    }
 
+   /**
+    * Returns true if the page has been modified
+    * since it was last written to disk.
+    * @return true if the buffer is dirty
+    */
+   boolean isDirty() {
+      return modifiedBy >= 0;
+   }
+
+   /**
+    * Returns the LSN of the first log record for the modifications
+    * made since the page was last written, or -1 if there are none.
+    * @return the LSN of the oldest unwritten modification
+    */
+   long firstLSN() {
+      return firstLSN;
+   }
+
    /**
     * Returns true if the buffer is dirty
     * due to a modification by the specified transaction.
@@ -191,16 +242,19 @@ public class Buffer {
 
    /**
     * Initializes the buffer's page according to the specified formatter,
-    * and appends the page to the specified file.
+    * appends the page to the specified file, and assigns the buffer
+    * to the new block.
     * If the buffer was dirty, then the contents
     * of the previous page are first written to disk.
     * @param filename the name of the file
     * @param fmtr a page formatter, used to initialize the page
+    * @return a reference to the new disk block
     */
-   void assignToNew(String filename, PageFormatter fmtr) {
+   Block assignToNew(String filename, PageFormatter fmtr) {
       flush();
       fmtr.format(contents);
       blk = contents.append(filename);
       pins = 0;
+      return blk;
    }
 }
@@ -0,0 +1,108 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The grants of buffers to the operators that pin many buffers
+ * at once, such as the chunks of a multibuffer product.
+ * An operator asks for the number of buffers it would like and
+ * the fewest it can work with, before it pins any of them.
+ * Only part of the pool can be granted; the rest is left for
+ * the few pins of the ordinary scans.
+ * <p>
+ * A request is granted at once if at least its minimum is free
+ * and no request is waiting, and is downsized if fewer buffers than it
+ * would like are free.  Otherwise it waits in a FIFO queue until
+ * enough buffers are released.  A transaction that already holds
+ * a grant never waits, since the buffers it waits for could be its own;
+ * it is granted at least its minimum, even if that exceeds the part
+ * of the pool that can be granted.  Nor does a request wait longer
+ * than a fixed time: it is then granted its minimum,
+ * so that a large query runs slowly rather than being aborted.
+ * @author Edward Sciore
+ */
+class BufferGrants {
+   private static final long MAX_TIME = 10000; // 10 seconds
+   private int capacity;
+   private int granted = 0;
+   // Key: transaction #, Value: the number of buffers granted to it
+   private Map<Integer,Integer> holders = new HashMap<Integer,Integer>();
+   private LinkedList<Object> queue = new LinkedList<Object>();
+
+   /**
+    * Creates the grants for a pool of the specified size.
+    * Three quarters of the pool can be granted.
+    * @param numbuffers the number of buffers in the pool
+    */
+   BufferGrants(int numbuffers) {
+      capacity = Math.max(1, numbuffers - numbuffers / 4);
+   }
+
+   /**
+    * Grants buffers to a transaction, waiting if necessary.
+    * @param wanted the number of buffers the operator would like
+    * @param minimum the fewest buffers the operator can work with
+    * @param txnum the id of the transaction
+    * @return the number of buffers granted, at least the minimum
+    */
+   synchronized int reserve(int wanted, int minimum, int txnum) {
+      minimum = Math.max(1, Math.min(minimum, capacity));
+      wanted = Math.max(minimum, Math.min(wanted, capacity));
+      if (!holders.containsKey(txnum) && !(queue.isEmpty() && free() >= minimum)) {
+         Object req = new Object();
+         queue.add(req);
+         long timestamp = System.currentTimeMillis();
+         try {
+            while (queue.getFirst() != req || free() < minimum) {
+               long left = timestamp + MAX_TIME - System.currentTimeMillis();
+               if (left <= 0)
+                  break;
+               wait(left);
+            }
+         }
+         catch(InterruptedException e) {}
+         queue.remove(req);
+         notifyAll();  // the next request may now be at the head
+      }
+      int n = Math.min(wanted, Math.max(free(), minimum));
+      granted += n;
+      Integer held = holders.get(txnum);
+      holders.put(txnum, (held == null) ? n : held + n);
+      return n;
+   }
+
+   /**
+    * Releases some of the buffers granted to a transaction.
+    * @param count the number of buffers released
+    * @param txnum the id of the transaction
+    */
+   synchronized void release(int count, int txnum) {
+      Integer held = holders.get(txnum);
+      if (held == null)
+         return;
+      count = Math.min(count, held);
+      granted -= count;
+      if (held == count)
+         holders.remove(txnum);
+      else
+         holders.put(txnum, held - count);
+      notifyAll();
+   }
+
+   /**
+    * Releases all the buffers granted to a transaction.
+    * @param txnum the id of the transaction
+    */
+   synchronized void releaseAll(int txnum) {
+      Integer held = holders.get(txnum);
+      if (held != null)
+         release(held, txnum);
+   }
+
+   /**
+    * Returns the number of buffers that can be granted now.
+    */
+   synchronized int free() {
+      return Math.max(0, capacity - granted);
+   }
+}
@@ -1,8 +1,10 @@
 package simpledb.buffer;
 
+import simpledb.file.*;
 import simpledb.record.*;
 import static org.junit.Assert.*;
 import org.junit.Test;
+import java.util.*;
 
 public class BufferManagerTests {
 
@@ -80,4 +82,104 @@ public class BufferManagerTests {
       assertEquals("Buffer 1 should have value 1 at offset 0", buffer1.getInt(0), 1);
       assertEquals("Buffer 5 should have value 0 at offset 0", buffer5.getInt(0), 0);
    }
+
+   // Tests that a sequential scan replaces a frequently used block
+   // under LRU, but not under the scan-resistant policies.
+   @Test
+   public void replacementPolicyTests() {
+      assertFalse("LRU should replace the hot block during a scan", keepsHotBlock(ReplacementPolicy.LRU));
+      assertTrue("LRU-K should keep the hot block during a scan", keepsHotBlock(ReplacementPolicy.LRU_K));
+      assertTrue("2Q should keep the hot block during a scan", keepsHotBlock(ReplacementPolicy.TWO_Q));
+   }
+
+   // Uses a block repeatedly, scans more blocks than fit in the pool,
+   // and returns whether the block was still in the pool afterwards.
+   private boolean keepsHotBlock(String policy) {
+      BufferMgr bufferManager = new BufferMgr(4, policy);
+      Block[] blocks = new Block[12];
+      Page page = new Page();
+      for (int i = 0; i < blocks.length; i++) {
+         blocks[i] = page.append("policytest.tbl");
+      }
+
+      // Use the hot block, let it be replaced, and come back to it twice.
+      Block hot = blocks[0];
+      pinAndUnpin(bufferManager, hot);
+      for (int i = 1; i <= 4; i++) {
+         pinAndUnpin(bufferManager, blocks[i]);
+      }
+      pinAndUnpin(bufferManager, hot);
+      pinAndUnpin(bufferManager, hot);
+
+      // Scan the remaining blocks once each.
+      for (int i = 5; i < blocks.length; i++) {
+         pinAndUnpin(bufferManager, blocks[i]);
+      }
+
+      long hits = bufferManager.hits();
+      pinAndUnpin(bufferManager, hot);
+      return bufferManager.hits() == hits + 1;
+   }
+
+   // Tests that reservations are downsized to what the pool can grant,
+   // and that a second transaction waits until the first releases its buffers.
+   @Test
+   public void reserveTests() throws InterruptedException {
+      final BufferMgr bufferManager = new BufferMgr(8);
+      int capacity = bufferManager.reservable();
+      assertEquals("Part of the pool should be left unreserved", 6, capacity);
+      assertEquals("A large request should be downsized", capacity, bufferManager.reserve(100, 1, 1));
+      assertEquals("A holder should get its minimum without waiting", 1, bufferManager.reserve(3, 1, 1));
+
+      final int[] granted = new int[1];
+      Thread other = new Thread() {
+         public void run() {
+            granted[0] = bufferManager.reserve(4, 2, 2);
+         }
+      };
+      other.start();
+      other.join(500);
+      assertTrue("The second request should wait", other.isAlive());
+      bufferManager.releaseAll(1);
+      other.join();
+      assertEquals("The second request should be granted after the release", 4, granted[0]);
+      bufferManager.release(4, 2);
+      assertEquals(capacity, bufferManager.reservable());
+   }
+
+   // Tests that the blocks of one partition can be pinned in more buffers
+   // than the partition started with, by moving unpinned buffers to it
+   // from the other partition, and that a new block's buffer can come
+   // from the other partition too.
+   @Test
+   public void partitionTests() {
+      BufferMgr bufferManager = new BufferMgr(256);
+      Page page = new Page();
+      List<Block> blocks = new ArrayList<Block>();
+      for (int i = 0; blocks.size() < 200; i++) {
+         Block block = page.append("partitiontest.tbl");
+         if ((block.hashCode() & Integer.MAX_VALUE) % 2 == 0)
+            blocks.add(block);
+      }
+
+      List<Buffer> buffers = new ArrayList<Buffer>();
+      for (Block block : blocks)
+         buffers.add(bufferManager.pin(block, 0));
+      assertEquals("Every block should have a buffer", 200, buffers.size());
+      assertEquals("The other buffers should still be available", 56, bufferManager.available());
+
+      TableInfo tableInfo = new TableInfo("partitiontest", new Schema());
+      for (int i = 0; i < 56; i++)
+         buffers.add(bufferManager.pinNew("partitiontest.tbl", new RecordFormatter(tableInfo), 0));
+      assertEquals("Every buffer should be pinned", 0, bufferManager.available());
+
+      for (Buffer buffer : buffers)
+         bufferManager.unpin(buffer, 0);
+      assertEquals("Every buffer should be available", 256, bufferManager.available());
+   }
+
+   private void pinAndUnpin(BufferMgr bufferManager, Block block) {
+      Buffer buffer = bufferManager.pin(block, 0);
+      bufferManager.unpin(buffer, 0);
+   }
 }
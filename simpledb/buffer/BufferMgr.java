@@ -1,9 +1,8 @@
 package simpledb.buffer;
 
-import java.util.HashMap;
-
 import simpledb.file.*;
 import simpledb.tx.concurrency.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The publicly-accessible buffer manager.
@@ -19,17 +18,60 @@ import simpledb.tx.concurrency.*;
  * If a thread has been waiting for a buffer for an
  * excessive amount of time (currently, 10 seconds)
  * then a {@link BufferAbortException} is thrown.
+ * <p>
+ * Large pools are split into partitions, each a basic buffer
+ * manager with its own lock and its own waiting list.
+ * A block always lives in the partition selected by its hash code,
+ * so clients touching unrelated blocks do not serialize on a
+ * single monitor.  The buffers are not bound to a partition, though:
+ * when every buffer of a block's partition is pinned, an unpinned
+ * buffer of another partition is moved to it.  So a pin waits only
+ * when every buffer in the pool is pinned, as {@link #available()}
+ * and the reservations of {@link BufferGrants} assume.
+ * An unpinned buffer wakes a thread waiting on its own partition,
+ * or else one waiting on another partition, which can move it.
+ * <p>
+ * A background {@link BufferWriter} can be started to write dirty,
+ * unpinned buffers ahead of time, so that replacing a buffer
+ * seldom has to wait for a disk write.
+ * <p>
+ * An operator that pins many buffers at once first reserves them
+ * with {@link #reserve(int, int, int) reserve}, which may wait for
+ * other operators to release theirs, or grant fewer than asked;
+ * see {@link BufferGrants}.  So concurrent operators do not
+ * over-commit the pool and then wait in pin until they abort.
  * @author Edward Sciore
  */
 public class BufferMgr {
    private static final long MAX_TIME = 10000; // 10 seconds
-   private BasicBufferMgr bufferMgr;
+   // The smallest number of buffers worth giving a partition of its own.
+   private static final int MIN_PARTITION_SIZE = 128;
+   private BasicBufferMgr[] partitions;
+   // The threads waiting on each partition, guarded by the partition's
+   // lock, and whether a buffer was unpinned for them in another one.
+   private int[] waiting;
+   private boolean[] signaled;
+   // The threads waiting on any partition.
+   private AtomicInteger waiters = new AtomicInteger();
+   private BufferWriter writer = null;
+   private BufferGrants grants;
 
    private static LockTable locktbl = new LockTable();
 
    /**
     * Creates a new buffer manager having the specified
-    * number of buffers.
+    * number of buffers, which are replaced using LRU.
+    * @param numbuffers the number of buffer slots to allocate
+    */
+   public BufferMgr(int numbuffers) {
+      this(numbuffers, ReplacementPolicy.LRU);
+   }
+
+   /**
+    * Creates a new buffer manager having the specified
+    * number of buffers and replacement policy.
+    * The buffers are divided evenly among the partitions,
+    * and each partition has its own instance of the policy.
     * This constructor depends on both the {@link FileMgr} and
     * {@link simpledb.log.LogMgr LogMgr} objects
     * that it gets from the class
@@ -39,9 +81,31 @@ public class BufferMgr {
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
     * @param numbuffers the number of buffer slots to allocate
+    * @param policyname the name of a policy defined in {@link ReplacementPolicy}
     */
-   public BufferMgr(int numbuffers) {
-      bufferMgr = new BasicBufferMgr(numbuffers);
+   public BufferMgr(int numbuffers, String policyname) {
+      grants = new BufferGrants(numbuffers);
+      int numparts = numPartitions(numbuffers);
+      partitions = new BasicBufferMgr[numparts];
+      waiting = new int[numparts];
+      signaled = new boolean[numparts];
+      for (int i=0; i<numparts; i++) {
+         int size = numbuffers / numparts;
+         if (i < numbuffers % numparts)
+            size++;
+         partitions[i] = new BasicBufferMgr(size, policyname);
+      }
+   }
+
+   /**
+    * Starts the background writer, unless it is already running.
+    * @param interval the time between the writer's rounds, in milliseconds
+    */
+   public synchronized void startWriter(long interval) {
+      if (writer == null) {
+         writer = new BufferWriter(partitions, interval);
+         writer.start();
+      }
    }
 
    /**
@@ -52,83 +116,64 @@ public class BufferMgr {
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(Block blk, int txnum) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-
-            // We check the lock table to see if having this buffer wait will cause deadlock.
-            if(locktbl.noBufferConflicts(txnum)) {
-               locktbl.putOnWaitList(txnum);
-               wait(MAX_TIME);
-               buff = bufferMgr.pin(blk);
-            } else {
-               throw new BufferAbortException();
-            }
-         }
-         if (buff == null)
-            throw new BufferAbortException();
-
-         locktbl.takeOffWaitList(txnum);
-         // locktbl.addPin(txnum);
-
-         return buff;
-      }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
+   public Buffer pin(Block blk, int txnum) {
+      int i = partitionIndex(blk);
+      BasicBufferMgr part = partitions[i];
+      synchronized (part) {
+         Buffer buff = part.pin(blk);
+         if (buff != null)
+            return buff;
       }
+      return waitForBuffer(i, blk, txnum);
    }
 
    /**
     * Pins a buffer to a new block in the specified file,
     * potentially waiting until a buffer becomes available.
+    * An unpinned buffer is taken out of the pool first, and only
+    * then is its page formatted and appended to the file, so a
+    * transaction that gives up waiting appends nothing.
+    * The buffer then joins the partition of the new block,
+    * which its block number determines.
     * If no buffer becomes available within a fixed
     * time period, then a {@link BufferAbortException} is thrown.
     * @param filename the name of the file
     * @param fmtr the formatter used to initialize the page
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pinNew(String filename, PageFormatter fmtr, int txnum) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pinNew(filename, fmtr);
-         while (buff == null && !waitingTooLong(timestamp)) {
-
-            // We check the lock table to see if having this buffer wait will cause deadlock.
-            if(locktbl.noBufferConflicts(txnum)) {
-               locktbl.putOnWaitList(txnum);
-               wait(MAX_TIME);
-               buff = bufferMgr.pinNew(filename, fmtr);
-            } else {
-               throw new BufferAbortException();
-            }
-         }
-         if (buff == null)
-            throw new BufferAbortException();
-
-         locktbl.takeOffWaitList(txnum);
-         // locktbl.addPin(txnum);
-
-         return buff;
-      }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
+   public Buffer pinNew(String filename, PageFormatter fmtr, int txnum) {
+      Buffer buff = waitForBuffer(partitionIndex(new Block(filename, 0)), null, txnum);
+      Block blk = buff.assignToNew(filename, fmtr);
+      BasicBufferMgr part = partitionFor(blk);
+      synchronized (part) {
+         return part.pinNew(buff);
       }
    }
 
    /**
     * Unpins the specified buffer.
     * If the buffer's pin count becomes 0,
-    * then the threads on the wait list are notified.
+    * then one of the threads waiting on the
+    * buffer's partition is notified, or if there
+    * is none, a thread waiting on another partition.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff, int txnum) {
-      bufferMgr.unpin(buff);
-      // locktbl.removePin(txnum);
+   public void unpin(Buffer buff, int txnum) {
+      int i = partitionIndex(buff.block());
+      BasicBufferMgr part = partitions[i];
+      synchronized (part) {
+         part.unpin(buff);
+         // locktbl.removePin(txnum);
 
-      if (!buff.isPinned())
-         notifyAll();
+         if (buff.isPinned())
+            return;
+         if (waiting[i] > 0) {
+            part.notify();
+            return;
+         }
+      }
+      if (waiters.get() > 0)
+         signalOther(i);
    }
 
    /**
@@ -136,7 +181,48 @@ public class BufferMgr {
     * @param txnum the transaction's id number
     */
    public void flushAll(int txnum) {
-      bufferMgr.flushAll(txnum);
+      for (BasicBufferMgr part : partitions)
+         part.flushAll(txnum);
+   }
+
+   /**
+    * Forgets the dirty buffers modified by the specified transaction,
+    * which has finished.
+    * The buffers stay dirty, and are written by the buffer writer
+    * or when they are replaced.
+    * @param txnum the transaction's id number
+    */
+   public void forget(int txnum) {
+      for (BasicBufferMgr part : partitions)
+         part.forget(txnum);
+   }
+
+   /**
+    * Writes the unpinned buffers whose unwritten modifications
+    * began before the specified LSN.
+    * A checkpoint calls this method so that a page that is modified
+    * over and over does not keep recovery from moving forward.
+    * @param lsn the LSN
+    */
+   public void flushOlderThan(long lsn) {
+      for (BasicBufferMgr part : partitions)
+         part.flushOlderThan(lsn);
+   }
+
+   /**
+    * Returns the LSN of the first log record for the oldest
+    * modification that has not been written, or -1 if every
+    * logged modification has been written.
+    * @return the LSN of the oldest unwritten modification
+    */
+   public long oldestLSN() {
+      long oldest = -1;
+      for (BasicBufferMgr part : partitions) {
+         long first = part.oldestLSN();
+         if (first >= 0 && (oldest < 0 || first < oldest))
+            oldest = first;
+      }
+      return oldest;
    }
 
    /**
@@ -144,7 +230,195 @@ public class BufferMgr {
     * @return the number of available buffers
     */
    public int available() {
-      return bufferMgr.available();
+      int numAvailable = 0;
+      for (BasicBufferMgr part : partitions)
+         numAvailable += part.available();
+      return numAvailable;
+   }
+
+   /**
+    * Reserves buffers for an operator that will pin many of them at once.
+    * The request may wait until other operators release their buffers,
+    * and may be granted fewer buffers than it would like,
+    * but never fewer than its minimum.
+    * @param wanted the number of buffers the operator would like
+    * @param minimum the fewest buffers the operator can work with
+    * @param txnum the id of the transaction
+    * @return the number of buffers granted
+    */
+   public int reserve(int wanted, int minimum, int txnum) {
+      return grants.reserve(wanted, minimum, txnum);
+   }
+
+   /**
+    * Releases buffers that were reserved by the transaction.
+    * @param count the number of buffers
+    * @param txnum the id of the transaction
+    */
+   public void release(int count, int txnum) {
+      grants.release(count, txnum);
+   }
+
+   /**
+    * Releases all the buffers reserved by the transaction,
+    * which has finished.
+    * @param txnum the id of the transaction
+    */
+   public void releaseAll(int txnum) {
+      grants.releaseAll(txnum);
+   }
+
+   /**
+    * Returns the number of buffers that can be reserved
+    * without waiting.
+    * @return the number of buffers that can be reserved
+    */
+   public int reservable() {
+      return grants.free();
+   }
+
+   /**
+    * Returns the number of pins that found their block
+    * already in the pool.
+    * Together with {@link #misses()}, this measures how well
+    * the replacement policy suits the workload.
+    * @return the number of buffer hits
+    */
+   public long hits() {
+      long hits = 0;
+      for (BasicBufferMgr part : partitions)
+         hits += part.hits();
+      return hits;
+   }
+
+   /**
+    * Returns the number of pins that had to read their block
+    * into a replaced buffer.
+    * @return the number of buffer misses
+    */
+   public long misses() {
+      long misses = 0;
+      for (BasicBufferMgr part : partitions)
+         misses += part.misses();
+      return misses;
+   }
+
+   /**
+    * Obtains a buffer once the partition has none to spare.
+    * For a block, an unpinned buffer of another partition is moved
+    * to the block's partition and pinned to the block.
+    * For a null block, an unpinned buffer of any partition,
+    * this one first, is taken out of the pool for a new block.
+    * If every buffer is pinned, the thread waits on the partition's
+    * monitor until a buffer of any partition is unpinned.
+    * The thread is counted as waiting before it looks at the other
+    * partitions, so a buffer unpinned after it has looked wakes it.
+    * @param i the index of the partition
+    * @param blk a reference to a disk block, or null
+    * @return the buffer pinned to that block, or the buffer for a new block
+    */
+   private Buffer waitForBuffer(int i, Block blk, int txnum) {
+      BasicBufferMgr part = partitions[i];
+      long timestamp = System.currentTimeMillis();
+      boolean waited = false;
+      synchronized (part) {
+         waiting[i]++;
+      }
+      waiters.incrementAndGet();
+      try {
+         while (true) {
+            Buffer buff = (blk == null) ? part.lend() : null;
+            if (buff == null)
+               buff = borrow(i);
+            synchronized (part) {
+               if (blk != null) {
+                  if (buff != null)
+                     part.adopt(buff);
+                  buff = part.pin(blk);
+               }
+               if (buff != null) {
+                  if (waited)
+                     locktbl.takeOffWaitList(txnum);
+                  // locktbl.addPin(txnum);
+                  return buff;
+               }
+               if (signaled[i])
+                  signaled[i] = false;  // look at the other partitions again
+               // We check the lock table to see if having this buffer wait will cause deadlock.
+               else if (!waitingTooLong(timestamp) && locktbl.noBufferConflicts(txnum)) {
+                  locktbl.putOnWaitList(txnum);
+                  waited = true;
+                  part.wait(MAX_TIME);
+                  signaled[i] = false;
+               }
+               else {
+                  // Pass on any notification this thread received but cannot use.
+                  if (part.available() > 0)
+                     part.notify();
+                  throw new BufferAbortException();
+               }
+            }
+         }
+      }
+      catch(InterruptedException e) {
+         throw new BufferAbortException();
+      }
+      finally {
+         waiters.decrementAndGet();
+         synchronized (part) {
+            waiting[i]--;
+         }
+      }
+   }
+
+   /**
+    * Takes an unpinned buffer out of a partition other than
+    * the specified one, if any has one.
+    * The partitions are locked one at a time.
+    */
+   private Buffer borrow(int i) {
+      for (int j=1; j<partitions.length; j++) {
+         Buffer buff = partitions[(i + j) % partitions.length].lend();
+         if (buff != null)
+            return buff;
+      }
+      return null;
+   }
+
+   /**
+    * Wakes a thread waiting on a partition other than
+    * the specified one, if there is one, so that it can
+    * move the buffer just unpinned there.
+    */
+   private void signalOther(int i) {
+      for (int j=1; j<partitions.length; j++) {
+         int k = (i + j) % partitions.length;
+         synchronized (partitions[k]) {
+            if (waiting[k] > 0) {
+               signaled[k] = true;
+               partitions[k].notify();
+               return;
+            }
+         }
+      }
+   }
+
+   private BasicBufferMgr partitionFor(Block blk) {
+      return partitions[partitionIndex(blk)];
+   }
+
+   private int partitionIndex(Block blk) {
+      return (blk.hashCode() & Integer.MAX_VALUE) % partitions.length;
+   }
+
+   /**
+    * Determines how many partitions a pool of the specified size is split into.
+    * Small pools keep a single partition, so that every buffer
+    * is available to every block.
+    */
+   private static int numPartitions(int numbuffers) {
+      int maxparts = 4 * Runtime.getRuntime().availableProcessors();
+      return Math.max(1, Math.min(maxparts, numbuffers / MIN_PARTITION_SIZE));
    }
 
    private boolean waitingTooLong(long starttime) {
@@ -0,0 +1,47 @@
+package simpledb.buffer;
+
+/**
+ * A daemon thread that trickles dirty buffers to disk.
+ * Every so often, the writer asks each partition of the
+ * buffer pool to write some of its dirty, unpinned buffers.
+ * A buffer written this way is clean when it is later chosen
+ * for replacement, so the pinning thread does not have to wait
+ * for the write.
+ * Each buffer is written through {@link Buffer#flush()},
+ * which first flushes the log up to the buffer's LSN.
+ */
+class BufferWriter extends Thread {
+   // The most buffers written from one partition in one round.
+   private static final int MAX_WRITES = 16;
+   private BasicBufferMgr[] partitions;
+   private long interval;
+
+   /**
+    * Creates a writer for the specified partitions.
+    * @param partitions the partitions of the buffer pool
+    * @param interval the time between rounds, in milliseconds
+    */
+   BufferWriter(BasicBufferMgr[] partitions, long interval) {
+      super("buffer writer");
+      this.partitions = partitions;
+      this.interval = interval;
+      setDaemon(true);
+   }
+
+   /**
+    * Writes dirty buffers until the thread is interrupted.
+    * The partition's lock is released between writes,
+    * so pins are held up by at most one write.
+    */
+   public void run() {
+      try {
+         while (!isInterrupted()) {
+            for (BasicBufferMgr part : partitions)
+               for (int i=0; i<MAX_WRITES && part.writeNextDirty(); i++)
+                  ;
+            sleep(interval);
+         }
+      }
+      catch(InterruptedException e) {}
+   }
+}
@@ -0,0 +1,103 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The LRU-K replacement policy.
+ * The policy remembers the times of the last K references
+ * to each block, and replaces the buffer whose K-th most
+ * recent reference is the oldest.
+ * A block that has been referenced fewer than K times is
+ * treated as having an infinitely old K-th reference,
+ * so the pages of a sequential scan, which are read once,
+ * are replaced before pages that are used repeatedly.
+ * Ties are broken by the most recent reference, as in LRU.
+ * The history of a block is kept for a while after its buffer
+ * is replaced, so that a block that comes back soon is
+ * recognized as frequently used.
+ */
+class LRUKPolicy implements ReplacementPolicy {
+   private int k;
+   private long clock = 0;
+   private long nextId = 0;
+   private Map<Block,long[]> history;
+   private Map<Buffer,Candidate> candidates = new HashMap<Buffer,Candidate>();
+   private TreeSet<Candidate> unpinned = new TreeSet<Candidate>();
+
+   /**
+    * Creates an LRU-K policy for a pool of the specified size.
+    * @param k the number of references remembered for each block
+    * @param numbuffs the number of buffers in the pool
+    */
+   @SuppressWarnings("serial")
+   LRUKPolicy(int k, int numbuffs) {
+      this.k = k;
+      final int maxHistory = 2 * numbuffs;
+      history = new LinkedHashMap<Block,long[]>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<Block,long[]> eldest) {
+            return size() > maxHistory;
+         }
+      };
+   }
+
+   /**
+    * Records a reference to the buffer's block.
+    */
+   public void pinned(Buffer buff) {
+      Candidate c = candidates.remove(buff);
+      if (c != null)
+         unpinned.remove(c);
+      long[] refs = history.get(buff.block());
+      if (refs == null) {
+         refs = new long[k];
+         history.put(buff.block(), refs);
+      }
+      System.arraycopy(refs, 0, refs, 1, k-1);
+      refs[0] = ++clock;
+   }
+
+   public void unpinned(Buffer buff) {
+      long kth = -1, last = -1;  // buffers without a block go first
+      if (buff.block() != null) {
+         long[] refs = history.get(buff.block());
+         kth  = (refs == null) ? 0 : refs[k-1];
+         last = (refs == null) ? 0 : refs[0];
+      }
+      Candidate c = new Candidate(buff, kth, last, nextId++);
+      candidates.put(buff, c);
+      unpinned.add(c);
+   }
+
+   public Buffer chooseUnpinnedBuffer() {
+      if (unpinned.isEmpty())
+         return null;
+      Candidate c = unpinned.pollFirst();
+      candidates.remove(c.buff);
+      return c.buff;
+   }
+
+   /**
+    * An unpinned buffer, together with the reference times
+    * of its block at the moment it was unpinned.
+    */
+   private static class Candidate implements Comparable<Candidate> {
+      Buffer buff;
+      long kth, last, id;
+
+      Candidate(Buffer buff, long kth, long last, long id) {
+         this.buff = buff;
+         this.kth  = kth;
+         this.last = last;
+         this.id   = id;
+      }
+
+      public int compareTo(Candidate c) {
+         if (kth != c.kth)
+            return kth < c.kth ? -1 : 1;
+         if (last != c.last)
+            return last < c.last ? -1 : 1;
+         return id < c.id ? -1 : (id == c.id ? 0 : 1);
+      }
+   }
+}
@@ -0,0 +1,31 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The least-recently-used replacement policy.
+ * Buffers are appended to a list as their pin count drops
+ * to zero, so the head of the list is the buffer that
+ * was last used the longest ago.
+ */
+class LRUPolicy implements ReplacementPolicy {
+   // The unpinned buffers, ordered from least to most recently used.
+   private LinkedHashSet<Buffer> unpinned = new LinkedHashSet<Buffer>();
+
+   public void pinned(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      unpinned.add(buff);
+   }
+
+   public Buffer chooseUnpinnedBuffer() {
+      Iterator<Buffer> iter = unpinned.iterator();
+      if (!iter.hasNext())
+         return null;
+      Buffer buff = iter.next();
+      iter.remove();
+      return buff;
+   }
+}
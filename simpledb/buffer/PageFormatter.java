@@ -12,7 +12,8 @@ public interface PageFormatter {
    /**
     * Initializes a page, whose contents will be
     * written to a new disk block.
-    * This method is called only during the method
+    * This method is called only when a new block is appended,
+    * by the methods {@link BufferMgr#pinNew} and
     * {@link Buffer#assignToNew}.
     * @param p a buffer page
     */
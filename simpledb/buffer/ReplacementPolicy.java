@@ -0,0 +1,51 @@
+package simpledb.buffer;
+
+/**
+ * The strategy that a basic buffer manager uses to decide
+ * which unpinned buffer to replace.
+ * The buffer manager tells the policy whenever a buffer is
+ * pinned or becomes unpinned, and asks it for a victim
+ * whenever a block is not already in the pool.
+ * A policy is not thread-safe; it is only called while
+ * the buffer manager's lock is held.
+ * <p>
+ * The available policies are selected by name, using the
+ * constants of this interface.
+ */
+public interface ReplacementPolicy {
+   /**
+    * The names of the available policies.
+    * LRU replaces the buffer that was unpinned the longest ago.
+    * LRU-K replaces the buffer whose K-th most recent reference
+    * is the oldest, so blocks read once by a scan go before
+    * blocks that are used repeatedly.
+    * 2Q admits new blocks to a small FIFO queue, and promotes
+    * a block to the main LRU queue only if it is referenced
+    * again soon after being replaced.
+    */
+   static final String LRU = "lru", LRU_K = "lru-k", TWO_Q = "2q";
+
+   /**
+    * Called whenever the buffer is pinned, after it has been
+    * assigned to its block.
+    * The buffer is no longer a candidate for replacement.
+    * @param buff the pinned buffer
+    */
+   void pinned(Buffer buff);
+
+   /**
+    * Called when the buffer's pin count becomes 0,
+    * and also once for each buffer when the pool is created.
+    * The buffer becomes a candidate for replacement.
+    * @param buff the unpinned buffer
+    */
+   void unpinned(Buffer buff);
+
+   /**
+    * Chooses an unpinned buffer to be assigned to a new block,
+    * and stops considering it as a candidate.
+    * Returns null if every buffer is pinned.
+    * @return the buffer to replace, or null
+    */
+   Buffer chooseUnpinnedBuffer();
+}
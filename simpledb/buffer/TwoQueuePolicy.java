@@ -0,0 +1,100 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The 2Q replacement policy.
+ * A block that is brought into the pool is first placed
+ * in a FIFO queue (A1in), which holds about a quarter of the pool.
+ * When a buffer leaves A1in, its block is remembered in a
+ * "ghost" queue (A1out) that holds only block references.
+ * A block that is read again while it is remembered in A1out
+ * has proved to be hot, and is placed in the main queue (Am),
+ * which is managed as LRU.
+ * Blocks touched once by a sequential scan therefore cycle through
+ * A1in without disturbing the catalog and index pages kept in Am.
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+   private int kin, kout;
+   private long nextSeq = 0;
+   // Buffers that have no block yet.
+   private LinkedHashSet<Buffer> free = new LinkedHashSet<Buffer>();
+   // The buffers in A1in, with their admission sequence numbers.
+   private Map<Buffer,Long> a1in = new HashMap<Buffer,Long>();
+   // The unpinned buffers in A1in, in admission order.
+   private TreeMap<Long,Buffer> a1inUnpinned = new TreeMap<Long,Buffer>();
+   // The buffers in Am.
+   private Set<Buffer> am = new HashSet<Buffer>();
+   // The unpinned buffers in Am, from least to most recently used.
+   private LinkedHashSet<Buffer> amUnpinned = new LinkedHashSet<Buffer>();
+   // The blocks recently replaced from A1in, oldest first.
+   private LinkedHashSet<Block> a1out = new LinkedHashSet<Block>();
+
+   /**
+    * Creates a 2Q policy for a pool of the specified size.
+    * @param numbuffs the number of buffers in the pool
+    */
+   TwoQueuePolicy(int numbuffs) {
+      kin  = Math.max(1, numbuffs / 4);
+      kout = Math.max(1, numbuffs / 2);
+   }
+
+   public void pinned(Buffer buff) {
+      free.remove(buff);
+      Long seq = a1in.get(buff);
+      if (seq != null)
+         a1inUnpinned.remove(seq);
+      else if (am.contains(buff))
+         amUnpinned.remove(buff);
+      else if (a1out.remove(buff.block()))
+         am.add(buff);
+      else {
+         seq = nextSeq++;
+         a1in.put(buff, seq);
+      }
+   }
+
+   public void unpinned(Buffer buff) {
+      Long seq = a1in.get(buff);
+      if (seq != null)
+         a1inUnpinned.put(seq, buff);
+      else if (am.contains(buff))
+         amUnpinned.add(buff);
+      else
+         free.add(buff);
+   }
+
+   public Buffer chooseUnpinnedBuffer() {
+      if (!free.isEmpty())
+         return removeFirst(free);
+      if ((a1in.size() > kin || amUnpinned.isEmpty()) && !a1inUnpinned.isEmpty())
+         return replaceFromA1in();
+      if (!amUnpinned.isEmpty()) {
+         Buffer buff = removeFirst(amUnpinned);
+         am.remove(buff);
+         return buff;
+      }
+      return null;
+   }
+
+   /**
+    * Removes the oldest unpinned buffer from A1in,
+    * and remembers its block in A1out.
+    */
+   private Buffer replaceFromA1in() {
+      Buffer buff = a1inUnpinned.pollFirstEntry().getValue();
+      a1in.remove(buff);
+      a1out.add(buff.block());
+      if (a1out.size() > kout)
+         removeFirst(a1out);
+      return buff;
+   }
+
+   private static <T> T removeFirst(Set<T> set) {
+      Iterator<T> iter = set.iterator();
+      T first = iter.next();
+      iter.remove();
+      return first;
+   }
+}
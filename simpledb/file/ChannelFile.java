@@ -0,0 +1,58 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A database file that is accessed through a file channel.
+ * The file is opened in "rw" mode, so a write returns once
+ * it is in the operating system's cache.
+ * The file remembers whether it has been written since it
+ * was last forced, so that forcing an unchanged file is free.
+ * Positional reads and writes on a file channel are thread-safe,
+ * so only {@link #force()} takes the file's lock.
+ */
+class ChannelFile implements DbFile {
+   private FileChannel fc;
+   private volatile boolean dirty = false;
+
+   /**
+    * Opens the specified file, creating it if it does not exist.
+    * @param file the file
+    */
+   ChannelFile(File file) throws IOException {
+      fc = new RandomAccessFile(file, "rw").getChannel();
+   }
+
+   public void read(ByteBuffer bb, long pos) throws IOException {
+      fc.read(bb, pos);
+   }
+
+   public void write(ByteBuffer bb, long pos) throws IOException {
+      fc.write(bb, pos);
+      dirty = true;
+   }
+
+   public long size() throws IOException {
+      return fc.size();
+   }
+
+   /**
+    * Forces the file if it has been written since it was last forced.
+    * Forces are serialized, so that a caller who finds the file clean
+    * knows that an earlier force covering its writes has completed.
+    */
+   public synchronized void force() throws IOException {
+      // Clear the flag first, so that a concurrent write is forced
+      // either now or by the next call.
+      if (dirty) {
+         dirty = false;
+         fc.force(false);
+      }
+   }
+
+   public void close() throws IOException {
+      fc.close();
+   }
+}
@@ -0,0 +1,47 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An open database file, as seen by the {@link FileMgr}.
+ * Positions are byte offsets from the start of the file.
+ * Reads, writes and forces may be called concurrently;
+ * the file manager serializes the appends to each file.
+ */
+interface DbFile {
+   /**
+    * Reads bytes starting at the specified position
+    * into the remaining space of the bytebuffer.
+    * Bytes past the end of the file are not read.
+    * @param bb the bytebuffer
+    * @param pos the position in the file
+    */
+   void read(ByteBuffer bb, long pos) throws IOException;
+
+   /**
+    * Writes the remaining bytes of the bytebuffer
+    * starting at the specified position, extending the file if necessary.
+    * The bytes are not guaranteed to be on disk until {@link #force()} is called.
+    * @param bb the bytebuffer
+    * @param pos the position in the file
+    */
+   void write(ByteBuffer bb, long pos) throws IOException;
+
+   /**
+    * Returns the length of the file in bytes.
+    * @return the length of the file
+    */
+   long size() throws IOException;
+
+   /**
+    * Forces every write made so far to disk.
+    */
+   void force() throws IOException;
+
+   /**
+    * Closes the file.
+    * The file manager closes a file only when it is deleted.
+    */
+   void close() throws IOException;
+}
@@ -1,10 +1,9 @@
 package simpledb.file;
 
-import static simpledb.file.Page.BLOCK_SIZE;
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The SimpleDB file manager.
@@ -19,12 +18,42 @@ import java.util.*;
  * Method {@link #isNew() isNew} is called during system initialization by {@link simpledb.server.SimpleDB#init}.
  * Method {@link #size(String) size} is called by the log manager and transaction manager to
  * determine the end of the file.
+ * <p>
+ * The size of a block is chosen when the database is created,
+ * and is stored in a header file in the database directory.
+ * Method {@link #blockSize() blockSize} returns it to the other layers.
+ * <p>
+ * Files are accessed through one of two backends.
+ * The channel backend reads and writes each block with a system call.
+ * The mapped backend maps the data files (those ending in ".tbl")
+ * into memory; the log file is always accessed through a channel.
+ * Neither backend syncs its writes.  Instead, the log manager
+ * forces the log with {@link #force(String) force(filename)},
+ * and the recovery manager forces the data files with
+ * {@link #force() force} at checkpoints.
+ * <p>
+ * The file manager takes no global lock.
+ * Positional reads and writes of different blocks proceed in parallel,
+ * even within a file; only appends to the same file are serialized,
+ * by locking that file, so that each append gets a distinct block.
  * @author Edward Sciore
  */
 public class FileMgr {
+   /**
+    * The name of the file that holds the database's block size.
+    */
+   public static final String HEADER_FILE = "simpledb.hdr";
+
+   /**
+    * The names of the file backends.
+    */
+   public static final String CHANNEL = "channel", MAPPED = "mapped";
+
    private File dbDirectory;
    private boolean isNew;
-   private Map<String,FileChannel> openFiles = new HashMap<String,FileChannel>();
+   private int blocksize;
+   private String backend;
+   private Map<String,DbFile> openFiles = new ConcurrentHashMap<String,DbFile>();
 
    /**
     * Creates a file manager for the specified database.
@@ -33,9 +62,38 @@ public class FileMgr {
     * If the folder does not exist, then a folder containing
     * an empty database is created automatically.
     * Files for all temporary tables (i.e. tables beginning with "temp") are deleted.
+    * A new database uses the default block size.
     * @param dbname the name of the directory that holds the database
     */
    public FileMgr(String dbname) {
+      this(dbname, Page.DEFAULT_BLOCK_SIZE);
+   }
+
+   /**
+    * Creates a file manager for the specified database.
+    * If the database is new, its blocks will have the specified size,
+    * which is saved in the database's header file.
+    * Otherwise the block size is read from the header file, and
+    * the argument is ignored; a database created before the header
+    * file existed has the default block size.
+    * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size of a new database, in bytes
+    */
+   public FileMgr(String dbname, int blocksize) {
+      this(dbname, blocksize, CHANNEL);
+   }
+
+   /**
+    * Creates a file manager for the specified database,
+    * which accesses its files through the specified backend.
+    * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size of a new database, in bytes
+    * @param backend {@link #CHANNEL} or {@link #MAPPED}
+    */
+   public FileMgr(String dbname, int blocksize, String backend) {
+      if (!backend.equals(CHANNEL) && !backend.equals(MAPPED))
+         throw new RuntimeException("unknown file backend " + backend);
+      this.backend = backend;
       String homedir = System.getProperty("user.home");
       dbDirectory = new File(homedir, dbname);
       isNew = !dbDirectory.exists();
@@ -48,6 +106,16 @@ public class FileMgr {
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
          new File(dbDirectory, filename).delete();
+
+      File header = new File(dbDirectory, HEADER_FILE);
+      if (header.exists())
+         this.blocksize = readHeader(header);
+      else {
+         this.blocksize = isNew ? blocksize : Page.DEFAULT_BLOCK_SIZE;
+         if (this.blocksize < 2 * Page.INT_SIZE)
+            throw new RuntimeException("block size " + this.blocksize + " is too small");
+         writeHeader(header, this.blocksize);
+      }
    }
 
    /**
@@ -55,11 +123,10 @@ public class FileMgr {
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void read(Block blk, ByteBuffer bb) {
+   void read(Block blk, ByteBuffer bb) {
       try {
          bb.clear();
-         FileChannel fc = getFile(blk.fileName());
-         fc.read(bb, blk.number() * BLOCK_SIZE);
+         getFile(blk.fileName()).read(bb, (long) blk.number() * blocksize);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
@@ -71,11 +138,10 @@ public class FileMgr {
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void write(Block blk, ByteBuffer bb) {
+   void write(Block blk, ByteBuffer bb) {
       try {
          bb.rewind();
-         FileChannel fc = getFile(blk.fileName());
-         fc.write(bb, blk.number() * BLOCK_SIZE);
+         getFile(blk.fileName()).write(bb, (long) blk.number() * blocksize);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
@@ -89,11 +155,18 @@ public class FileMgr {
     * @param bb  the bytebuffer
     * @return a reference to the newly-created block.
     */
-   synchronized Block append(String filename, ByteBuffer bb) {
-      int newblknum = size(filename);
-      Block blk = new Block(filename, newblknum);
-      write(blk, bb);
-      return blk;
+   Block append(String filename, ByteBuffer bb) {
+      try {
+         synchronized (getFile(filename)) {
+            int newblknum = size(filename);
+            Block blk = new Block(filename, newblknum);
+            write(blk, bb);
+            return blk;
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot append to " + filename);
+      }
    }
 
    /**
@@ -101,16 +174,50 @@ public class FileMgr {
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
-   public synchronized int size(String filename) {
+   public int size(String filename) {
       try {
-         FileChannel fc = getFile(filename);
-         return (int)(fc.size() / BLOCK_SIZE);
+         return (int)(getFile(filename).size() / blocksize);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
 
+   /**
+    * Returns the names of the files in the database directory
+    * that begin with the specified prefix.
+    * The log manager uses this method to find the segments of the log.
+    * @param prefix the beginning of the file names
+    * @return the names of the matching files
+    */
+   public List<String> fileNames(String prefix) {
+      List<String> names = new ArrayList<String>();
+      for (String filename : dbDirectory.list())
+         if (filename.startsWith(prefix))
+            names.add(filename);
+      return names;
+   }
+
+   /**
+    * Closes and deletes the specified file.
+    * The caller must ensure that no other thread
+    * is accessing the file.
+    * @param filename the name of the file
+    */
+   public void delete(String filename) {
+      synchronized (openFiles) {
+         DbFile f = openFiles.remove(filename);
+         try {
+            if (f != null)
+               f.close();
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot close " + filename);
+         }
+         new File(dbDirectory, filename).delete();
+      }
+   }
+
    /**
     * Returns a boolean indicating whether the file manager
     * had to create a new database directory.
@@ -121,22 +228,100 @@ public class FileMgr {
    }
 
    /**
-    * Returns the file channel for the specified filename.
-    * The file channel is stored in a map keyed on the filename.
-    * If the file is not open, then it is opened and the file channel
-    * is added to the map.
+    * Forces all writes to the open files onto the disk.
+    * Only the files written since they were last forced are synced.
+    * The recovery manager calls this method at a checkpoint, so that
+    * the pages written before it are on disk before the checkpoint
+    * record is written and the log before it is truncated.
+    */
+   public void force() {
+      for (Map.Entry<String,DbFile> e : openFiles.entrySet()) {
+         try {
+            e.getValue().force();
+         }
+         catch (IOException ex) {
+            throw new RuntimeException("cannot force " + e.getKey());
+         }
+      }
+   }
+
+   /**
+    * Forces the writes to the specified file onto the disk.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
+      try {
+         getFile(filename).force();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot force " + filename);
+      }
+   }
+
+   /**
+    * Returns the size of the database's blocks,
+    * which is also the size of every page.
+    * @return the block size in bytes
+    */
+   public int blockSize() {
+      return blocksize;
+   }
+
+   private int readHeader(File header) {
+      try {
+         RandomAccessFile f = new RandomAccessFile(header, "r");
+         try {
+            return f.readInt();
+         }
+         finally {
+            f.close();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + HEADER_FILE);
+      }
+   }
+
+   private void writeHeader(File header, int blocksize) {
+      try {
+         RandomAccessFile f = new RandomAccessFile(header, "rws");
+         try {
+            f.writeInt(blocksize);
+         }
+         finally {
+            f.close();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + HEADER_FILE);
+      }
+   }
+
+   /**
+    * Returns the open file for the specified filename.
+    * The open file is stored in a map keyed on the filename.
+    * If the file is not open, then it is opened and
+    * added to the map; the map is locked while a file is opened,
+    * so that two threads do not open the same file.
     * @param filename the specified filename
-    * @return the file channel associated with the open file.
+    * @return the open file
     * @throws IOException
     */
-   private FileChannel getFile(String filename) throws IOException {
-      FileChannel fc = openFiles.get(filename);
-      if (fc == null) {
-         File dbTable = new File(dbDirectory, filename);
-         RandomAccessFile f = new RandomAccessFile(dbTable, "rws");
-         fc = f.getChannel();
-         openFiles.put(filename, fc);
+   private DbFile getFile(String filename) throws IOException {
+      DbFile f = openFiles.get(filename);
+      if (f == null) {
+         synchronized (openFiles) {
+            f = openFiles.get(filename);
+            if (f == null) {
+               File dbTable = new File(dbDirectory, filename);
+               if (backend.equals(MAPPED) && filename.endsWith(".tbl"))
+                  f = new MappedFile(dbTable, blocksize);
+               else
+                  f = new ChannelFile(dbTable);
+               openFiles.put(filename, f);
+            }
+         }
       }
-      return fc;
+      return f;
    }
 }
@@ -0,0 +1,153 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A database file whose contents are mapped into memory.
+ * The file is divided into extents of a fixed number of blocks,
+ * and each extent is mapped once the file has grown to contain all of it.
+ * Reading or writing a block of a mapped extent is a memory copy,
+ * without a system call.
+ * The blocks past the last complete extent, which is where
+ * the file is appended to, are accessed through the file channel.
+ * <p>
+ * The file is opened in "rw" mode, so writes reach the disk only
+ * when the operating system chooses, or when {@link #force()} is called.
+ * The file remembers which extents have been written since the last
+ * force, so that a force only syncs those.
+ * <p>
+ * Reads and writes of mapped blocks take no lock.
+ * The array of mapped extents is replaced, never modified,
+ * when the file grows; the record of written extents
+ * is guarded by the file's lock.
+ * Forces are serialized by a separate lock, so that a caller who
+ * finds nothing to force knows that an earlier force has completed.
+ */
+class MappedFile implements DbFile {
+   /**
+    * The number of blocks in an extent.
+    */
+   static final int EXTENT_BLOCKS = 256;
+
+   private FileChannel fc;
+   private long extentsize;
+   private volatile MappedByteBuffer[] extents = new MappedByteBuffer[0];
+   private BitSet dirtyExtents = new BitSet();
+   private boolean tailDirty = false;
+   private final Object forceLock = new Object();
+
+   /**
+    * Opens the specified file, creating it if it does not exist.
+    * @param file the file
+    * @param blocksize the block size of the database
+    */
+   MappedFile(File file, int blocksize) throws IOException {
+      fc = new RandomAccessFile(file, "rw").getChannel();
+      extentsize = (long) EXTENT_BLOCKS * blocksize;
+   }
+
+   public void read(ByteBuffer bb, long pos) throws IOException {
+      ByteBuffer region = region(pos, bb.remaining());
+      if (region != null)
+         bb.put(region);
+      else
+         fc.read(bb, pos);
+   }
+
+   public void write(ByteBuffer bb, long pos) throws IOException {
+      ByteBuffer region = region(pos, bb.remaining());
+      if (region != null) {
+         region.put(bb);
+         written((int) (pos / extentsize));
+      }
+      else {
+         fc.write(bb, pos);
+         written(-1);
+      }
+   }
+
+   public long size() throws IOException {
+      return fc.size();
+   }
+
+   public void force() throws IOException {
+      synchronized (forceLock) {
+         BitSet toForce;
+         boolean forceTail;
+         synchronized (this) {
+            toForce = dirtyExtents;
+            forceTail = tailDirty;
+            dirtyExtents = new BitSet();
+            tailDirty = false;
+         }
+         MappedByteBuffer[] ext = extents;
+         for (int i = toForce.nextSetBit(0); i >= 0; i = toForce.nextSetBit(i+1))
+            ext[i].force();
+         if (forceTail)
+            fc.force(false);
+      }
+   }
+
+   /**
+    * Closes the file's channel.
+    * The mapped extents stay valid until they are garbage collected.
+    */
+   public void close() throws IOException {
+      fc.close();
+   }
+
+   /**
+    * Records that the specified extent has been written.
+    * @param index the extent, or -1 for the blocks past the mapped extents
+    */
+   private synchronized void written(int index) {
+      if (index < 0)
+         tailDirty = true;
+      else
+         dirtyExtents.set(index);
+   }
+
+   /**
+    * Returns a view of the mapped bytes at the specified position,
+    * or null if those bytes do not lie in a mapped extent.
+    * Extents that the file has grown to contain
+    * since the last call are mapped first.
+    * @param pos the position in the file
+    * @param len the number of bytes
+    * @return a bytebuffer positioned at those bytes, or null
+    */
+   private ByteBuffer region(long pos, int len) throws IOException {
+      int index = (int) (pos / extentsize);
+      int offset = (int) (pos % extentsize);
+      if (offset + len > extentsize)
+         return null;
+      MappedByteBuffer[] ext = extents;
+      if (index >= ext.length)
+         ext = mapCompleteExtents();
+      if (index >= ext.length)
+         return null;
+      ByteBuffer region = ext[index].duplicate();
+      region.position(offset);
+      region.limit(offset + len);
+      return region;
+   }
+
+   /**
+    * Maps the extents that the file has grown to contain,
+    * and returns the new array of mapped extents.
+    */
+   private synchronized MappedByteBuffer[] mapCompleteExtents() throws IOException {
+      int complete = (int) (fc.size() / extentsize);
+      if (complete <= extents.length)
+         return extents;
+      MappedByteBuffer[] ext = Arrays.copyOf(extents, complete);
+      for (int i = extents.length; i < complete; i++)
+         ext[i] = fc.map(FileChannel.MapMode.READ_WRITE, i * extentsize, extentsize);
+      extents = ext;
+      return ext;
+   }
+}
@@ -6,7 +6,8 @@ import java.nio.charset.Charset;
 
 /**
  * The contents of a disk block in memory.
- * A page is treated as an array of BLOCK_SIZE bytes.
+ * A page is treated as an array of bytes, whose size is
+ * the block size of the database (see {@link FileMgr#blockSize()}).
  * There are methods to get/set values into this array,
  * and to read/write the contents of this array to a disk block.
  * 
@@ -37,12 +38,13 @@ import java.nio.charset.Charset;
  */
 public class Page {
    /**
-    * The number of bytes in a block.
+    * The default number of bytes in a block.
     * This value is set unreasonably low, so that it is easier
     * to create and test databases having a lot of blocks.
-    * A more realistic value would be 4K.
+    * A more realistic value would be 4K; a database created
+    * with a different size keeps it in its header file.
     */
-   public static final int BLOCK_SIZE = 400;
+   public static final int DEFAULT_BLOCK_SIZE = 400;
    
    /**
     * The size of an integer in bytes.
@@ -66,8 +68,8 @@ public class Page {
       return INT_SIZE + (n * (int)bytesPerChar);
    }
    
-   private ByteBuffer contents = ByteBuffer.allocateDirect(BLOCK_SIZE);
    private FileMgr filemgr = SimpleDB.fileMgr();
+   private ByteBuffer contents = ByteBuffer.allocateDirect(filemgr.blockSize());
    
    /**
     * Creates a new page.  Although the constructor takes no arguments,
@@ -156,4 +158,28 @@ public class Page {
       contents.putInt(byteval.length);
       contents.put(byteval);
    }
+
+   /**
+    * Copies bytes starting at the specified offset of the page
+    * into the beginning of the specified array.
+    * @param offset the byte offset within the page
+    * @param bytes the array to copy into
+    * @param len the number of bytes to copy
+    */
+   public synchronized void getBytes(int offset, byte[] bytes, int len) {
+      contents.position(offset);
+      contents.get(bytes, 0, len);
+   }
+
+   /**
+    * Copies bytes from the beginning of the specified array
+    * to the specified offset of the page.
+    * @param offset the byte offset within the page
+    * @param bytes the array to copy from
+    * @param len the number of bytes to copy
+    */
+   public synchronized void setBytes(int offset, byte[] bytes, int len) {
+      contents.position(offset);
+      contents.put(bytes, 0, len);
+   }
 }
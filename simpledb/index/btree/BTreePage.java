@@ -2,6 +2,7 @@ package simpledb.index.btree;
 
 import static java.sql.Types.INTEGER;
 import static simpledb.file.Page.*;
+import simpledb.server.SimpleDB;
 import simpledb.file.Block;
 import simpledb.record.*;
 import simpledb.query.*;
@@ -62,7 +63,7 @@ public class BTreePage {
     * @return true if the block is full
     */
    public boolean isFull() {
-      return slotpos(getNumRecs()+1) >= BLOCK_SIZE;
+      return slotpos(getNumRecs()+1) >= SimpleDB.fileMgr().blockSize();
    }
    
    /**
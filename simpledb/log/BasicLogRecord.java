@@ -1,33 +1,48 @@
 package simpledb.log;
 
-import static simpledb.file.Page.*;
-import simpledb.file.Page;
+import simpledb.file.*;
 
 /**
  * A class that provides the ability to read the values of
  * a log record.
  * The class has no idea what values are there.
- * Instead, the methods {@link #nextInt() nextInt}
- * and {@link #nextString() nextString} read the values 
- * sequentially.
+ * Instead, the methods {@link #nextInt() nextInt},
+ * {@link #nextString() nextString} and {@link #nextBlock() nextBlock}
+ * read the values sequentially.
  * Thus the client is responsible for knowing how many values
  * are in the log record, and what their types are.
  * @author Edward Sciore
  */
 public class BasicLogRecord {
-   private Page pg;
-   private int pos;
+   private byte[] bytes;
+   private int pos = 0;
+   private long lsn;
+   private FileNameTable filenames;
    
    /**
     * A log record located at the specified position of the specified page.
-    * This constructor is called exclusively by
-    * {@link LogIterator#next()}.
+    * The bytes of the record are copied out of the page.
+    * This constructor is called by
+    * {@link LogIterator#next()} and {@link LogMgr#record(long)}.
     * @param pg the page containing the log record
     * @param pos the position of the log record 
+    * @param len the length of the log record
+    * @param lsn the LSN of the log record
+    * @param filenames the table of the file names in the log
     */
-   public BasicLogRecord(Page pg, int pos) {
-      this.pg = pg;
-      this.pos = pos;
+   BasicLogRecord(Page pg, int pos, int len, long lsn, FileNameTable filenames) {
+      bytes = new byte[len];
+      pg.getBytes(pos, bytes, len);
+      this.lsn = lsn;
+      this.filenames = filenames;
+   }
+   
+   /**
+    * Returns the LSN of the log record.
+    * @return the LSN of the log record
+    */
+   public long lsn() {
+      return lsn;
    }
    
    /**
@@ -36,9 +51,28 @@ public class BasicLogRecord {
     * @return the next value of the current log record
     */
    public int nextInt() {
-      int result = pg.getInt(pos);
-      pos += INT_SIZE;
-      return result;
+      int result = 0;
+      for (int shift = 0; ; shift += 7) {
+         byte b = bytes[pos++];
+         result |= (b & 0x7F) << shift;
+         if (b >= 0)
+            return result;
+      }
+   }
+   
+   /**
+    * Returns the next value of the current log record, 
+    * assuming it is a long integer.
+    * @return the next value of the current log record
+    */
+   public long nextLong() {
+      long result = 0;
+      for (int shift = 0; ; shift += 7) {
+         byte b = bytes[pos++];
+         result |= (long) (b & 0x7F) << shift;
+         if (b >= 0)
+            return result;
+      }
    }
    
    /**
@@ -47,8 +81,20 @@ public class BasicLogRecord {
     * @return the next value of the current log record
     */
    public String nextString() {
-      String result = pg.getString(pos);
-      pos += STR_SIZE(result.length());
-      return result;
+      char[] chars = new char[nextInt()];
+      for (int i=0; i<chars.length; i++)
+         chars[i] = (char) nextInt();
+      return new String(chars);
+   }
+   
+   /**
+    * Returns the next value of the current log record, 
+    * assuming it is a block.
+    * @return the next value of the current log record
+    */
+   public Block nextBlock() {
+      String filename = filenames.name(nextInt());
+      int blknum = nextInt();
+      return new Block(filename, blknum);
    }
 }
@@ -0,0 +1,94 @@
+package simpledb.log;
+
+import static simpledb.file.Page.INT_SIZE;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import java.util.*;
+
+/**
+ * The table of file names that the log refers to by number.
+ * A log record that names a block stores the id of its file
+ * instead of the file name.
+ * <p>
+ * The ids are assigned in order and kept in their own file,
+ * one name after another; the first integer of each block
+ * is the offset of the end of the names in that block.
+ * A new name is written and forced to disk before it is used,
+ * so that every id in the log can be read back after a crash.
+ */
+class FileNameTable {
+   private String tablefile;
+   private Page page = new Page();
+   private int lastblk;
+   private int endpos;
+   private Map<String,Integer> ids = new HashMap<String,Integer>();
+   private List<String> names = new ArrayList<String>();
+
+   /**
+    * Reads the table from the specified file,
+    * which is empty if the table is new.
+    * @param tablefile the name of the table's file
+    */
+   FileNameTable(String tablefile) {
+      this.tablefile = tablefile;
+      int size = SimpleDB.fileMgr().size(tablefile);
+      if (size == 0) {
+         lastblk = 0;
+         endpos = INT_SIZE;
+         page.setInt(0, endpos);
+      }
+      for (int b=0; b<size; b++) {
+         lastblk = b;
+         page.read(new Block(tablefile, b));
+         endpos = page.getInt(0);
+         int pos = INT_SIZE;
+         while (pos < endpos) {
+            String name = page.getString(pos);
+            add(name);
+            pos += INT_SIZE + name.getBytes().length;
+         }
+      }
+   }
+
+   /**
+    * Returns the id of the specified file name,
+    * assigning a new id if the name is not in the table.
+    * @param filename the name of a file
+    * @return the id of the file
+    */
+   synchronized int id(String filename) {
+      Integer id = ids.get(filename);
+      if (id != null)
+         return id;
+      int size = INT_SIZE + filename.getBytes().length;
+      int blocksize = SimpleDB.fileMgr().blockSize();
+      if (INT_SIZE + size > blocksize)
+         throw new RuntimeException("file name too long for the log: " + filename);
+      if (endpos + size > blocksize) {
+         lastblk++;
+         endpos = INT_SIZE;
+      }
+      page.setString(endpos, filename);
+      endpos += size;
+      page.setInt(0, endpos);
+      page.write(new Block(tablefile, lastblk));
+      SimpleDB.fileMgr().force(tablefile);
+      return add(filename);
+   }
+
+   /**
+    * Returns the file name having the specified id.
+    * @param id the id of a file
+    * @return the name of the file
+    */
+   synchronized String name(int id) {
+      return names.get(id);
+   }
+
+   private int add(String filename) {
+      int id = names.size();
+      names.add(filename);
+      ids.put(filename, id);
+      return id;
+   }
+}
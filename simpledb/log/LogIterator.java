@@ -1,6 +1,7 @@
 package simpledb.log;
 
 import static simpledb.file.Page.INT_SIZE;
+import simpledb.server.SimpleDB;
 import simpledb.file.*;
 import java.util.Iterator;
 
@@ -11,29 +12,40 @@ import java.util.Iterator;
  * @author Edward Sciore
  */
 class LogIterator implements Iterator<BasicLogRecord> {
-   private Block blk;
+   private LogMgr logMgr;
+   private int blknum, firstblk;
+   private int blocksize;
    private Page pg = new Page();
    private int currentrec;
+   private FileNameTable filenames;
    
    /**
-    * Creates an iterator for the records in the log file,
+    * Creates an iterator for the records in the log,
     * positioned after the last log record.
     * This constructor is called exclusively by
     * {@link LogMgr#iterator()}.
+    * @param logMgr the log manager, which locates the blocks of the log
+    * @param blknum the number of the last block of the log
+    * @param firstblk the number of the first block of the log
+    * @param filenames the table of the file names in the log
     */
-   LogIterator(Block blk) {
-      this.blk = blk;
-      pg.read(blk);
+   LogIterator(LogMgr logMgr, int blknum, int firstblk, FileNameTable filenames) {
+      this.logMgr = logMgr;
+      this.blknum = blknum;
+      this.firstblk = firstblk;
+      this.filenames = filenames;
+      blocksize = SimpleDB.fileMgr().blockSize();
+      pg.read(logMgr.logBlock(blknum));
       currentrec = pg.getInt(LogMgr.LAST_POS);
    }
    
    /**
     * Determines if the current log record
-    * is the earliest record in the log file.
+    * is the earliest record in the log.
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentrec>0 || blk.number()>0;
+      return currentrec>0 || blknum>firstblk;
    }
    
    /**
@@ -46,8 +58,11 @@ class LogIterator implements Iterator<BasicLogRecord> {
    public BasicLogRecord next() {
       if (currentrec == 0) 
          moveToNextBlock();
+      int end = currentrec;
       currentrec = pg.getInt(currentrec);
-      return new BasicLogRecord(pg, currentrec+INT_SIZE);
+      int start = currentrec + INT_SIZE;
+      long lsn = (long) blknum * blocksize + end + INT_SIZE;
+      return new BasicLogRecord(pg, start, end - start, lsn, filenames);
    }
    
    public void remove() {
@@ -59,8 +74,8 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * and positions it after the last record in that block.
     */
    private void moveToNextBlock() {
-      blk = new Block(blk.fileName(), blk.number()-1);
-      pg.read(blk);
+      blknum--;
+      pg.read(logMgr.logBlock(blknum));
       currentrec = pg.getInt(LogMgr.LAST_POS);
    }
 }
@@ -9,10 +9,43 @@ import java.util.*;
  * The low-level log manager.
  * This log manager is responsible for writing log records
  * into a log file.
- * A log record can be any sequence of integer and string values.
+ * A log record is a sequence of integer, string and block values.
  * The log manager does not understand the meaning of these
  * values, which are written and read by the
- * {@link simpledb.tx.recovery.RecoveryMgr recovery manager}.
+ * {@link simpledb.tx.recovery.RecoveryMgr recovery manager};
+ * it has an append method for each sequence that the recovery
+ * manager writes, so that appending a record allocates nothing.
+ * <p>
+ * The values are stored compactly.  An integer is written as a varint,
+ * seven bits to a byte, so that small values take a single byte.
+ * A string is written as its length followed by its characters,
+ * each as a varint.  A block is written as the id of its file,
+ * which is kept in a {@link FileNameTable}, followed by its number.
+ * <p>
+ * The LSN of a log record is the byte offset in the log file
+ * of the end of the record, so LSNs increase with every record.
+ * The most recent log blocks are kept in a ring of pages, which are
+ * written to the file only when the log is flushed or when a page
+ * is needed for a new block.  The manager remembers the LSN up to
+ * which the log is known to be on disk, so flushing a record
+ * that is already durable costs nothing.
+ * A record can also be read by its LSN, through {@link #record(long)};
+ * a record in a block that is still in the ring is read from memory.
+ * <p>
+ * The log is stored in segments, which are files of
+ * {@link #SEGMENT_BLOCKS} blocks named after the log file and their
+ * position in the log; the first segment of a new log is "simpledb.log.0".
+ * Block numbers and LSNs count from the start of the first segment
+ * ever written.  Once a checkpoint no longer needs the oldest segments,
+ * the recovery manager removes them with {@link #truncate(long) truncate}.
+ * <p>
+ * Committing transactions flush the log through
+ * {@link #flushForCommit(long) flushForCommit}, which implements group commit.
+ * The first committer to arrive becomes the leader: it waits for the
+ * group commit window, so that other committers can append their
+ * records, and then writes and forces the log once for all of them.
+ * Committers that arrive while a force is in progress wait for the
+ * next leader, so batches form even when the window is 0.
  * @author Edward Sciore
  */
 public class LogMgr implements Iterable<BasicLogRecord> {
@@ -22,15 +55,35 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public static final int LAST_POS = 0;
 
+   /**
+    * The number of log pages kept in memory.
+    */
+   public static final int LOG_PAGES = 8;
+
+   /**
+    * The number of blocks in a segment of the log.
+    */
+   public static final int SEGMENT_BLOCKS = 256;
+
    private String logfile;
-   private Page mypage = new Page();
-   private Block currentblk;
+   private int blocksize = SimpleDB.fileMgr().blockSize();
+   private Page[] ring = new Page[LOG_PAGES];
+   private Page mypage;         // the page of the current block
+   private int currentblk;      // the number of the current block
    private int currentpos;
+   private int firstblk;        // the first block of the oldest segment
+   private int firstUnwritten;  // the first block whose page may differ from the disk
+   private int firstInRing;     // the first block read or appended since startup
+   private volatile long flushedLSN;  // the log is on disk up to this LSN
+   private long window;
+   private boolean flushing = false;
+   private FileNameTable filenames;
+   private byte[] rec = new byte[blocksize];  // the encoding of the record being appended
+   private int reclen;
 
    /**
     * Creates the manager for the specified log file.
-    * If the log file does not yet exist, it is created
-    * with an empty first block.
+    * If the log has no segments, a new log is started.
     * This constructor depends on a {@link FileMgr} object
     * that it gets from the method
     * {@link simpledb.server.SimpleDB#fileMgr()}.
@@ -41,26 +94,116 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * @param logfile the name of the log file
     */
    public LogMgr(String logfile) {
+      this(logfile, 0);
+   }
+
+   /**
+    * Creates the manager for the specified log file,
+    * using the specified group commit window.
+    * A negative window disables group commit,
+    * so that each committer forces the log itself.
+    * @param logfile the name of the log file
+    * @param window the group commit window, in milliseconds
+    */
+   public LogMgr(String logfile, long window) {
       this.logfile = logfile;
-      int logsize = SimpleDB.fileMgr().size(logfile);
-      if (logsize == 0)
-         appendNewBlock();
+      this.window = window;
+      filenames = new FileNameTable(logfile + ".files");
+      for (int i=0; i<LOG_PAGES; i++)
+         ring[i] = new Page();
+      int firstseg = -1, lastseg = -1;
+      for (String filename : SimpleDB.fileMgr().fileNames(logfile + ".")) {
+         try {
+            int seg = Integer.parseInt(filename.substring(logfile.length() + 1));
+            if (firstseg < 0 || seg < firstseg)
+               firstseg = seg;
+            lastseg = Math.max(lastseg, seg);
+         }
+         catch (NumberFormatException e) {}  // not a segment
+      }
+      firstblk = Math.max(firstseg, 0) * SEGMENT_BLOCKS;
+      int logsize = (lastseg < 0) ? 0 : SimpleDB.fileMgr().size(segmentName(lastseg));
+      if (logsize == 0) {
+         int blknum = Math.max(lastseg, 0) * SEGMENT_BLOCKS;
+         firstUnwritten = blknum;
+         moveToBlock(blknum);
+         firstInRing = blknum;
+      }
       else {
-         currentblk = new Block(logfile, logsize-1);
-         mypage.read(currentblk);
+         currentblk = lastseg * SEGMENT_BLOCKS + logsize - 1;
+         mypage = ring[currentblk % LOG_PAGES];
+         mypage.read(logBlock(currentblk));
          currentpos = getLastRecordPosition() + INT_SIZE;
+         firstUnwritten = currentblk;
+         firstInRing = currentblk;
       }
+      flushedLSN = currentLSN();
    }
 
    /**
     * Ensures that the log records corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * If the log is already on disk past the LSN, the method
+    * returns without taking the log manager's lock;
+    * otherwise the lock is needed because the buffer writer
+    * may call it while another thread is appending to the log.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= currentLSN())
-         flush();
+   public void flush(long lsn) {
+      if (lsn <= flushedLSN)
+         return;
+      synchronized (this) {
+         if (lsn > flushedLSN)
+            flush();
+      }
+   }
+
+   /**
+    * Ensures that every log record appended so far,
+    * including the caller's commit record, is on disk.
+    * The caller waits until a leader has forced the log
+    * past its record, or becomes the leader itself.
+    * The leader writes the pending log pages while holding the log manager's
+    * lock, but forces it without the lock, so that other
+    * transactions can keep appending to the log.
+    * @param lsn the LSN of the commit record
+    */
+   public void flushForCommit(long lsn) {
+      if (window < 0) {
+         flush(lsn);
+         return;
+      }
+      synchronized (this) {
+         while (lsn > flushedLSN && flushing)
+            pause(0);
+         if (lsn <= flushedLSN)
+            return;
+         flushing = true;
+      }
+      // This thread is the leader.
+      long target = 0;
+      String segment;
+      boolean forced = false;
+      try {
+         synchronized (this) {
+            if (window > 0)
+               pause(window);
+            target = currentLSN();
+            writePending();
+            segment = segmentName(currentblk / SEGMENT_BLOCKS);
+         }
+         SimpleDB.fileMgr().force(segment);
+         forced = true;
+      }
+      finally {
+         synchronized (this) {
+            if (forced)
+               flushedLSN = Math.max(flushedLSN, target);
+            flushing = false;
+            notifyAll();
+         }
+      }
    }
 
    /**
@@ -70,83 +213,331 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public synchronized Iterator<BasicLogRecord> iterator() {
       flush();
-      return new LogIterator(currentblk);
+      return new LogIterator(this, currentblk, firstblk, filenames);
    }
 
    /**
-    * Appends a log record to the file.
-    * The record contains an arbitrary array of strings and integers.
+    * Returns the log record having the specified LSN.
+    * If the record's block is one of the blocks kept in the ring,
+    * the record is read from its page; otherwise the block
+    * is read from the log file, where it has already been written,
+    * since a page leaves the ring only after it is written.
+    * The log is not flushed.
+    * @param lsn the LSN of a log record
+    * @return the log record
+    */
+   public BasicLogRecord record(long lsn) {
+      int blknum = (int) (lsn / blocksize);
+      int end = (int) (lsn % blocksize) - INT_SIZE;  // the position of the record's pointer
+      synchronized (this) {
+         if (blknum >= Math.max(firstInRing, currentblk - LOG_PAGES + 1))
+            return record(ring[blknum % LOG_PAGES], end, lsn);
+      }
+      Page pg = new Page();
+      pg.read(logBlock(blknum));
+      return record(pg, end, lsn);
+   }
+
+   /**
+    * Removes the segments of the log that hold only
+    * records whose LSN is less than the specified LSN.
+    * The current segment is never removed.
+    * The caller must ensure that those records are no longer
+    * needed, neither by recovery nor by a rollback.
+    * @param lsn the LSN of the oldest record to keep
+    */
+   public synchronized void truncate(long lsn) {
+      int keepblk = (int) ((lsn - 1) / blocksize);  // the block holding that record
+      int keepseg = Math.min(keepblk, currentblk) / SEGMENT_BLOCKS;
+      for (int seg = firstblk / SEGMENT_BLOCKS; seg < keepseg; seg++) {
+         SimpleDB.fileMgr().delete(segmentName(seg));
+         firstblk = (seg + 1) * SEGMENT_BLOCKS;
+      }
+   }
+
+   /**
+    * Returns the LSN of the most recent log record,
+    * which is the offset in the log just past its end.
+    * @return the LSN of the most recent log record
+    */
+   public synchronized long currentLSN() {
+      return (long) currentblk * blocksize + currentpos;
+   }
+
+   /**
+    * Appends a log record consisting of an integer and a long integer.
+    * @param op the first value
+    * @param val the second value
+    * @return the LSN of the record
+    */
+   public synchronized long append(int op, long val) {
+      reclen = 0;
+      putInt(op);
+      putLong(val);
+      return appendRecord();
+   }
+
+   /**
+    * Appends a log record consisting of a single integer.
+    * @param op the value
+    * @return the LSN of the record
+    */
+   public synchronized long append(int op) {
+      reclen = 0;
+      putInt(op);
+      return appendRecord();
+   }
+
+   /**
+    * Appends a log record consisting of two integers.
+    * @param op the first value
+    * @param txnum the second value
+    * @return the LSN of the record
+    */
+   public synchronized long append(int op, int txnum) {
+      reclen = 0;
+      putInt(op);
+      putInt(txnum);
+      return appendRecord();
+   }
+
+   /**
+    * Appends a log record consisting of two integers,
+    * a block, and two more integers.
+    * @param op the first value
+    * @param txnum the second value
+    * @param blk the block
+    * @param offset the fourth value
+    * @param val the last value
+    * @return the LSN of the record
+    */
+   public synchronized long append(int op, int txnum, Block blk, int offset, int val) {
+      reclen = 0;
+      putInt(op);
+      putInt(txnum);
+      putBlock(blk);
+      putInt(offset);
+      putInt(val);
+      return appendRecord();
+   }
+
+   /**
+    * Appends a log record consisting of two integers,
+    * a block, an integer and a string.
+    * @param op the first value
+    * @param txnum the second value
+    * @param blk the block
+    * @param offset the fourth value
+    * @param val the string
+    * @return the LSN of the record
+    */
+   public synchronized long append(int op, int txnum, Block blk, int offset, String val) {
+      reclen = 0;
+      putInt(op);
+      putInt(txnum);
+      putBlock(blk);
+      putInt(offset);
+      putString(val);
+      return appendRecord();
+   }
+
+   /**
+    * Appends a log record consisting of two integers, a long integer,
+    * a block, and three more integers.
+    * @param op the first value
+    * @param txnum the second value
+    * @param prevLSN the long integer
+    * @param blk the block
+    * @param offset the fifth value
+    * @param val1 the sixth value
+    * @param val2 the last value
+    * @return the LSN of the record
+    */
+   public synchronized long append(int op, int txnum, long prevLSN, Block blk, int offset, int val1, int val2) {
+      reclen = 0;
+      putInt(op);
+      putInt(txnum);
+      putLong(prevLSN);
+      putBlock(blk);
+      putInt(offset);
+      putInt(val1);
+      putInt(val2);
+      return appendRecord();
+   }
+
+   /**
+    * Appends a log record consisting of two integers, a long integer,
+    * a block, an integer and two strings.
+    * @param op the first value
+    * @param txnum the second value
+    * @param prevLSN the long integer
+    * @param blk the block
+    * @param offset the fifth value
+    * @param val1 the first string
+    * @param val2 the second string
+    * @return the LSN of the record
+    */
+   public synchronized long append(int op, int txnum, long prevLSN, Block blk, int offset, String val1, String val2) {
+      reclen = 0;
+      putInt(op);
+      putInt(txnum);
+      putLong(prevLSN);
+      putBlock(blk);
+      putInt(offset);
+      putString(val1);
+      putString(val2);
+      return appendRecord();
+   }
+
+   /**
+    * Copies the encoded record to the current page, moving to the next
+    * block if it does not fit.
     * The method also writes an integer to the end of each log record whose value
     * is the offset of the corresponding integer for the previous log record.
     * These integers allow log records to be read in reverse order.
-    * @param rec the list of values
-    * @return the LSN of the final value
-    */
-   public synchronized int append(Object[] rec) {
-      int recsize = INT_SIZE;  // 4 bytes for the integer that points to the previous log record
-      for (Object obj : rec)
-         recsize += size(obj);
-      if (currentpos + recsize >= BLOCK_SIZE){ // the log record doesn't fit,
-         flush();        // so move to the next block.
-         appendNewBlock();
-      }
-      for (Object obj : rec)
-         appendVal(obj);
+    * @return the LSN of the record
+    */
+   private long appendRecord() {
+      int recsize = reclen + INT_SIZE;  // 4 bytes for the integer that points to the previous log record
+      if (INT_SIZE + recsize >= blocksize)
+         throw new RuntimeException("log record too large");
+      if (currentpos + recsize >= blocksize) // the log record doesn't fit,
+         moveToBlock(currentblk + 1); // so move to the next block.
+      mypage.setBytes(currentpos, rec, reclen);
+      currentpos += reclen;
       finalizeRecord();
       return currentLSN();
    }
 
    /**
-    * Adds the specified value to the page at the position denoted by
-    * currentpos.  Then increments currentpos by the size of the value.
-    * @param val the integer or string to be added to the page
+    * Returns the record of the page whose pointer to the
+    * previous record is at the specified position.
     */
-   private void appendVal(Object val) {
-      if (val instanceof String)
-         mypage.setString(currentpos, (String)val);
-      else
-         mypage.setInt(currentpos, (Integer)val);
-      currentpos += size(val);
+   private BasicLogRecord record(Page pg, int end, long lsn) {
+      int start = pg.getInt(end) + INT_SIZE;
+      return new BasicLogRecord(pg, start, end - start, lsn, filenames);
    }
 
    /**
-    * Calculates the size of the specified integer or string.
-    * @param val the value
-    * @return the size of the value, in bytes
+    * Adds the varint encoding of the specified integer to the record.
+    * Negative integers take five bytes.
     */
-   private int size(Object val) {
-      if (val instanceof String) {
-         String sval = (String) val;
-         return STR_SIZE(sval.length());
+   private void putInt(int val) {
+      while ((val & ~0x7F) != 0) {
+         rec[reclen++] = (byte) ((val & 0x7F) | 0x80);
+         val >>>= 7;
       }
-      else
-         return INT_SIZE;
+      rec[reclen++] = (byte) val;
    }
 
    /**
-    * Returns the LSN of the most recent log record.
-    * As implemented, the LSN is the block number where the record is stored.
-    * Thus every log record in a block has the same LSN.
-    * @return the LSN of the most recent log record
+    * Adds the varint encoding of the specified long integer to the record.
+    */
+   private void putLong(long val) {
+      while ((val & ~0x7FL) != 0) {
+         rec[reclen++] = (byte) ((val & 0x7F) | 0x80);
+         val >>>= 7;
+      }
+      rec[reclen++] = (byte) val;
+   }
+
+   /**
+    * Adds the length of the specified string to the record,
+    * followed by each of its characters.
+    */
+   private void putString(String val) {
+      int len = val.length();
+      if (reclen + 5 + 3*len > rec.length)  // a char takes at most 3 bytes
+         throw new RuntimeException("log record too large");
+      putInt(len);
+      for (int i=0; i<len; i++)
+         putInt(val.charAt(i));
+   }
+
+   /**
+    * Adds the id of the block's file, followed by the
+    * block number, to the record.
     */
-   private int currentLSN() {
-      return currentblk.number();
+   private void putBlock(Block blk) {
+      putInt(filenames.id(blk.fileName()));
+      putInt(blk.number());
    }
 
    /**
-    * Writes the current page to the log file.
+    * Writes the pending log pages to the log file,
+    * forces the log file to disk, and wakes
+    * any committers waiting for the log.
     */
    private void flush() {
-      mypage.write(currentblk);
+      writePending();
+      SimpleDB.fileMgr().force(segmentName(currentblk / SEGMENT_BLOCKS));
+      flushedLSN = currentLSN();
+      notifyAll();
+   }
+
+   /**
+    * Writes the pages of the blocks from the first unwritten
+    * block through the current block, in order.
+    * The current block stays pending, since later records
+    * will be appended to it.
+    */
+   private void writePending() {
+      for (int b = firstUnwritten; b <= currentblk; b++)
+         ring[b % LOG_PAGES].write(logBlock(b));
+      firstUnwritten = currentblk;
+   }
+
+   /**
+    * Returns the name of the file holding the specified segment.
+    */
+   private String segmentName(int seg) {
+      return logfile + "." + seg;
+   }
+
+   /**
+    * Returns the block of the segment file that holds
+    * the specified block of the log.
+    * @param blknum the number of a block of the log
+    * @return the corresponding block of a segment
+    */
+   Block logBlock(int blknum) {
+      return new Block(segmentName(blknum / SEGMENT_BLOCKS), blknum % SEGMENT_BLOCKS);
+   }
+
+   /**
+    * Waits on the log manager's monitor for the specified time,
+    * or until notified if the time is 0.
+    */
+   private void pause(long millis) {
+      try {
+         wait(millis);
+      }
+      catch(InterruptedException e) {
+         throw new RuntimeException("interrupted while waiting for the log");
+      }
    }
 
    /**
-    * Clear the current page, and append it to the log file.
+    * Makes the specified block the current block, and clears its page.
+    * The block is not written until the log is flushed,
+    * unless its page still holds an unwritten block,
+    * in which case the pending pages are written first.
+    * When the block starts a new segment, the previous segment
+    * is written and forced, so that only the current segment
+    * ever needs to be forced.
+    * @param blknum the number of the new block
     */
-   private void appendNewBlock() {
+   private void moveToBlock(int blknum) {
+      if (blknum % SEGMENT_BLOCKS == 0 && blknum > firstUnwritten) {
+         writePending();
+         SimpleDB.fileMgr().force(segmentName(currentblk / SEGMENT_BLOCKS));
+      }
+      else if (blknum - firstUnwritten >= LOG_PAGES)
+         writePending();
+      currentblk = blknum;
+      mypage = ring[blknum % LOG_PAGES];
       setLastRecordPosition(0);
       currentpos = INT_SIZE;
-      currentblk = mypage.append(logfile);
    }
 
    /**
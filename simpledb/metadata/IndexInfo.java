@@ -1,7 +1,6 @@
 package simpledb.metadata;
 
 import static java.sql.Types.INTEGER;
-import static simpledb.file.Page.BLOCK_SIZE;
 import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
@@ -63,7 +62,7 @@ public class IndexInfo {
     */
    public int blocksAccessed() {
       TableInfo idxti = new TableInfo("", schema());
-      int rpb = BLOCK_SIZE / idxti.recordLength();
+      int rpb = SimpleDB.fileMgr().blockSize() / idxti.recordLength();
       int numblocks = si.recordsOutput() / rpb;
       // Call HashIndex.searchCost for hash indexing
       return HashIndex.searchCost(numblocks, rpb);
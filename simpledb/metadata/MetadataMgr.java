@@ -21,6 +21,10 @@ public class MetadataMgr {
       tblmgr.createTable(tblname, sch, tx);
    }
    
+   public void createTable(String tblname, Schema sch, boolean slotted, Transaction tx) {
+      tblmgr.createTable(tblname, sch, slotted, tx);
+   }
+   
    public TableInfo getTableInfo(String tblname, Transaction tx) {
       return tblmgr.getTableInfo(tblname, tx);
    }
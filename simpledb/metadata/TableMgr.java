@@ -9,6 +9,9 @@ import java.util.*;
  * There are methods to create a table, save the metadata
  * in the catalog, and obtain the metadata of a
  * previously-created table.
+ * The record length of a table stored in slotted pages is
+ * saved negated, so that the catalog keeps the layout
+ * it had before slotted pages existed.
  * @author Edward Sciore
  *
  */
@@ -56,12 +59,24 @@ public class TableMgr {
     * @param tx the transaction creating the table
     */
    public void createTable(String tblname, Schema sch, Transaction tx) {
-      TableInfo ti = new TableInfo(tblname, sch);
+      createTable(tblname, sch, false, tx);
+   }
+   
+   /**
+    * Creates a new table having the specified name and schema,
+    * whose records are stored in slotted pages if so specified.
+    * @param tblname the name of the new table
+    * @param sch the table's schema
+    * @param slotted true if the records are stored in slotted pages
+    * @param tx the transaction creating the table
+    */
+   public void createTable(String tblname, Schema sch, boolean slotted, Transaction tx) {
+      TableInfo ti = new TableInfo(tblname, sch, slotted);
       // insert one record into tblcat
       RecordFile tcatfile = new RecordFile(tcatInfo, tx);
       tcatfile.insert();
       tcatfile.setString("tblname", tblname);
-      tcatfile.setInt("reclength", ti.recordLength());
+      tcatfile.setInt("reclength", slotted ? -ti.recordLength() : ti.recordLength());
       tcatfile.close();
       
       // insert a record into fldcat for each field
@@ -107,6 +122,8 @@ public class TableMgr {
          sch.addField(fldname, fldtype, fldlen);
       }
       fcatfile.close();
+      if (reclen < 0)
+         return new TableInfo(tblname, sch, offsets, -reclen, true);
       return new TableInfo(tblname, sch, offsets, reclen);
    }
 }
\ No newline at end of file
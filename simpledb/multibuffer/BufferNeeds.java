@@ -6,6 +6,9 @@ import simpledb.server.SimpleDB;
  * A class containing static methods,
  * which estimate the optimal number of buffers
  * to allocate for a scan.
+ * A scan should size itself from the number of buffers
+ * that it has reserved, rather than from the number that
+ * happen to be available, which other scans may take.
  * @author Edward Sciore
  */
 public class BufferNeeds {
@@ -19,7 +22,17 @@ public class BufferNeeds {
     * @return the highest number less than the number of available buffers, that is a root of the plan's output size
     */
    public static int bestRoot(int size) {
-      int avail = SimpleDB.bufferMgr().available();
+      return bestRoot(size, SimpleDB.bufferMgr().available());
+   }
+
+   /**
+    * Returns the highest root of the specified output size
+    * that is no more than the specified number of buffers.
+    * @param size the size of the output file
+    * @param avail the number of buffers
+    * @return the highest root of the size that is no more than the number of buffers
+    */
+   public static int bestRoot(int size, int avail) {
       if (avail <= 1)
          return 1;
       int k = Integer.MAX_VALUE;
@@ -40,7 +53,17 @@ public class BufferNeeds {
     * @return the highest number less than the number of available buffers, that is a factor of the plan's output size
     */
    public static int bestFactor(int size) {
-      int avail = SimpleDB.bufferMgr().available();
+      return bestFactor(size, SimpleDB.bufferMgr().available());
+   }
+
+   /**
+    * Returns the highest factor of the specified output size
+    * that is no more than the specified number of buffers.
+    * @param size the size of the output file
+    * @param avail the number of buffers
+    * @return the highest factor of the size that is no more than the number of buffers
+    */
+   public static int bestFactor(int size, int avail) {
       if (avail <= 1)
          return 1;
       int k = size;
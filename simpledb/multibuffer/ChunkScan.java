@@ -34,7 +34,7 @@ public class ChunkScan implements Scan {
       String filename = ti.fileName();
       for (int i=startbnum; i<=endbnum; i++) {
          Block blk = new Block(filename, i);
-         pages.add(new RecordPage(blk, ti, tx));
+         pages.add(RecordFile.openPage(blk, ti, tx));
       }
       beforeFirst();
    }
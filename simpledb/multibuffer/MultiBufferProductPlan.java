@@ -53,14 +53,14 @@ public class MultiBufferProductPlan implements Plan {
     * required to execute the query. The formula is:
     * <pre> B(product(p1,p2)) = B(p2) + B(p1)*C(p2) </pre>
     * where C(p2) is the number of chunks of p2.
-    * The method uses the current number of available buffers
-    * to calculate C(p2), and so this value may differ
+    * The method uses the current number of buffers that can be
+    * reserved to calculate C(p2), and so this value may differ
     * when the query scan is opened.
     * @see simpledb.query.Plan#blocksAccessed()
     */
    public int blocksAccessed() {
       // this guesses at the # of chunks
-      int avail = SimpleDB.bufferMgr().available();
+      int avail = Math.max(1, SimpleDB.bufferMgr().reservable());
       int size = new MaterializePlan(rhs, tx).blocksAccessed();
       int numchunks = size / avail;
       return rhs.blocksAccessed() +
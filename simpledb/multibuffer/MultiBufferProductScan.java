@@ -7,6 +7,9 @@ import simpledb.query.*;
 /** 
  * The Scan class for the muti-buffer version of the
  * <i>product</i> operator.
+ * The scan reserves the buffers for its chunks when it is created,
+ * as many as the RHS table has blocks if it can, and sizes
+ * its chunks from the number it is granted.
  * @author Edward Sciore
  */
 public class MultiBufferProductScan implements Scan {
@@ -14,6 +17,7 @@ public class MultiBufferProductScan implements Scan {
    private TableInfo ti;
    private Transaction tx;
    private int chunksize, nextblknum, filesize;
+   private int reserved;
    
    
    /**
@@ -27,7 +31,8 @@ public class MultiBufferProductScan implements Scan {
       this.ti = ti;
       this.tx = tx;
       filesize = tx.size(ti.fileName());
-      chunksize = BufferNeeds.bestFactor(filesize);
+      reserved = tx.reserveBuffers(filesize, 1);
+      chunksize = BufferNeeds.bestFactor(filesize, reserved);
       beforeFirst();
    }
    
@@ -58,11 +63,13 @@ public class MultiBufferProductScan implements Scan {
    }
    
    /**
-    * Closes the current scans.
+    * Closes the current scans, and releases the reserved buffers.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
       prodscan.close();
+      tx.releaseBuffers(reserved);
+      reserved = 0;
    }
    
    /** 
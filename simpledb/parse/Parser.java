@@ -413,7 +413,10 @@ public class Parser {
       lex.eatDelim('(');
       Schema sch = fieldDefs();
       lex.eatDelim(')');
-      return new CreateTableData(tblname, sch);
+      boolean slotted = lex.matchKeyword("slotted");
+      if (slotted)
+         lex.eatKeyword("slotted");
+      return new CreateTableData(tblname, sch, slotted);
    }
 
    private Schema fieldDefs() {
@@ -756,4 +756,23 @@ public class ParserTests {
          assertTrue("Less Than: Should not throw an exception.", false);
       }
    }
+
+   @Test
+   public void slottedTable() {
+      System.out.println("\nSlotted Table Test");
+      try {
+         Parser parser = new Parser("create table rooms(roomID int, roomName varchar(15))");
+         CreateTableData data = (CreateTableData) parser.updateCmd();
+         assertTrue("A table should use fixed-size slots by default", !data.isSlotted());
+
+         parser = new Parser("create table rooms(roomID int, roomName varchar(15)) slotted");
+         data = (CreateTableData) parser.updateCmd();
+         assertTrue("The table should use slotted pages", data.isSlotted());
+         assertTrue("The schema should contain roomname", data.newSchema().hasField("roomname"));
+
+      } catch(Exception e) {
+         e.printStackTrace();
+         assertTrue("Slotted Table: Should not throw an exception.", false);
+      }
+   }
 }
@@ -53,7 +53,7 @@ public class BasicUpdatePlanner implements UpdatePlanner {
    }
 
    public int executeCreateTable(CreateTableData data, Transaction tx) {
-      SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), tx);
+      SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), data.isSlotted(), tx);
       return 0;
    }
 
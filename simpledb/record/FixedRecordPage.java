@@ -0,0 +1,174 @@
+package simpledb.record;
+
+import static simpledb.file.Page.*;
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
+import simpledb.tx.Transaction;
+
+/**
+ * Manages the placement and access of records in a block
+ * of fixed-size slots, each of which has room for a record
+ * of the table's maximum length.
+ * The values of a record are read and written through the
+ * transaction's record-level methods, which lock the record
+ * in its slot rather than the whole block; so transactions
+ * can change different records of the same block at once.
+ * @author Edward Sciore
+ */
+public class FixedRecordPage implements RecordPage {
+   private Block blk;
+   private TableInfo ti;
+   private Transaction tx;
+   private int slotsize;
+   private int currentslot = -1;
+   
+   /** Creates the record manager for the specified block.
+     * The current record is set to be prior to the first one.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     */
+   public FixedRecordPage(Block blk, TableInfo ti, Transaction tx) {
+      this.blk = blk;
+      this.ti = ti;
+      this.tx = tx;
+      slotsize = ti.recordLength() + INT_SIZE;
+      tx.pin(blk);
+  }
+   
+   /**
+    * Closes the manager, by unpinning the block.
+    */
+   public void close() {
+      if (blk != null) {
+    	  tx.unpin(blk);
+    	  blk = null;
+      }
+   }
+   
+   /**
+    * Moves to the next record in the block.
+    * @return false if there is no next record.
+    */
+   public boolean next() {
+      return searchFor(INUSE);
+   }
+   
+   /**
+    * Returns the integer value stored for the
+    * specified field of the current record.
+    * @param fldname the name of the field.
+    * @return the integer stored in that field
+    */
+   public int getInt(String fldname) {
+      int position = fieldpos(fldname);
+      return tx.getInt(blk, currentslot, position);
+   }
+   
+   /**
+    * Returns the string value stored for the
+    * specified field of the current record.
+    * @param fldname the name of the field.
+    * @return the string stored in that field
+    */
+   public String getString(String fldname) {
+      int position = fieldpos(fldname);
+      return tx.getString(blk, currentslot, position);
+   }
+   
+   /**
+    * Stores an integer at the specified field
+    * of the current record.
+    * @param fldname the name of the field
+    * @param val the integer value stored in that field
+    */
+   public void setInt(String fldname, int val) {
+      int position = fieldpos(fldname);
+      tx.setInt(blk, currentslot, position, val);
+   }
+   
+   /**
+    * Stores a string at the specified field
+    * of the current record.
+    * @param fldname the name of the field
+    * @param val the string value stored in that field
+    */
+   public void setString(String fldname, String val) {
+      int position = fieldpos(fldname);
+      tx.setString(blk, currentslot, position, val);
+   }
+   
+   /**
+    * Deletes the current record.
+    * Deletion is performed by just marking the record
+    * as "deleted"; the current record does not change. 
+    * To get to the next record, call next().
+    */
+   public void delete() {
+      int position = currentpos();
+      tx.setInt(blk, currentslot, position, EMPTY);
+   }
+   
+   /**
+    * Inserts a new, blank record somewhere in the page.
+    * Return false if there were no available slots.
+    * A slot that looks empty is XLocked and checked again,
+    * since another transaction may have claimed it meanwhile;
+    * the slots in use are not locked.
+    * @return false if the insertion was not possible
+    */
+   public boolean insert() {
+      for (currentslot = 0; isValidSlot(); currentslot++) {
+         int position = currentpos();
+         if (tx.peekInt(blk, position) == EMPTY) {
+            tx.xLock(blk, currentslot);
+            if (tx.getInt(blk, currentslot, position) == EMPTY) {
+               tx.setInt(blk, currentslot, position, INUSE);
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+   
+   /**
+    * Sets the current record to be the record having the
+    * specified ID.
+    * @param id the ID of the record within the page.
+    */
+   public void moveToId(int id) {
+      currentslot = id;
+   }
+   
+   /**
+    * Returns the ID of the current record.
+    * @return the ID of the current record
+    */
+   public int currentId() {
+      return currentslot;
+   }
+   
+   private int currentpos() {
+      return currentslot * slotsize;
+   }
+   
+   private int fieldpos(String fldname) {
+      int offset = INT_SIZE + ti.offset(fldname);
+      return currentpos() + offset;
+   }
+   
+   private boolean isValidSlot() {
+      return currentpos() + slotsize <= SimpleDB.fileMgr().blockSize();
+   }
+   
+   private boolean searchFor(int flag) {
+      currentslot++;
+      while (isValidSlot()) {
+         int position = currentpos();
+         if (tx.getInt(blk, currentslot, position) == flag)
+            return true;
+         currentslot++;
+      }
+      return false;
+   }
+}
@@ -7,6 +7,10 @@ import simpledb.tx.Transaction;
  * Manages a file of records.
  * There are methods for iterating through the records
  * and accessing their contents.
+ * When the record file leaves a block, it tells the transaction,
+ * which may then release its SLocks on the block.
+ * The blocks are managed as fixed-size slots or as slotted pages,
+ * as the table's metadata says.
  * @author Edward Sciore
  */
 public class RecordFile {
@@ -36,6 +40,7 @@ public class RecordFile {
     */
    public void close() {
       rp.close();
+      tx.releaseSLocks(new Block(filename, currentblknum));
    }
 
    /**
@@ -126,6 +131,22 @@ public class RecordFile {
       }
    }
 
+   /**
+    * Opens the record manager for the specified block of a table,
+    * which manages fixed-size slots or a slotted page,
+    * as the table's metadata says.
+    * @param blk a reference to the disk block
+    * @param ti the table's metadata
+    * @param tx the transaction performing the operations
+    * @return the record manager for the block
+    */
+   public static RecordPage openPage(Block blk, TableInfo ti, Transaction tx) {
+      if (ti.isSlotted())
+         return new SlottedRecordPage(blk, ti, tx);
+      else
+         return new FixedRecordPage(blk, ti, tx);
+   }
+
    /**
     * Positions the current record as indicated by the
     * specified RID.
@@ -146,11 +167,13 @@ public class RecordFile {
    }
 
    private void moveTo(int b) {
-      if (rp != null)
+      if (rp != null) {
          rp.close();
+         tx.releaseSLocks(new Block(filename, currentblknum));
+      }
       currentblknum = b;
       Block blk = new Block(filename, currentblknum);
-      rp = new RecordPage(blk, ti, tx);
+      rp = openPage(blk, ti, tx);
    }
 
    private boolean atLastBlock() {
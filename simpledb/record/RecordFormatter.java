@@ -3,12 +3,14 @@ package simpledb.record;
 import static java.sql.Types.INTEGER;
 import static simpledb.file.Page.*;
 import static simpledb.record.RecordPage.EMPTY;
+import simpledb.server.SimpleDB;
 import simpledb.file.Page;
 import simpledb.buffer.PageFormatter;
 
 /**
  * An object that can format a page to look like a block of
- * empty records.
+ * empty records, in fixed-size slots or as an empty slotted page,
+ * whichever the table uses.
  * @author Edward Sciore
  */
 public class RecordFormatter implements PageFormatter {
@@ -31,13 +33,32 @@ public class RecordFormatter implements PageFormatter {
     * @see simpledb.buffer.PageFormatter#format(simpledb.file.Page)
     */
    public void format(Page page) {
+      int blocksize = SimpleDB.fileMgr().blockSize();
+      if (ti.isSlotted()) {
+         formatSlotted(page, blocksize);
+         return;
+      }
       int recsize = ti.recordLength() + INT_SIZE;
-      for (int pos=0; pos+recsize<=BLOCK_SIZE; pos += recsize) {
+      for (int pos=0; pos+recsize<=blocksize; pos += recsize) {
          page.setInt(pos, EMPTY);
          makeDefaultRecord(page, pos);
       }
    }
 
+   /**
+    * Formats the page as a slotted page with no slots,
+    * whose free space extends to the last whole integer.
+    * The rest of the page is zeroed, so that a slot that a
+    * transaction adds and then rolls back is left empty,
+    * with no space, rather than holding whatever was there before.
+    */
+   private void formatSlotted(Page page, int blocksize) {
+      int end = blocksize - blocksize % INT_SIZE;
+      for (int pos=0; pos<end; pos += INT_SIZE)
+         page.setInt(pos, 0);
+      page.setInt(SlottedRecordPage.FREESPACE, end);
+   }
+
    private void makeDefaultRecord(Page page, int pos) {
       for (String fldname : ti.schema().fields()) {
          int offset = ti.offset(fldname);
@@ -0,0 +1,543 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+import static simpledb.file.Page.INT_SIZE;
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
+import simpledb.tx.Transaction;
+import java.util.*;
+
+/**
+ * Manages the records of a block laid out as a slotted page,
+ * in which each record takes only the space that its values need.
+ * <p>
+ * The page begins with a header holding the number of slots
+ * and the start of the records, which fill the page from its end.
+ * The slot directory follows the header; each slot holds a flag,
+ * the offset of its record's space and the size of that space.
+ * The free space lies between the directory and the records.
+ * A record holds its integers, and then its strings, each as a length
+ * followed by its characters; the fields of each kind are in the order
+ * of their offsets in the {@link TableInfo}.
+ * <p>
+ * Every value in the page is read and written as an integer, the
+ * characters of a string four to an integer.  A value is therefore
+ * always logged and versioned with the type it is read with, whatever
+ * was stored at its offset before.
+ * <p>
+ * A record keeps its slot, and so its RID, for as long as it exists.
+ * A record that grows beyond its space is moved to free space in the page,
+ * and the new slot that its old space is given to can be reused once the
+ * transaction commits.  A record that no longer fits in the page is
+ * moved to another block; its slot is then flagged FORWARD and holds
+ * the block and slot of the record, which are flagged MOVED.
+ * A scan reads a moved record when it reaches the record's own slot.
+ * <p>
+ * The slots are locked as records are, and the header as two more records.
+ * A scan SLocks the record in slot -1, and a transaction XLocks it to put
+ * a record in a slot, so that no records appear in a block that a scan
+ * has read.  A transaction XLocks the record in slot -2 to add slots or
+ * take free space, so a record can grow or be moved to a block that
+ * is being scanned.  Inserts look for room without locking, as
+ * {@link FixedRecordPage#insert()} does, and lock only the block they use.
+ * The free space of the page is never reclaimed from the records' spaces;
+ * a deleted record's space is reused by the next record that fits in it.
+ * @author Edward Sciore
+ */
+public class SlottedRecordPage implements RecordPage {
+   /**
+    * The values of the flag of a slot whose record has been moved
+    * to another block, and of the slot that holds such a record.
+    */
+   public static final int FORWARD = 2, MOVED = 3;
+
+   /**
+    * The offsets of the header's values, and the size of the header.
+    */
+   static final int NUMSLOTS = 0, FREESPACE = INT_SIZE, HEADER_SIZE = 2 * INT_SIZE;
+
+   // The slots that the header is locked as: one for the records
+   // in the page, and one for its slots and free space.
+   private static final int HEADER = -1, SPACE = -2;
+   private static final int SLOT_SIZE = 3 * INT_SIZE;
+   // A FORWARD slot's space holds the block and slot of the record.
+   private static final int LINK_SIZE = 2 * INT_SIZE;
+
+   private Block blk;
+   private TableInfo ti;
+   private Transaction tx;
+   private Map<String,Integer> intoffsets = new HashMap<String,Integer>();
+   private Map<String,Integer> strindexes = new HashMap<String,Integer>();
+   private int strstart, blanksize;
+   private int currentslot = -1;
+   private boolean resolved = false;
+   private SlottedRecordPage remote;  // the page of a moved current record
+
+   /** Creates the record manager for the specified block.
+     * The current record is set to be prior to the first one.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     */
+   public SlottedRecordPage(Block blk, final TableInfo ti, Transaction tx) {
+      this.blk = blk;
+      this.ti = ti;
+      this.tx = tx;
+      List<String> fields = new ArrayList<String>(ti.schema().fields());
+      Collections.sort(fields, new Comparator<String>() {
+         public int compare(String f1, String f2) {
+            return ti.offset(f1) - ti.offset(f2);
+         }
+      });
+      int numstrs = 0;
+      for (String fldname : fields) {
+         if (ti.schema().type(fldname) == INTEGER) {
+            intoffsets.put(fldname, strstart);
+            strstart += INT_SIZE;
+         }
+         else
+            strindexes.put(fldname, numstrs++);
+      }
+      blanksize = Math.max(strstart + numstrs * INT_SIZE, LINK_SIZE);
+      tx.pin(blk);
+   }
+
+   /**
+    * Closes the manager, by unpinning the block.
+    */
+   public void close() {
+      leave();
+      if (blk != null) {
+         tx.unpin(blk);
+         blk = null;
+      }
+   }
+
+   /**
+    * Moves to the next record in the block.
+    * The slots of moved records are skipped, since each
+    * is read from the slot that forwards to it.
+    * @return false if there is no next record.
+    */
+   public boolean next() {
+      leave();
+      currentslot++;
+      while (currentslot < tx.getInt(blk, HEADER, NUMSLOTS)) {
+         // A MOVED slot holds no record of its own: it was new, or empty
+         // with no uncommitted delete, when it was taken.  So a locking scan
+         // passes it over without waiting for the transaction that moved its record.
+         // A read-only scan reads the flag in its snapshot, where the slot
+         // may still hold a record that has since been deleted.
+         if (tx.isReadOnly() || tx.peekInt(blk, slotpos(currentslot)) != MOVED) {
+            int flag = flag(currentslot);
+            if (flag == INUSE || flag == FORWARD)
+               return true;
+         }
+         currentslot++;
+      }
+      return false;
+   }
+
+   /**
+    * Returns the integer value stored for the
+    * specified field of the current record.
+    * @param fldname the name of the field.
+    * @return the integer stored in that field
+    */
+   public int getInt(String fldname) {
+      if (isForwarded())
+         return remote.getInt(fldname);
+      return tx.getInt(blk, currentslot, recordpos() + intoffsets.get(fldname));
+   }
+
+   /**
+    * Returns the string value stored for the
+    * specified field of the current record.
+    * @param fldname the name of the field.
+    * @return the string stored in that field
+    */
+   public String getString(String fldname) {
+      if (isForwarded())
+         return remote.getString(fldname);
+      int pos = recordpos() + strstart;
+      for (int i = strindexes.get(fldname); i > 0; i--)
+         pos += INT_SIZE * words(tx.getInt(blk, currentslot, pos));
+      int len = tx.getInt(blk, currentslot, pos);
+      byte[] bytes = new byte[len];
+      int word = 0;
+      for (int i = 0; i < len; i++) {
+         if (i % INT_SIZE == 0)
+            word = tx.getInt(blk, currentslot, pos + INT_SIZE + i);
+         bytes[i] = (byte) (word >>> shift(i));
+      }
+      return new String(bytes);
+   }
+
+   /**
+    * Stores an integer at the specified field
+    * of the current record.
+    * @param fldname the name of the field
+    * @param val the integer value stored in that field
+    */
+   public void setInt(String fldname, int val) {
+      if (isForwarded())
+         remote.setInt(fldname, val);
+      else
+         tx.setInt(blk, currentslot, recordpos() + intoffsets.get(fldname), val);
+   }
+
+   /**
+    * Stores a string at the specified field
+    * of the current record.
+    * If the record no longer fits in its space, it is moved
+    * to the free space of its page, or else to another block.
+    * @param fldname the name of the field
+    * @param val the string value stored in that field
+    */
+   public void setString(String fldname, String val) {
+      SlottedRecordPage rp = isForwarded() ? remote : this;
+      int[] rec = rp.withString(fldname, val.getBytes());
+      if (!rp.store(rec))
+         forward(rec);
+   }
+
+   /**
+    * Deletes the current record, and the moved record
+    * that its slot forwards to.
+    * The current record does not change;
+    * to get to the next record, call next().
+    */
+   public void delete() {
+      if (isForwarded())
+         remote.setFlag(remote.currentslot, EMPTY);
+      setFlag(currentslot, EMPTY);
+      leave();
+   }
+
+   /**
+    * Inserts a new, blank record somewhere in the page.
+    * The record reuses the space of an empty slot if it fits
+    * there; otherwise it takes a new slot and free space,
+    * provided that the free space has room for it to grow
+    * to the average size of the page's records.
+    * Otherwise, the record would likely be moved to another
+    * block as soon as its values are set.
+    * @return false if the insertion was not possible
+    */
+   public boolean insert() {
+      leave();
+      if (!reuseSlot(blanksize, INUSE)
+            && !(hasRoom(tx.peekInt(blk, NUMSLOTS), tx.peekInt(blk, FREESPACE), 1, averageSize())
+                 && newSlot(blanksize, INUSE)))
+         return false;
+      writeRecord(new int[blanksize / INT_SIZE]);
+      return true;
+   }
+
+   /**
+    * Sets the current record to be the record having the
+    * specified ID.
+    * @param id the ID of the record within the page.
+    */
+   public void moveToId(int id) {
+      leave();
+      currentslot = id;
+   }
+
+   /**
+    * Returns the ID of the current record.
+    * @return the ID of the current record
+    */
+   public int currentId() {
+      return currentslot;
+   }
+
+   /**
+    * Returns the current record with the specified string
+    * field set to the specified value, as integers.
+    */
+   private int[] withString(String fldname, byte[] bytes) {
+      int[] rec = readRecord();
+      int w = strstart / INT_SIZE;
+      for (int i = strindexes.get(fldname); i > 0; i--)
+         w += words(rec[w]);
+      int oldwords = words(rec[w]);
+      int newwords = words(bytes.length);
+      int[] result = new int[rec.length - oldwords + newwords];
+      System.arraycopy(rec, 0, result, 0, w);
+      System.arraycopy(rec, w + oldwords, result, w + newwords, rec.length - w - oldwords);
+      result[w] = bytes.length;
+      for (int i = 0; i < bytes.length; i++)
+         result[w + 1 + i / INT_SIZE] |= (bytes[i] & 0xff) << shift(i);
+      return result;
+   }
+
+   private int[] readRecord() {
+      int pos = recordpos();
+      int size = strstart;
+      for (int i = 0; i < strindexes.size(); i++)
+         size += INT_SIZE * words(tx.getInt(blk, currentslot, pos + size));
+      int[] rec = new int[size / INT_SIZE];
+      for (int i = 0; i < rec.length; i++)
+         rec[i] = tx.getInt(blk, currentslot, pos + i * INT_SIZE);
+      return rec;
+   }
+
+   /**
+    * Stores the current record, giving it more space if it has
+    * outgrown its own.  The first record of the page, such as one
+    * just inserted, grows into the free space next to it; any other
+    * record is moved to free space, and its old space is given to a new slot.
+    * Returns false if the page has no room for it.
+    */
+   private boolean store(int[] rec) {
+      int size = Math.max(rec.length * INT_SIZE, LINK_SIZE);
+      int capacity = capacity(currentslot);
+      if (size > capacity) {
+         int flag = flag(currentslot);
+         if (extend(size - capacity))
+            setSlot(currentslot, flag, tx.getInt(blk, SPACE, FREESPACE), size);
+         else {
+            int pos = claim(1, size);
+            if (pos < 0)
+               return false;
+            int slot = tx.getInt(blk, SPACE, NUMSLOTS) - 1;
+            setSlot(slot, EMPTY, recordpos(), capacity);
+            setSlot(currentslot, flag, pos, size);
+         }
+      }
+      writeRecord(rec);
+      return true;
+   }
+
+   /**
+    * Takes the specified number of bytes from the free space for
+    * the current record, if the record begins where the free space ends.
+    */
+   private boolean extend(int extra) {
+      int pos = recordpos();
+      if (tx.peekInt(blk, FREESPACE) != pos)
+         return false;
+      tx.xLock(blk, SPACE);
+      return tx.getInt(blk, SPACE, FREESPACE) == pos && claim(0, extra) >= 0;
+   }
+
+   /**
+    * Moves the current record to another block,
+    * and makes its slot forward to the record there.
+    * The slot that the record was moved to before, if any, is emptied.
+    */
+   private void forward(int[] rec) {
+      int size = Math.max(rec.length * INT_SIZE, LINK_SIZE);
+      SlottedRecordPage target = pageWithRoom(size);
+      target.writeRecord(rec);
+      if (remote != null) {
+         remote.setFlag(remote.currentslot, EMPTY);
+         remote.close();
+      }
+      else
+         setFlag(currentslot, FORWARD);
+      int pos = recordpos();
+      writeInt(currentslot, pos, target.blk.number());
+      writeInt(currentslot, pos + INT_SIZE, target.currentslot);
+      remote = target;
+   }
+
+   /**
+    * Returns a page of the file whose current record is a new MOVED slot
+    * with room for a record of the specified size.  The last block of the
+    * file is tried, unless the record has just failed to fit in it;
+    * otherwise a new block is appended.
+    */
+   private SlottedRecordPage pageWithRoom(int size) {
+      String filename = blk.fileName();
+      int last = tx.size(filename) - 1;
+      if (last != blk.number() && (remote == null || last != remote.blk.number())) {
+         SlottedRecordPage rp = new SlottedRecordPage(new Block(filename, last), ti, tx);
+         if (rp.reuseSlot(size, MOVED) || rp.newSlot(size, MOVED))
+            return rp;
+         rp.close();
+      }
+      Block newblk = tx.append(filename, new RecordFormatter(ti));
+      SlottedRecordPage rp = new SlottedRecordPage(newblk, ti, tx);
+      if (rp.newSlot(size, MOVED))
+         return rp;
+      rp.close();
+      throw new RuntimeException("a record of " + size + " bytes does not fit in a block of " + filename);
+   }
+
+   /**
+    * Makes an empty slot whose space is large enough for a record of
+    * the specified size the current record, with the specified flag.
+    * A slot that looks suitable is XLocked and checked again,
+    * since another transaction may have claimed it meanwhile;
+    * the header is XLocked first if the slot is to hold a record.
+    * A MOVED slot is never one that the transaction has XLocked,
+    * since the slot may hold a record that the transaction has deleted;
+    * scans skip MOVED slots without locking them, and so would miss
+    * the record if the transaction rolled back.
+    */
+   private boolean reuseSlot(int size, int flag) {
+      int numslots = tx.peekInt(blk, NUMSLOTS);
+      for (int slot = 0; slot < numslots; slot++) {
+         int pos = slotpos(slot);
+         if (tx.peekInt(blk, pos) == EMPTY && tx.peekInt(blk, pos + 2 * INT_SIZE) >= size
+               && !(flag == MOVED && tx.hasXLock(blk, slot))) {
+            if (flag == INUSE)
+               tx.xLock(blk, HEADER);
+            tx.xLock(blk, slot);
+            if (flag(slot) == EMPTY && capacity(slot) >= size) {
+               setFlag(slot, flag);
+               currentslot = slot;
+               resolved = true;
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Makes a new slot with the specified flag the current record,
+    * giving it free space of the specified size.
+    * The header is XLocked first if the slot is to hold a record.
+    */
+   private boolean newSlot(int size, int flag) {
+      if (!hasRoom(tx.peekInt(blk, NUMSLOTS), tx.peekInt(blk, FREESPACE), 1, size))
+         return false;
+      if (flag == INUSE)
+         tx.xLock(blk, HEADER);
+      int pos = claim(1, size);
+      if (pos < 0)
+         return false;
+      int slot = tx.getInt(blk, SPACE, NUMSLOTS) - 1;
+      setSlot(slot, flag, pos, size);
+      currentslot = slot;
+      resolved = true;
+      return true;
+   }
+
+   /**
+    * Adds the specified number of slots to the directory, and takes
+    * space of the specified size from the end of the free space,
+    * after XLocking the header's slots and free space.  The new slots are the last ones.
+    * Returns the offset of the space, or -1 if the page has no room.
+    * The free space is checked without a lock first, so that
+    * a full page is passed over without being locked.
+    */
+   private int claim(int count, int size) {
+      if (!hasRoom(tx.peekInt(blk, NUMSLOTS), tx.peekInt(blk, FREESPACE), count, size))
+         return -1;
+      tx.xLock(blk, SPACE);
+      int numslots = tx.getInt(blk, SPACE, NUMSLOTS);
+      int freespace = tx.getInt(blk, SPACE, FREESPACE);
+      if (!hasRoom(numslots, freespace, count, size))
+         return -1;
+      writeInt(SPACE, NUMSLOTS, numslots + count);
+      tx.setInt(blk, SPACE, FREESPACE, freespace - size);
+      return freespace - size;
+   }
+
+   /**
+    * Returns the average space of the page's slots, read without locking,
+    * and at least the space of a blank record.
+    */
+   private int averageSize() {
+      int numslots = tx.peekInt(blk, NUMSLOTS);
+      if (numslots == 0)
+         return blanksize;
+      int blocksize = SimpleDB.fileMgr().blockSize();
+      int used = blocksize - blocksize % INT_SIZE - tx.peekInt(blk, FREESPACE);
+      return Math.max(blanksize, used / numslots);
+   }
+
+   private boolean hasRoom(int numslots, int freespace, int count, int size) {
+      return slotpos(numslots + count) + size <= freespace;
+   }
+
+   private void writeRecord(int[] rec) {
+      int pos = recordpos();
+      for (int i = 0; i < rec.length; i++)
+         writeInt(currentslot, pos + i * INT_SIZE, rec[i]);
+   }
+
+   private void setSlot(int slot, int flag, int pos, int capacity) {
+      int slotpos = slotpos(slot);
+      writeInt(slot, slotpos, flag);
+      writeInt(slot, slotpos + INT_SIZE, pos);
+      writeInt(slot, slotpos + 2 * INT_SIZE, capacity);
+   }
+
+   /**
+    * Stores an integer unless it is already there,
+    * which saves logging the values that a change leaves alone.
+    */
+   private void writeInt(int slot, int offset, int val) {
+      if (tx.getInt(blk, slot, offset) != val)
+         tx.setInt(blk, slot, offset, val);
+   }
+
+   private void setFlag(int slot, int flag) {
+      tx.setInt(blk, slot, slotpos(slot), flag);
+   }
+
+   private int flag(int slot) {
+      return tx.getInt(blk, slot, slotpos(slot));
+   }
+
+   private int capacity(int slot) {
+      return tx.getInt(blk, slot, slotpos(slot) + 2 * INT_SIZE);
+   }
+
+   private int recordpos() {
+      return tx.getInt(blk, currentslot, slotpos(currentslot) + INT_SIZE);
+   }
+
+   private int slotpos(int slot) {
+      return HEADER_SIZE + slot * SLOT_SIZE;
+   }
+
+   /**
+    * Returns true if the current record has been moved to another block,
+    * after positioning a manager for that block at the moved record.
+    */
+   private boolean isForwarded() {
+      if (!resolved) {
+         resolved = true;
+         if (flag(currentslot) == FORWARD) {
+            int pos = recordpos();
+            Block target = new Block(blk.fileName(), tx.getInt(blk, currentslot, pos));
+            remote = new SlottedRecordPage(target, ti, tx);
+            remote.moveToId(tx.getInt(blk, currentslot, pos + INT_SIZE));
+         }
+      }
+      return remote != null;
+   }
+
+   /**
+    * Leaves the current record, closing the manager for the block
+    * of a moved record and telling the transaction it is done with that block.
+    */
+   private void leave() {
+      if (remote != null) {
+         Block target = remote.blk;
+         remote.close();
+         if (target != null)
+            tx.releaseSLocks(target);
+         remote = null;
+      }
+      resolved = false;
+   }
+
+   /**
+    * Returns the number of integers that a string of the
+    * specified length takes, including its length.
+    */
+   private static int words(int len) {
+      return 1 + (len + INT_SIZE - 1) / INT_SIZE;
+   }
+
+   private static int shift(int i) {
+      return Byte.SIZE * (INT_SIZE - 1 - i % INT_SIZE);
+   }
+}
@@ -6,6 +6,10 @@ import java.util.*;
 
 /**
  * The metadata about a table and its records.
+ * A table stores its records either in fixed-size slots,
+ * each as long as the longest possible record, or in
+ * slotted pages, where each record takes only the space
+ * that its values need.
  * @author Edward Sciore
  */
 public class TableInfo {
@@ -13,6 +17,7 @@ public class TableInfo {
    private Map<String,Integer> offsets;
    private int recordlen;
    private String tblname;
+   private boolean slotted;
 
    /**
     * Creates a TableInfo object, given a table name
@@ -23,7 +28,19 @@ public class TableInfo {
     * @param schema the schema of the table's records
     */
    public TableInfo(String tblname, Schema schema) {
+      this(tblname, schema, false);
+   }
+
+   /**
+    * Creates a TableInfo object for a table whose records
+    * are stored in slotted pages, if so specified.
+    * @param tblname the name of the table
+    * @param schema the schema of the table's records
+    * @param slotted true if the records are stored in slotted pages
+    */
+   public TableInfo(String tblname, Schema schema, boolean slotted) {
       this.schema = schema;
+      this.slotted = slotted;
       this.tblname = tblname;
       offsets  = new HashMap<String,Integer>();
       int pos = 0;
@@ -45,10 +62,25 @@ public class TableInfo {
     * @param recordlen the already-calculated length of each record
     */
    public TableInfo(String tblname, Schema schema, Map<String,Integer> offsets, int recordlen) {
+      this(tblname, schema, offsets, recordlen, false);
+   }
+
+   /**
+    * Creates a TableInfo object from the
+    * specified metadata, for a table whose records
+    * are stored in slotted pages if so specified.
+    * @param tblname the name of the table
+    * @param schema the schema of the table's records
+    * @param offsets the already-calculated offsets of the fields within a record
+    * @param recordlen the already-calculated length of each record
+    * @param slotted true if the records are stored in slotted pages
+    */
+   public TableInfo(String tblname, Schema schema, Map<String,Integer> offsets, int recordlen, boolean slotted) {
       this.tblname   = tblname;
       this.schema    = schema;
       this.offsets   = offsets;
       this.recordlen = recordlen;
+      this.slotted   = slotted;
    }
 
    /**
@@ -69,8 +101,19 @@ public class TableInfo {
       return schema;
    }
 
+   /**
+    * Returns true if the table's records are stored
+    * in slotted pages, rather than in fixed-size slots.
+    * @return true if the table uses slotted pages
+    */
+   public boolean isSlotted() {
+      return slotted;
+   }
+
    /**
     * Returns the offset of a specified field within a record
+    * stored in a fixed-size slot.  The fields of a record in a
+    * slotted page are in the same order, with integers first.
     * @param fldname the name of the field
     * @return the offset of that field within a record
     */
@@ -80,6 +123,7 @@ public class TableInfo {
 
    /**
     * Returns the length of a record, in bytes.
+    * In a slotted page this is the longest a record can be.
     * @return the length in bytes of a record
     */
    public int recordLength() {
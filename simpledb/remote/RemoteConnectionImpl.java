@@ -1,24 +1,36 @@
 package simpledb.remote;
 
 import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.ConcurrencyMgr;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 
 /**
  * The RMI server-side implementation of RemoteConnection.
+ * Queries run in a read-only transaction, which reads a snapshot
+ * without locking, so that they neither wait for updates nor
+ * hold them up.  An update first replaces the read-only
+ * transaction with one that locks.
+ * A connection that the client sets to read-only
+ * rejects updates, and so never runs a transaction that locks
+ * or writes to the log.
+ * The isolation level that the client sets applies to the
+ * transactions that update, since queries do not lock.
  * @author Edward Sciore
  */
 @SuppressWarnings("serial") 
 class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnection {
    private Transaction tx;
+   private boolean readOnly = false;
+   private int isolation = ConcurrencyMgr.SERIALIZABLE;
    
    /**
     * Creates a remote connection
-    * and begins a new transaction for it.
+    * and begins a new read-only transaction for it.
     * @throws RemoteException
     */
    RemoteConnectionImpl() throws RemoteException {
-      tx = new Transaction();
+      tx = new Transaction(true);
    }
    
    /**
@@ -37,6 +49,50 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
    public void close() throws RemoteException {
       tx.commit();
    }
+
+   /**
+    * Sets the connection to read-only, or back to updatable.
+    * The current transaction is committed, and a new
+    * read-only one is begun.
+    * @see simpledb.remote.RemoteConnection#setReadOnly(boolean)
+    */
+   public void setReadOnly(boolean readOnly) throws RemoteException {
+      commit();
+      this.readOnly = readOnly;
+   }
+
+   /**
+    * Returns true if the connection is read-only.
+    * @see simpledb.remote.RemoteConnection#isReadOnly()
+    */
+   public boolean isReadOnly() throws RemoteException {
+      return readOnly;
+   }
+
+   /**
+    * Sets the isolation level of the transactions that update.
+    * The levels have the values of the constants of java.sql.Connection;
+    * READ UNCOMMITTED is not supported, and READ COMMITTED
+    * is used instead.
+    * The current transaction is committed, and a new
+    * read-only one is begun.
+    * @see simpledb.remote.RemoteConnection#setTransactionIsolation(int)
+    */
+   public void setTransactionIsolation(int level) throws RemoteException {
+      if (level < ConcurrencyMgr.READ_COMMITTED)
+         level = ConcurrencyMgr.READ_COMMITTED;
+      commit();
+      tx.setIsolationLevel(level);
+      isolation = level;
+   }
+
+   /**
+    * Returns the isolation level of the transactions that update.
+    * @see simpledb.remote.RemoteConnection#getTransactionIsolation()
+    */
+   public int getTransactionIsolation() throws RemoteException {
+      return isolation;
+   }
    
 // The following methods are used by the server-side classes.
    
@@ -48,23 +104,41 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
    Transaction getTransaction() {  
       return tx;
    }
+
+   /**
+    * Returns a transaction that can update the database.
+    * If the current transaction is read-only, it is
+    * committed and a new transaction is begun.
+    * An exception is thrown if the connection is read-only.
+    * @return the transaction associated with this connection
+    */
+   Transaction getUpdateTransaction() {
+      if (readOnly)
+         throw new RuntimeException("the connection is read-only");
+      if (tx.isReadOnly()) {
+         tx.commit();
+         tx = new Transaction();
+         tx.setIsolationLevel(isolation);
+      }
+      return tx;
+   }
    
    /**
     * Commits the current transaction,
-    * and begins a new one.
+    * and begins a new read-only one.
     */
    void commit() {
       tx.commit();
-      tx = new Transaction();
+      tx = new Transaction(true);
    }
    
    /**
     * Rolls back the current transaction,
-    * and begins a new one.
+    * and begins a new read-only one.
     */
    void rollback() {
       tx.rollback();
-      tx = new Transaction();
+      tx = new Transaction(true);
    }
 }
 
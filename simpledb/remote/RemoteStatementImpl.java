@@ -40,12 +40,12 @@ class RemoteStatementImpl extends UnicastRemoteObject implements RemoteStatement
    /**
     * Executes the specified SQL update command.
     * The method sends the command to the update planner,
-    * which executes it.
+    * which executes it in a transaction that can update.
     * @see simpledb.remote.RemoteStatement#executeUpdate(java.lang.String)
     */
    public int executeUpdate(String cmd) throws RemoteException {
       try {
-         Transaction tx = rconn.getTransaction();
+         Transaction tx = rconn.getUpdateTransaction();
          int result = SimpleDB.planner().executeUpdate(cmd, tx);
          rconn.commit();
          return result;
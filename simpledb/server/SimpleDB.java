@@ -1,8 +1,9 @@
 package simpledb.server;
 
-import simpledb.file.FileMgr;
+import simpledb.file.*;
 import simpledb.buffer.*;
 import simpledb.tx.Transaction;
+import simpledb.tx.recovery.RecoveryMgr;
 import simpledb.log.LogMgr;
 import simpledb.metadata.MetadataMgr;
 import simpledb.planner.*;
@@ -23,8 +24,17 @@ import simpledb.index.planner.IndexUpdatePlanner;
  * @author Edward Sciore
  */
 public class SimpleDB {
+   public static int BLOCK_SIZE = Page.DEFAULT_BLOCK_SIZE; // bytes; used only when a database is created
+   public static String FILE_BACKEND = FileMgr.CHANNEL;
    public static int BUFFER_SIZE = 8;
+   public static String REPLACEMENT_POLICY = ReplacementPolicy.LRU;
+   public static long BUFFER_WRITER_INTERVAL = 100; // milliseconds; 0 disables the writer
    public static String LOG_FILE = "simpledb.log";
+   public static long GROUP_COMMIT_WINDOW = 0; // milliseconds; negative disables group commit
+   public static long CHECKPOINT_INTERVAL = 5000; // milliseconds; 0 disables periodic checkpoints
+   public static int RECOVERY_THREADS = 4; // workers that redo and undo blocks at restart
+   public static int LOCK_ESCALATION_THRESHOLD = 100; // block SLocks on a file before the whole file is locked
+   public static int RECORD_LOCK_ESCALATION_THRESHOLD = 10000; // record SLocks on a file before the whole file is locked
    
    private static FileMgr     fm;
    private static BufferMgr   bm;
@@ -48,6 +58,8 @@ public class SimpleDB {
       }
       initMetadataMgr(isnew, tx);
       tx.commit();
+      if (CHECKPOINT_INTERVAL > 0)
+         RecoveryMgr.startCheckpointer(CHECKPOINT_INTERVAL);
    }
    
    // The following initialization methods are useful for 
@@ -59,7 +71,7 @@ public class SimpleDB {
     * @param dirname the name of the database directory
     */
    public static void initFileMgr(String dirname) {
-      fm = new FileMgr(dirname);
+      fm = new FileMgr(dirname, BLOCK_SIZE, FILE_BACKEND);
    }
    
    /**
@@ -68,7 +80,7 @@ public class SimpleDB {
     */
    public static void initFileAndLogMgr(String dirname) {
       initFileMgr(dirname);
-      logm = new LogMgr(LOG_FILE);
+      logm = new LogMgr(LOG_FILE, GROUP_COMMIT_WINDOW);
    }
    
    /**
@@ -77,7 +89,9 @@ public class SimpleDB {
     */
    public static void initFileLogAndBufferMgr(String dirname) {
       initFileAndLogMgr(dirname);
-      bm = new BufferMgr(BUFFER_SIZE);
+      bm = new BufferMgr(BUFFER_SIZE, REPLACEMENT_POLICY);
+      if (BUFFER_WRITER_INTERVAL > 0)
+         bm.startWriter(BUFFER_WRITER_INTERVAL);
    }
    
    /**
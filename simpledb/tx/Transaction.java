@@ -18,6 +18,7 @@ public class Transaction {
    private RecoveryMgr    recoveryMgr;
    private ConcurrencyMgr concurMgr;
    private int txnum;
+   private boolean readOnly;
    private BufferList myBuffers = new BufferList();
 
    /**
@@ -33,25 +34,75 @@ public class Transaction {
     * is called first.
     */
    public Transaction() {
+      this(false);
+   }
+
+   /**
+    * Creates a new transaction, which is read-only if so specified.
+    * A read-only transaction reads a snapshot of the database,
+    * as of its first read, without locking; it sees neither the
+    * changes of the transactions that commit after that nor
+    * those of uncommitted transactions.
+    * It is meant for queries: the only changes it can make
+    * are to temporary tables, which no other transaction reads.
+    * Since those changes are not logged, a read-only transaction
+    * writes nothing to the log, not even when it begins or commits.
+    * @param readOnly true if the transaction is read-only
+    */
+   public Transaction(boolean readOnly) {
       txnum       = nextTxNumber();
-      recoveryMgr = new RecoveryMgr(txnum);
-      concurMgr   = new ConcurrencyMgr(txnum);
+      this.readOnly = readOnly;
+      recoveryMgr = new RecoveryMgr(txnum, readOnly);
+      concurMgr   = new ConcurrencyMgr(txnum, readOnly);
    }
 
    public int getTxNum() {
       return txnum;
    }
 
+   /**
+    * Returns true if the transaction is read-only.
+    * @return true if the transaction reads a snapshot
+    */
+   public boolean isReadOnly() {
+      return readOnly;
+   }
+
+   /**
+    * Sets the isolation level of the transaction,
+    * one of the constants of {@link ConcurrencyMgr}.
+    * At every level, XLocks are held until the transaction finishes.
+    * SERIALIZABLE, the default, holds the SLocks as long, and locks
+    * the end of each file whose size it reads, so that no new blocks
+    * appear while it runs.  REPEATABLE_READ does not lock the end of
+    * a file, and READ_COMMITTED in addition releases the SLocks on a
+    * block of records once a {@link simpledb.record.RecordFile} leaves it.
+    * @param level the isolation level
+    */
+   public void setIsolationLevel(int level) {
+      concurMgr.setIsolationLevel(level);
+   }
+
+   /**
+    * Returns the isolation level of the transaction.
+    * @return the isolation level
+    */
+   public int getIsolationLevel() {
+      return concurMgr.getIsolationLevel();
+   }
+
    /**
     * Commits the current transaction.
     * Flushes all modified buffers (and their log records),
     * writes and flushes a commit record to the log,
-    * releases all locks, and unpins any pinned buffers.
+    * releases all locks, and unpins any pinned buffers
+    * and releases any reserved ones.
     */
    public void commit() {
       recoveryMgr.commit();
-      concurMgr.release();
+      concurMgr.commit();
       myBuffers.unpinAll(txnum);
+      SimpleDB.bufferMgr().releaseAll(txnum);
       System.out.println("transaction " + txnum + " committed");
    }
 
@@ -60,18 +111,21 @@ public class Transaction {
     * Undoes any modified values,
     * flushes those buffers,
     * writes and flushes a rollback record to the log,
-    * releases all locks, and unpins any pinned buffers.
+    * releases all locks, and unpins any pinned buffers
+    * and releases any reserved ones.
     */
    public void rollback() {
       recoveryMgr.rollback();
-      concurMgr.release();
+      concurMgr.rollback();
       myBuffers.unpinAll(txnum);
+      SimpleDB.bufferMgr().releaseAll(txnum);
       System.out.println("transaction " + txnum + " rolled back");
    }
 
    /**
     * Flushes all modified buffers.
-    * Then goes through the log, rolling back all
+    * Then goes through the log, redoing the updates
+    * since the last checkpoint and rolling back all
     * uncommitted transactions.  Finally,
     * writes a quiescent checkpoint record to the log.
     * This method is called only during system startup,
@@ -91,6 +145,28 @@ public class Transaction {
       myBuffers.pin(blk, txnum);
    }
 
+   /**
+    * Reserves buffers for an operator that will pin many blocks at once.
+    * The method may wait for other operators to release their buffers,
+    * and may grant fewer buffers than wanted, but not fewer than the minimum.
+    * The buffers stay reserved until they are released
+    * or the transaction finishes.
+    * @param wanted the number of buffers the operator would like
+    * @param minimum the fewest buffers the operator can work with
+    * @return the number of buffers reserved
+    */
+   public int reserveBuffers(int wanted, int minimum) {
+      return SimpleDB.bufferMgr().reserve(wanted, minimum, txnum);
+   }
+
+   /**
+    * Releases buffers reserved by {@link #reserveBuffers(int, int)}.
+    * @param count the number of buffers
+    */
+   public void releaseBuffers(int count) {
+      SimpleDB.bufferMgr().release(count, txnum);
+   }
+
    /**
     * Unpins the specified block.
     * The transaction looks up the buffer pinned to this block,
@@ -105,30 +181,108 @@ public class Transaction {
     * Returns the integer value stored at the
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
-    * then it calls the buffer to retrieve the value.
+    * then it calls the buffer to retrieve the value;
+    * a read-only transaction reads the value in its snapshot instead.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the integer stored at that offset
     */
    public int getInt(Block blk, int offset) {
-      concurMgr.sLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
-      return buff.getInt(offset);
+      return concurMgr.getInt(buff, offset);
    }
 
    /**
     * Returns the string value stored at the
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
-    * then it calls the buffer to retrieve the value.
+    * then it calls the buffer to retrieve the value;
+    * a read-only transaction reads the value in its snapshot instead.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the string stored at that offset
     */
    public String getString(Block blk, int offset) {
-      concurMgr.sLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
-      return buff.getString(offset);
+      return concurMgr.getString(buff, offset);
+   }
+
+   /**
+    * Returns the integer value stored at the specified offset
+    * of the record in the specified slot of the block.
+    * The method obtains an SLock on the record alone,
+    * rather than on the whole block;
+    * a read-only transaction reads the value in its snapshot instead.
+    * @param blk a reference to a disk block
+    * @param slot the slot of the record in the block
+    * @param offset the byte offset within the block
+    * @return the integer stored at that offset
+    */
+   public int getInt(Block blk, int slot, int offset) {
+      Buffer buff = myBuffers.getBuffer(blk);
+      return concurMgr.getInt(buff, slot, offset);
+   }
+
+   /**
+    * Returns the string value stored at the specified offset
+    * of the record in the specified slot of the block.
+    * The method obtains an SLock on the record alone,
+    * rather than on the whole block;
+    * a read-only transaction reads the value in its snapshot instead.
+    * @param blk a reference to a disk block
+    * @param slot the slot of the record in the block
+    * @param offset the byte offset within the block
+    * @return the string stored at that offset
+    */
+   public String getString(Block blk, int slot, int offset) {
+      Buffer buff = myBuffers.getBuffer(blk);
+      return concurMgr.getString(buff, slot, offset);
+   }
+
+   /**
+    * Returns the integer value stored at the
+    * specified offset of the specified block, without locking.
+    * The value may belong to an uncommitted transaction,
+    * so it serves only as a hint: a caller that acts on it
+    * must lock the value and read it again.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @return the integer stored at that offset
+    */
+   public int peekInt(Block blk, int offset) {
+      return myBuffers.getBuffer(blk).getInt(offset);
+   }
+
+   /**
+    * Obtains an XLock on the record in the specified slot of the block,
+    * as {@link #setInt(Block, int, int, int)} does.
+    * @param blk a reference to a disk block
+    * @param slot the slot of the record in the block
+    */
+   public void xLock(Block blk, int slot) {
+      concurMgr.xLock(blk, slot);
+   }
+
+   /**
+    * Returns true if the transaction holds an XLock on the record
+    * in the specified slot of the block, as it does on every
+    * record that it has changed.
+    * @param blk a reference to a disk block
+    * @param slot the slot of the record in the block
+    * @return true if the record is XLocked by the transaction
+    */
+   public boolean hasXLock(Block blk, int slot) {
+      return concurMgr.hasXLock(blk, slot);
+   }
+
+   /**
+    * Tells the transaction that it has finished reading the block
+    * and its records.  At the isolation level READ_COMMITTED,
+    * the SLocks on them are released.
+    * @param blk a reference to the disk block
+    */
+   public void releaseSLocks(Block blk) {
+      concurMgr.releaseSLocks(blk);
    }
 
    /**
@@ -138,17 +292,35 @@ public class Transaction {
     * It then reads the current value at that offset,
     * puts it into an update log record, and
     * writes that record to the log.
-    * Finally, it calls the buffer to store the value,
-    * passing in the LSN of the log record and the transaction's id.
+    * Finally, it has the concurrency manager store the value
+    * in the buffer, keeping the old value for snapshots,
+    * passing in the LSN of the log record.
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
     */
    public void setInt(Block blk, int offset, int val) {
+      checkUpdatable(blk.fileName());
       concurMgr.xLock(blk);
-      Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setInt(buff, offset, val);
-      buff.setInt(offset, val, txnum, lsn);
+      writeInt(blk, offset, val);
+   }
+
+   /**
+    * Stores an integer at the specified offset of the record
+    * in the specified slot of the block.
+    * The method obtains an XLock on the record alone, so other
+    * transactions can change the other records of the block;
+    * the value is then logged and stored as by
+    * {@link #setInt(Block, int, int)}.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    * @param offset a byte offset within that block
+    * @param val the value to be stored
+    */
+   public void setInt(Block blk, int slot, int offset, int val) {
+      checkUpdatable(blk.fileName());
+      concurMgr.xLock(blk, slot);
+      writeInt(blk, offset, val);
    }
 
    /**
@@ -158,17 +330,35 @@ public class Transaction {
     * It then reads the current value at that offset,
     * puts it into an update log record, and
     * writes that record to the log.
-    * Finally, it calls the buffer to store the value,
-    * passing in the LSN of the log record and the transaction's id.
+    * Finally, it has the concurrency manager store the value
+    * in the buffer, keeping the old value for snapshots,
+    * passing in the LSN of the log record.
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
     */
    public void setString(Block blk, int offset, String val) {
+      checkUpdatable(blk.fileName());
       concurMgr.xLock(blk);
-      Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setString(buff, offset, val);
-      buff.setString(offset, val, txnum, lsn);
+      writeString(blk, offset, val);
+   }
+
+   /**
+    * Stores a string at the specified offset of the record
+    * in the specified slot of the block.
+    * The method obtains an XLock on the record alone, so other
+    * transactions can change the other records of the block;
+    * the value is then logged and stored as by
+    * {@link #setString(Block, int, String)}.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    * @param offset a byte offset within that block
+    * @param val the value to be stored
+    */
+   public void setString(Block blk, int slot, int offset, String val) {
+      checkUpdatable(blk.fileName());
+      concurMgr.xLock(blk, slot);
+      writeString(blk, offset, val);
    }
 
    /**
@@ -176,12 +366,17 @@ public class Transaction {
     * This method first obtains an SLock on the
     * "end of the file", before asking the file manager
     * to return the file size.
+    * A read-only transaction takes no lock: the blocks appended
+    * since its snapshot hold no records in the snapshot.
+    * Nor does a transaction whose isolation level is below
+    * SERIALIZABLE, which allows phantoms.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
    public int size(String filename) {
       Block dummyblk = new Block(filename, END_OF_FILE);
-      concurMgr.sLock(dummyblk);
+      if (!readOnly && concurMgr.getIsolationLevel() == ConcurrencyMgr.SERIALIZABLE)
+         concurMgr.sLock(dummyblk);
       return SimpleDB.fileMgr().size(filename);
    }
 
@@ -195,6 +390,7 @@ public class Transaction {
     * @return a reference to the newly-created disk block
     */
    public Block append(String filename, PageFormatter fmtr) {
+      checkUpdatable(filename);
       Block dummyblk = new Block(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
       Block blk = myBuffers.pinNew(filename, fmtr, txnum);
@@ -202,6 +398,40 @@ public class Transaction {
       return blk;
    }
 
+   /**
+    * Throws an exception if the transaction is read-only
+    * and the file is not a temporary one.
+    */
+   private void checkUpdatable(String filename) {
+      if (readOnly && !filename.startsWith("temp"))
+         throw new RuntimeException("read-only transaction " + txnum + " cannot change " + filename);
+   }
+
+   /**
+    * Logs and stores an integer while holding the buffer's latch,
+    * its monitor, since transactions that lock different records
+    * can change the page at the same time.  The latch makes the
+    * LSNs of the page's changes increase in the order of the changes.
+    */
+   private void writeInt(Block blk, int offset, int val) {
+      Buffer buff = myBuffers.getBuffer(blk);
+      synchronized (buff) {
+         long lsn = recoveryMgr.setInt(buff, offset, val);
+         concurMgr.setInt(buff, offset, val, lsn);
+      }
+   }
+
+   /**
+    * Logs and stores a string while holding the buffer's latch.
+    */
+   private void writeString(Block blk, int offset, String val) {
+      Buffer buff = myBuffers.getBuffer(blk);
+      synchronized (buff) {
+         long lsn = recoveryMgr.setString(buff, offset, val);
+         concurMgr.setString(buff, offset, val, lsn);
+      }
+   }
+
    private static synchronized int nextTxNumber() {
       nextTxNum++;
       System.out.println("new transaction: " + nextTxNum);
@@ -8,7 +8,8 @@ import simpledb.file.Block;
 import simpledb.record.*;
 import simpledb.tx.recovery.*;
 import simpledb.tx.concurrency.*;
-import simpledb.buffer.BufferAbortException;
+import simpledb.buffer.*;
+import simpledb.server.SimpleDB;
 
 public class TransactionTests {
 
@@ -37,11 +38,11 @@ public class TransactionTests {
       Iterator<LogRecord> iter = new LogRecordIterator();
       LogRecord record = iter.next();
       assertEquals("Last entry should be of type SETSTRING", record.op(), 5);
-      assertEquals("Last entry should have value correct value", record.toString(), "<SETSTRING " + transaction.getTxNum() + " " + block + " " + 4 + " >");
+      assertEquals("Last entry should have value correct value", record.toString(), "<SETSTRING " + transaction.getTxNum() + " " + block + " " + 4 + "  Test>");
 
       record = iter.next();
       assertEquals("Second to last entry should be of type SETINT", record.op(), 4);
-      assertEquals("Second to last entry should have the correct value", record.toString(), "<SETINT " + transaction.getTxNum() + " " + block + " 0 0>");
+      assertEquals("Second to last entry should have the correct value", record.toString(), "<SETINT " + transaction.getTxNum() + " " + block + " 0 0 20>");
    }
 
    // Test whether the system can handle receiving reads and
@@ -209,6 +210,387 @@ public class TransactionTests {
       assertEquals("Block 25 should equal 25 at offset 0", transaction.getInt(block25, 0), 25);
       assertEquals("Block 26 should equal 26 at offset 0", transaction.getInt(block26, 0), 26);
    }
+
+   // Test lock escalation. A transaction that reads more blocks of a file than
+   // the escalation threshold locks the whole file, so a writer to another block
+   // of that file has to wait until it commits, but a reader does not.
+   // The test uses concurrency managers directly, since it needs no buffers.
+   @Test
+   public void concurrencyTest7() {
+      System.out.println("\nConcurrency Test 7");
+
+      ConcurrencyMgr scanner = new ConcurrencyMgr(Test7Thread.TXNUM);
+      for (int i = 0; i <= SimpleDB.LOCK_ESCALATION_THRESHOLD; i++) {
+         scanner.sLock(new Block("escalation.tbl", i));
+      }
+
+      Test7Thread reader = new Test7Thread(Test7Thread.TXNUM + 1, false);
+      Test7Thread writer = new Test7Thread(Test7Thread.TXNUM + 2, true);
+      Thread thread1 = new Thread(reader, "thread1");
+      Thread thread2 = new Thread(writer, "thread2");
+      thread1.start();
+      thread2.start();
+
+      try {
+         Thread.sleep(200);
+         scanner.release();
+         thread1.join();
+         thread2.join();
+      } catch(InterruptedException e) {
+         System.out.println(e.toString());
+      }
+
+      assertTrue("Test 7: The reader should not wait for the file lock", reader.waited >= 0 && reader.waited < 200);
+      assertTrue("Test 7: The writer should wait for the file lock", writer.waited >= 200);
+   }
+
+   // Test snapshot reads. A read-only transaction reads a block that another
+   // transaction has changed but not committed, without waiting for its XLock,
+   // and keeps seeing its snapshot after that transaction commits.
+   // The test uses concurrency managers and a buffer manager of its own,
+   // so that it does not depend on the buffers left pinned by other tests.
+   @Test
+   public void concurrencyTest8() {
+      System.out.println("\nConcurrency Test 8");
+
+      BufferMgr bufferMgr = new BufferMgr(1);
+      Block block = new Block("snapshot.tbl", 0);
+      int txnum = Test7Thread.TXNUM + 10;
+      Buffer buff = bufferMgr.pin(block, txnum);
+
+      ConcurrencyMgr first = new ConcurrencyMgr(txnum);
+      first.xLock(block);
+      first.setInt(buff, 0, 1, -1);
+      first.commit();
+
+      ConcurrencyMgr writer = new ConcurrencyMgr(txnum + 1);
+      writer.xLock(block);
+      writer.setInt(buff, 0, 2, -1);
+
+      ConcurrencyMgr reader = new ConcurrencyMgr(txnum + 2, true);
+      long beginTime = System.currentTimeMillis();
+      assertEquals("Test 8: The reader should not see the uncommitted value", 1, reader.getInt(buff, 0));
+      long endTime = System.currentTimeMillis();
+      assertTrue("Test 8: The reader should not wait for the XLock", (endTime - beginTime) < 1000);
+
+      writer.commit();
+      assertEquals("Test 8: The reader should keep its snapshot", 1, reader.getInt(buff, 0));
+      reader.commit();
+
+      ConcurrencyMgr laterReader = new ConcurrencyMgr(txnum + 3, true);
+      assertEquals("Test 8: A later snapshot should see the committed value", 2, laterReader.getInt(buff, 0));
+      laterReader.commit();
+      bufferMgr.unpin(buff, txnum);
+   }
+
+   // Test record locks. While a transaction has an XLock on one record of a
+   // block, another transaction can XLock a different record of the block
+   // at once, but one that locks the same record or the whole block waits.
+   @Test
+   public void concurrencyTest9() {
+      System.out.println("\nConcurrency Test 9");
+
+      ConcurrencyMgr holder = new ConcurrencyMgr(Test9Thread.TXNUM);
+      Block block = new Block("rowlock.tbl", 0);
+      holder.xLock(block, 0);
+
+      Test9Thread otherRecord = new Test9Thread(Test9Thread.TXNUM + 1, block, 1);
+      Test9Thread sameRecord = new Test9Thread(Test9Thread.TXNUM + 2, block, 0);
+      Test9Thread wholeBlock = new Test9Thread(Test9Thread.TXNUM + 3, block, -1);
+      Thread thread1 = new Thread(otherRecord, "thread1");
+      Thread thread2 = new Thread(sameRecord, "thread2");
+      Thread thread3 = new Thread(wholeBlock, "thread3");
+
+      try {
+         // The writer of the other record runs alone, so that it is not
+         // queued behind the waiting request for the whole block.
+         thread1.start();
+         thread1.join();
+         thread2.start();
+         thread3.start();
+         Thread.sleep(200);
+         holder.release();
+         thread2.join();
+         thread3.join();
+      } catch(InterruptedException e) {
+         System.out.println(e.toString());
+      }
+
+      assertTrue("Test 9: A writer of another record should not wait", otherRecord.waited >= 0 && otherRecord.waited < 200);
+      assertTrue("Test 9: A writer of the same record should wait", sameRecord.waited >= 200);
+      assertTrue("Test 9: A reader of the whole block should wait", wholeBlock.waited >= 200);
+   }
+
+   // Test the read committed isolation level. A transaction at that level
+   // releases its SLocks on a block once it has read the block, so a writer
+   // does not wait for it; at the default level, serializable, the SLocks
+   // are kept until the transaction finishes.
+   @Test
+   public void concurrencyTest10() {
+      System.out.println("\nConcurrency Test 10");
+
+      Block block1 = new Block("isolation.tbl", 0);
+      Block block2 = new Block("isolation.tbl", 1);
+      ConcurrencyMgr readCommitted = new ConcurrencyMgr(Test9Thread.TXNUM + 10);
+      readCommitted.setIsolationLevel(ConcurrencyMgr.READ_COMMITTED);
+      readCommitted.sLock(block1, 0);
+      readCommitted.releaseSLocks(block1);
+      ConcurrencyMgr serializable = new ConcurrencyMgr(Test9Thread.TXNUM + 11);
+      serializable.sLock(block2, 0);
+      serializable.releaseSLocks(block2);
+
+      Test9Thread writer1 = new Test9Thread(Test9Thread.TXNUM + 12, block1, 0);
+      Test9Thread writer2 = new Test9Thread(Test9Thread.TXNUM + 13, block2, 0);
+      Thread thread1 = new Thread(writer1, "thread1");
+      Thread thread2 = new Thread(writer2, "thread2");
+
+      try {
+         thread1.start();
+         thread1.join();
+         thread2.start();
+         Thread.sleep(200);
+         readCommitted.release();
+         serializable.release();
+         thread2.join();
+      } catch(InterruptedException e) {
+         System.out.println(e.toString());
+      }
+
+      assertTrue("Test 10: A writer should not wait for a read committed reader", writer1.waited >= 0 && writer1.waited < 200);
+      assertTrue("Test 10: A writer should wait for a serializable reader", writer2.waited >= 200);
+   }
+
+   // Test the escalation of record locks. A transaction that reads more records
+   // of a file than the escalation threshold for blocks keeps its record locks,
+   // so a writer of another record does not wait; once it reads as many
+   // records as the threshold for records, it locks the whole file.
+   @Test
+   public void concurrencyTest11() {
+      System.out.println("\nConcurrency Test 11");
+
+      int perBlock = 50;
+      ConcurrencyMgr scanner = new ConcurrencyMgr(Test9Thread.TXNUM + 20);
+      for (int i = 0; i <= SimpleDB.LOCK_ESCALATION_THRESHOLD; i++)
+         scanner.sLock(new Block("recordescalation.tbl", i / perBlock), i % perBlock);
+      Test9Thread writer1 = new Test9Thread(Test9Thread.TXNUM + 21, new Block("recordescalation.tbl", 0), perBlock);
+      Test9Thread writer2 = new Test9Thread(Test9Thread.TXNUM + 22, new Block("recordescalation.tbl", 0), perBlock + 1);
+      Thread thread1 = new Thread(writer1, "thread1");
+      Thread thread2 = new Thread(writer2, "thread2");
+
+      try {
+         thread1.start();
+         thread1.join();
+         for (int i = SimpleDB.LOCK_ESCALATION_THRESHOLD + 1; i <= SimpleDB.RECORD_LOCK_ESCALATION_THRESHOLD; i++)
+            scanner.sLock(new Block("recordescalation.tbl", i / perBlock), i % perBlock);
+         thread2.start();
+         Thread.sleep(200);
+         scanner.release();
+         thread2.join();
+      } catch(InterruptedException e) {
+         System.out.println(e.toString());
+      }
+
+      assertTrue("Test 11: A writer of another record should not wait below the record threshold", writer1.waited >= 0 && writer1.waited < 200);
+      assertTrue("Test 11: A writer of another record should wait once the file is locked", writer2.waited >= 200);
+   }
+
+   // Test slotted record pages. A record takes only the space its values need,
+   // so a block holds more short records than it has fixed-size slots. A record
+   // that grows too large for its block is moved to another one, but keeps its
+   // RID and is read once by a scan; rolling back the change restores it.
+   @Test
+   public void slottedPageTest() {
+      System.out.println("\nSlotted Page Test");
+
+      Schema schema = new Schema();
+      schema.addIntField("id");
+      schema.addStringField("name", 100);
+      TableInfo fixed = new TableInfo("fixedpage", schema);
+      TableInfo slotted = new TableInfo("slottedpage", schema, true);
+
+      Transaction transaction = new Transaction();
+      int fixedCount = fillFirstBlock(fixed, transaction);
+      int slottedCount = fillFirstBlock(slotted, transaction);
+      transaction.commit();
+      assertTrue("Slotted: A slotted block should hold more short records", slottedCount > fixedCount);
+
+      String longName = "";
+      while (longName.length() < 100)
+         longName += "name";
+      transaction = new Transaction();
+      RecordFile recordFile = new RecordFile(slotted, transaction);
+      recordFile.next();
+      RID rid = recordFile.currentRid();
+      int id = recordFile.getInt("id");
+      String name = recordFile.getString("name");
+      recordFile.setString("name", longName);
+      recordFile.close();
+
+      recordFile = new RecordFile(slotted, transaction);
+      recordFile.moveToRid(rid);
+      assertEquals("Slotted: The moved record should keep its RID", longName, recordFile.getString("name"));
+      assertEquals("Slotted: The moved record should keep its other values", id, recordFile.getInt("id"));
+      recordFile.beforeFirst();
+      int count = 0;
+      while (recordFile.next()) {
+         if (recordFile.getInt("id") == id)
+            count++;
+      }
+      recordFile.close();
+      assertEquals("Slotted: A scan should read the moved record once", 1, count);
+      transaction.rollback();
+
+      transaction = new Transaction();
+      recordFile = new RecordFile(slotted, transaction);
+      recordFile.moveToRid(rid);
+      assertEquals("Slotted: The rollback should restore the record", name, recordFile.getString("name"));
+      recordFile.close();
+      transaction.commit();
+   }
+
+   // Test a snapshot scan of a slotted page. A read-only transaction reads a
+   // record that another transaction then deletes; a third transaction moves a
+   // record into the deleted record's slot, which it flags MOVED. The scan
+   // must still read the record in the slot, since its snapshot holds it.
+   @Test
+   public void slottedSnapshotTest() {
+      System.out.println("\nSlotted Snapshot Test");
+
+      Schema schema = new Schema();
+      schema.addIntField("id");
+      schema.addStringField("name", 100);
+      TableInfo slotted = new TableInfo("snapshotpage", schema, true);
+      String longName = "";
+      while (longName.length() < 40)
+         longName += "name";
+
+      // The record after the first block is alone in the second one,
+      // and its space is made large enough for a moved record.
+      Transaction transaction = new Transaction();
+      int count = fillFirstBlock(slotted, transaction);
+      RecordFile recordFile = new RecordFile(slotted, transaction);
+      RID deleted = null;
+      while (recordFile.next()) {
+         if (recordFile.getInt("id") == count)
+            deleted = recordFile.currentRid();
+      }
+      recordFile.moveToRid(deleted);
+      recordFile.setString("name", longName);
+      recordFile.close();
+      transaction.commit();
+
+      Transaction reader = new Transaction(true);
+      assertEquals("Slotted Snapshot: The reader should see every record", count + 1, countIds(slotted, reader, count));
+
+      transaction = new Transaction();
+      recordFile = new RecordFile(slotted, transaction);
+      recordFile.moveToRid(deleted);
+      recordFile.delete();
+      recordFile.close();
+      transaction.commit();
+
+      transaction = new Transaction();
+      recordFile = new RecordFile(slotted, transaction);
+      recordFile.next();
+      recordFile.setString("name", longName);
+      recordFile.close();
+      transaction.commit();
+
+      assertEquals("Slotted Snapshot: The reader should still see the deleted record", count + 1, countIds(slotted, reader, count));
+      reader.commit();
+   }
+
+   // Test a locking scan of a slotted page. A transaction deletes the record in
+   // the second block and then moves a record of the first block there, without
+   // committing. The slot of the deleted record cannot take the moved record,
+   // so a scan that starts after the first block waits for the deleting
+   // transaction, and reads the record again once that transaction rolls back.
+   @Test
+   public void slottedScanTest() {
+      System.out.println("\nSlotted Scan Test");
+
+      Schema schema = new Schema();
+      schema.addIntField("id");
+      schema.addStringField("name", 100);
+      TableInfo slotted = new TableInfo("scanpage", schema, true);
+      String longName = "";
+      while (longName.length() < 40)
+         longName += "name";
+
+      Transaction transaction = new Transaction();
+      int count = fillFirstBlock(slotted, transaction);
+      RecordFile recordFile = new RecordFile(slotted, transaction);
+      RID deleted = null, lastInFirst = null;
+      while (recordFile.next()) {
+         if (recordFile.getInt("id") == count)
+            deleted = recordFile.currentRid();
+         if (recordFile.getInt("id") == count - 1)
+            lastInFirst = recordFile.currentRid();
+      }
+      recordFile.moveToRid(deleted);
+      recordFile.setString("name", longName);
+      recordFile.close();
+      transaction.commit();
+
+      transaction = new Transaction();
+      recordFile = new RecordFile(slotted, transaction);
+      recordFile.moveToRid(deleted);
+      recordFile.delete();
+      recordFile.beforeFirst();
+      recordFile.next();
+      recordFile.setString("name", longName);
+      recordFile.close();
+
+      SlottedScanThread scanner = new SlottedScanThread(slotted, lastInFirst, count);
+      Thread thread1 = new Thread(scanner, "thread1");
+
+      try {
+         thread1.start();
+         Thread.sleep(200);
+         transaction.rollback();
+         thread1.join();
+      } catch(InterruptedException e) {
+         System.out.println(e.toString());
+      }
+
+      assertTrue("Slotted Scan: The scan should wait for the deleting transaction", scanner.waited >= 200);
+      assertTrue("Slotted Scan: The scan should read the restored record", scanner.found);
+   }
+
+   // Returns the number of records of the table, or -1 if
+   // the record with the specified id is not among them.
+   private int countIds(TableInfo tableInfo, Transaction transaction, int id) {
+      RecordFile recordFile = new RecordFile(tableInfo, transaction);
+      int count = 0;
+      boolean found = false;
+      while (recordFile.next()) {
+         if (recordFile.getInt("id") == id)
+            found = true;
+         count++;
+      }
+      recordFile.close();
+      return found ? count : -1;
+   }
+
+   // Empties the table, then inserts records with short names until the
+   // first block is full, and returns the number of records it holds.
+   private int fillFirstBlock(TableInfo tableInfo, Transaction transaction) {
+      RecordFile recordFile = new RecordFile(tableInfo, transaction);
+      while (recordFile.next())
+         recordFile.delete();
+      recordFile.beforeFirst();
+      int count = 0;
+      while (true) {
+         recordFile.insert();
+         recordFile.setInt("id", count);
+         recordFile.setString("name", "name" + count);
+         if (recordFile.currentRid().blockNumber() > 0)
+            break;
+         count++;
+      }
+      recordFile.close();
+      return count;
+   }
 }
 
 
@@ -669,3 +1051,105 @@ class Test6Thread2 implements Runnable {
       }
    }
 }
+
+/*
+ * Classes for Concurrency Test 7
+ */
+
+// Locks a block beyond those that the main thread locked, for reading or writing,
+// and records how long it waited for the lock, in milliseconds.
+// The transaction numbers are well above those of the real transactions.
+class Test7Thread implements Runnable {
+   static final int TXNUM = 1000000;
+   ConcurrencyMgr concurMgr;
+   boolean write;
+   long waited;
+
+   public Test7Thread(int txnum, boolean write) {
+      this.concurMgr = new ConcurrencyMgr(txnum);
+      this.write = write;
+   }
+
+   public void run() {
+      Block block = new Block("escalation.tbl", SimpleDB.LOCK_ESCALATION_THRESHOLD + 1);
+      long beginTime = System.currentTimeMillis();
+
+      try {
+         if (write)
+            concurMgr.xLock(block);
+         else
+            concurMgr.sLock(block);
+         waited = System.currentTimeMillis() - beginTime;
+      } catch(LockAbortException e) {
+         waited = -1;
+      }
+      concurMgr.release();
+   }
+}
+
+// Scans a slotted table from the specified record onward, and records
+// whether it read the record with the specified id and how long it took.
+class SlottedScanThread implements Runnable {
+   TableInfo tableInfo;
+   RID start;
+   int id;
+   boolean found;
+   long waited;
+
+   public SlottedScanThread(TableInfo tableInfo, RID start, int id) {
+      this.tableInfo = tableInfo;
+      this.start = start;
+      this.id = id;
+   }
+
+   public void run() {
+      long beginTime = System.currentTimeMillis();
+      Transaction transaction = new Transaction();
+
+      try {
+         RecordFile recordFile = new RecordFile(tableInfo, transaction);
+         recordFile.moveToRid(start);
+         while (recordFile.next()) {
+            if (recordFile.getInt("id") == id)
+               found = true;
+         }
+         recordFile.close();
+         waited = System.currentTimeMillis() - beginTime;
+         transaction.commit();
+      } catch(LockAbortException e) {
+         waited = -1;
+         transaction.rollback();
+      }
+   }
+}
+
+class Test9Thread implements Runnable {
+   static final int TXNUM = 1000020;
+   ConcurrencyMgr concurMgr;
+   Block block;
+   int slot;
+   long waited;
+
+   // A negative slot means that the thread SLocks the whole block;
+   // otherwise it XLocks the record in that slot.
+   public Test9Thread(int txnum, Block block, int slot) {
+      this.concurMgr = new ConcurrencyMgr(txnum);
+      this.block = block;
+      this.slot = slot;
+   }
+
+   public void run() {
+      long beginTime = System.currentTimeMillis();
+
+      try {
+         if (slot >= 0)
+            concurMgr.xLock(block, slot);
+         else
+            concurMgr.sLock(block);
+         waited = System.currentTimeMillis() - beginTime;
+      } catch(LockAbortException e) {
+         waited = -1;
+      }
+      concurMgr.release();
+   }
+}
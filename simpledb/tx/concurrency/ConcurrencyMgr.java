@@ -1,6 +1,9 @@
 package simpledb.tx.concurrency;
 
+import static simpledb.tx.concurrency.LockTable.*;
+import simpledb.server.SimpleDB;
 import simpledb.file.Block;
+import simpledb.buffer.Buffer;
 import java.util.*;
 
 /**
@@ -9,32 +12,199 @@ import java.util.*;
  * The concurrency manager keeps track of which locks the
  * transaction currently has, and interacts with the
  * global lock table as needed.
+ * <p>
+ * Before a block is locked, its file is locked with the matching
+ * intention lock, IS for an SLock and IX for an XLock.
+ * A record is locked in the same way, after its block and its file
+ * are locked with the intention lock; so transactions that change
+ * different records of a block do not wait for each other.
+ * Once a transaction holds {@link SimpleDB#LOCK_ESCALATION_THRESHOLD}
+ * SLocks on the blocks of a file, or
+ * {@link SimpleDB#RECORD_LOCK_ESCALATION_THRESHOLD} SLocks on its records,
+ * its locks are escalated:
+ * the whole file is locked in mode S (or SIX, if the transaction
+ * also has XLocks on the file) for reads, or X for writes,
+ * and the locks that the file lock covers are released.
+ * Thus a scan of a large table holds a single file lock
+ * instead of a lock on every block.  The threshold for records
+ * is much higher, since a file lock would make the writers of
+ * every record wait, which record locks are there to avoid.
+ * <p>
+ * The locks are held until the transaction finishes, unless
+ * the transaction's isolation level is {@link #READ_COMMITTED}:
+ * then the SLocks on a block and its records are released
+ * when the transaction has finished reading the block.
+ * <p>
+ * A read-only transaction takes no locks to read.  It reads a snapshot
+ * of the database, taken when it first reads a value, from the
+ * {@link VersionStore}; so it neither waits for writers nor
+ * makes them wait.  Every change to a buffer is made through the
+ * concurrency manager, which saves the old value in the store.
  * @author Edward Sciore
  */
 public class ConcurrencyMgr {
+   /**
+    * The isolation levels, which have the values of the
+    * corresponding constants of java.sql.Connection.
+    */
+   public static final int READ_COMMITTED = 2, REPEATABLE_READ = 4, SERIALIZABLE = 8;
 
    /**
     * The global lock table.  This variable is static because all transactions
     * share the same table.
     */
    private static LockTable locktbl = new LockTable();
+   private static VersionStore versions = new VersionStore();
    private Map<Block,String> locks  = new HashMap<Block,String>();
+   private Map<RecordId,String> recordLocks = new HashMap<RecordId,String>();
+   private Map<String,String> fileLocks = new HashMap<String,String>();
+   private Map<String,Integer> lockCounts = new HashMap<String,Integer>();
+   private Map<String,Integer> recordLockCounts = new HashMap<String,Integer>();
    private int txnum;
+   private boolean readOnly;
+   private int isolation = SERIALIZABLE;
+   private long snapshot = -1;  // negative means no snapshot yet
 
    public ConcurrencyMgr(int txnum) {
+      this(txnum, false);
+   }
+
+   /**
+    * Creates the concurrency manager of a transaction.
+    * A read-only transaction reads a snapshot instead of locking.
+    * @param txnum the id of the transaction
+    * @param readOnly true if the transaction is read-only
+    */
+   public ConcurrencyMgr(int txnum, boolean readOnly) {
       this.txnum = txnum;
+      this.readOnly = readOnly;
+   }
+
+   /**
+    * Sets the isolation level of the transaction.
+    * @param level READ_COMMITTED, REPEATABLE_READ or SERIALIZABLE
+    */
+   public void setIsolationLevel(int level) {
+      if (level != READ_COMMITTED && level != REPEATABLE_READ && level != SERIALIZABLE)
+         throw new RuntimeException("unsupported isolation level " + level);
+      isolation = level;
+   }
+
+   /**
+    * Returns the isolation level of the transaction.
+    * @return READ_COMMITTED, REPEATABLE_READ or SERIALIZABLE
+    */
+   public int getIsolationLevel() {
+      return isolation;
+   }
+
+   /**
+    * Returns the integer at the specified offset of a buffer.
+    * A read-only transaction reads it from its snapshot;
+    * any other transaction first obtains an SLock on the block.
+    * @param buff the buffer
+    * @param offset the byte offset within the page
+    * @return the integer at that offset
+    */
+   public int getInt(Buffer buff, int offset) {
+      if (readOnly)
+         return versions.getInt(buff, offset, txnum, snapshot());
+      sLock(buff.block());
+      return buff.getInt(offset);
+   }
+
+   /**
+    * Returns the string at the specified offset of a buffer.
+    * A read-only transaction reads it from its snapshot;
+    * any other transaction first obtains an SLock on the block.
+    * @param buff the buffer
+    * @param offset the byte offset within the page
+    * @return the string at that offset
+    */
+   public String getString(Buffer buff, int offset) {
+      if (readOnly)
+         return versions.getString(buff, offset, txnum, snapshot());
+      sLock(buff.block());
+      return buff.getString(offset);
+   }
+
+   /**
+    * Returns the integer at the specified offset of a buffer,
+    * which belongs to the record in the specified slot.
+    * A read-only transaction reads it from its snapshot;
+    * any other transaction first obtains an SLock on the record.
+    * @param buff the buffer
+    * @param slot the slot of the record in the block
+    * @param offset the byte offset within the page
+    * @return the integer at that offset
+    */
+   public int getInt(Buffer buff, int slot, int offset) {
+      if (readOnly)
+         return versions.getInt(buff, offset, txnum, snapshot());
+      sLock(buff.block(), slot);
+      return buff.getInt(offset);
+   }
+
+   /**
+    * Returns the string at the specified offset of a buffer,
+    * which belongs to the record in the specified slot.
+    * A read-only transaction reads it from its snapshot;
+    * any other transaction first obtains an SLock on the record.
+    * @param buff the buffer
+    * @param slot the slot of the record in the block
+    * @param offset the byte offset within the page
+    * @return the string at that offset
+    */
+   public String getString(Buffer buff, int slot, int offset) {
+      if (readOnly)
+         return versions.getString(buff, offset, txnum, snapshot());
+      sLock(buff.block(), slot);
+      return buff.getString(offset);
+   }
+
+   /**
+    * Writes an integer to a buffer, keeping the old value
+    * for the snapshots that do not contain this transaction.
+    * The transaction must hold an XLock on the block or the record.
+    * @param buff the buffer
+    * @param offset the byte offset within the page
+    * @param val the new value
+    * @param lsn the LSN of the corresponding log record
+    */
+   public void setInt(Buffer buff, int offset, int val, long lsn) {
+      versions.setInt(buff, offset, val, txnum, lsn);
+   }
+
+   /**
+    * Writes a string to a buffer, keeping the old value
+    * for the snapshots that do not contain this transaction.
+    * The transaction must hold an XLock on the block or the record.
+    * @param buff the buffer
+    * @param offset the byte offset within the page
+    * @param val the new value
+    * @param lsn the LSN of the corresponding log record
+    */
+   public void setString(Buffer buff, int offset, String val, long lsn) {
+      versions.setString(buff, offset, val, txnum, lsn);
    }
 
    /**
     * Obtains an SLock on the block, if necessary.
     * The method will ask the lock table for an SLock
-    * if the transaction currently has no locks on that block.
+    * if the transaction currently has no locks on that block
+    * and no lock on its file that covers it.
+    * The file is first locked in mode IS, or
+    * in mode S if the locks are escalated.
     * @param blk a reference to the disk block
     */
    public void sLock(Block blk) {
-      if (locks.get(blk) == null) {
-         locktbl.sLock(blk, txnum);
-         locks.put(blk, "S");
+      String filename = blk.fileName();
+      if (!covers(locks.get(blk), S) && !covers(fileLocks.get(filename), S)) {
+         lockFile(filename, IS);
+         if (overThreshold(filename))
+            escalate(filename, S);
+         else
+            lockBlock(blk, S);
       }
    }
 
@@ -43,28 +213,263 @@ public class ConcurrencyMgr {
     * If the transaction does not have an XLock on that block,
     * then the method first gets an SLock on that block
     * (if necessary), and then upgrades it to an XLock.
+    * The file is first locked in mode IX, or
+    * in mode X if the locks are escalated.
     * @param blk a refrence to the disk block
     */
    public void xLock(Block blk) {
-      if (!hasXLock(blk)) {
-         sLock(blk);
-         locktbl.xLock(blk, txnum);
-         locks.put(blk, "X");
+      String filename = blk.fileName();
+      if (!covers(locks.get(blk), X) && !covers(fileLocks.get(filename), X)) {
+         lockFile(filename, IX);
+         if (overThreshold(filename))
+            escalate(filename, X);
+         else {
+            if (locks.get(blk) == null)
+               lockBlock(blk, S);
+            lockBlock(blk, X);
+         }
+      }
+   }
+
+   /**
+    * Obtains an SLock on the record in the specified slot
+    * of the block, if necessary.
+    * The method will ask the lock table for an SLock if the
+    * transaction has no lock on the record and no lock on its block
+    * or its file that covers it.
+    * The block is first locked in mode IS, and the file in mode IS,
+    * or in mode S if the locks are escalated.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    */
+   public void sLock(Block blk, int slot) {
+      String filename = blk.fileName();
+      RecordId rec = new RecordId(blk, slot);
+      if (recordLocks.get(rec) == null && !covers(locks.get(blk), S)
+            && !covers(fileLocks.get(filename), S)) {
+         lockFile(filename, IS);
+         if (overThreshold(filename))
+            escalate(filename, S);
+         else {
+            lockIntention(blk, IS);
+            lockRecord(rec, S);
+         }
+      }
+   }
+
+   /**
+    * Obtains an XLock on the record in the specified slot
+    * of the block, if necessary.
+    * Unlike an XLock on a block, the XLock on a record is requested
+    * directly, without an SLock first, so that two transactions
+    * that claim the same empty slot do not deadlock upgrading.
+    * The block is first locked in mode IX, and the file in mode IX,
+    * or in mode X if the locks are escalated.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    */
+   public void xLock(Block blk, int slot) {
+      String filename = blk.fileName();
+      RecordId rec = new RecordId(blk, slot);
+      if (!covers(recordLocks.get(rec), X) && !covers(locks.get(blk), X)
+            && !covers(fileLocks.get(filename), X)) {
+         lockFile(filename, IX);
+         if (overThreshold(filename))
+            escalate(filename, X);
+         else {
+            lockIntention(blk, IX);
+            lockRecord(rec, X);
+         }
+      }
+   }
+
+   /**
+    * Returns true if the transaction holds an XLock on the record
+    * in the specified slot of the block.  Only a lock on the record
+    * itself counts, not one on its block or its file.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    * @return true if the record is XLocked by the transaction
+    */
+   public boolean hasXLock(Block blk, int slot) {
+      return covers(recordLocks.get(new RecordId(blk, slot)), X);
+   }
+
+   /**
+    * Releases the SLocks on the block and on its records,
+    * if the isolation level is READ_COMMITTED; otherwise
+    * the locks are kept until the transaction finishes.
+    * The XLocks, and the intention locks that they need, are kept.
+    * A lock on the block that includes an XLock, such as SIX, is kept whole.
+    * @param blk a reference to the disk block that has been read
+    */
+   public void releaseSLocks(Block blk) {
+      if (isolation != READ_COMMITTED)
+         return;
+      String filename = blk.fileName();
+      Iterator<Map.Entry<RecordId,String>> iter = recordLocks.entrySet().iterator();
+      while (iter.hasNext()) {
+         Map.Entry<RecordId,String> e = iter.next();
+         if (e.getValue().equals(S) && e.getKey().block().equals(blk)) {
+            locktbl.unlock(e.getKey(), txnum);
+            iter.remove();
+            uncountLock(recordLockCounts, filename);
+         }
+      }
+      // A block whose records are XLocked is locked in mode IX or stronger.
+      String mode = locks.get(blk);
+      if (mode != null && (mode.equals(S) || mode.equals(IS))) {
+         locktbl.unlock(blk, txnum);
+         locks.remove(blk);
+         if (mode.equals(S))
+            uncountLock(lockCounts, filename);
       }
    }
 
+   /**
+    * Makes the changes of the committed transaction visible
+    * to new snapshots, and releases its locks and its snapshot.
+    */
+   public void commit() {
+      versions.commit(txnum);
+      release();
+   }
+
+   /**
+    * Drops the old values saved for the rolled back transaction,
+    * whose changes are already undone, and releases its locks
+    * and its snapshot.
+    */
+   public void rollback() {
+      versions.rollback(txnum);
+      release();
+   }
+
    /**
     * Releases all locks by asking the lock table to
-    * unlock each one.
+    * unlock each one, the record locks first and the file locks last,
+    * and ends the snapshot, if any.
     */
    public void release() {
+      for (RecordId rec : recordLocks.keySet())
+         locktbl.unlock(rec, txnum);
       for (Block blk : locks.keySet())
          locktbl.unlock(blk, txnum);
+      for (String filename : fileLocks.keySet())
+         locktbl.unlock(filename, txnum);
+      recordLocks.clear();
       locks.clear();
+      fileLocks.clear();
+      lockCounts.clear();
+      recordLockCounts.clear();
+      if (snapshot >= 0) {
+         versions.endSnapshot(snapshot);
+         snapshot = -1;
+      }
+   }
+
+   /**
+    * Returns the snapshot of the read-only transaction,
+    * beginning it if the transaction has not read anything yet.
+    */
+   private long snapshot() {
+      if (snapshot < 0)
+         snapshot = versions.beginSnapshot();
+      return snapshot;
+   }
+
+   private void lockBlock(Block blk, String mode) {
+      if (mode.equals(S)) {
+         locktbl.sLock(blk, txnum, cost());
+         countLock(lockCounts, blk.fileName());
+      }
+      else
+         locktbl.xLock(blk, txnum, cost());
+      locks.put(blk, combine(locks.get(blk), mode));
+   }
+
+   private void lockIntention(Block blk, String mode) {
+      String held = locks.get(blk);
+      if (!covers(held, mode)) {
+         locktbl.lock(blk, txnum, mode, cost());
+         locks.put(blk, combine(held, mode));
+      }
+   }
+
+   private void lockRecord(RecordId rec, String mode) {
+      locktbl.lock(rec, txnum, mode, cost());
+      if (mode.equals(S))
+         countLock(recordLockCounts, rec.block().fileName());
+      recordLocks.put(rec, combine(recordLocks.get(rec), mode));
+   }
+
+   private void lockFile(String filename, String mode) {
+      String held = fileLocks.get(filename);
+      if (!covers(held, mode)) {
+         locktbl.lock(filename, txnum, mode, cost());
+         fileLocks.put(filename, combine(held, mode));
+      }
+   }
+
+   /**
+    * Locks the whole file in the specified mode, combined with
+    * the transaction's current lock on it, and releases
+    * the record and block locks of the file that the new lock covers.
+    * An IX lock on a block is kept unless the file is locked in mode X,
+    * since it still announces the XLocks on the block's records.
+    */
+   private void escalate(String filename, String mode) {
+      lockFile(filename, mode);
+      String filemode = fileLocks.get(filename);
+      Iterator<Map.Entry<RecordId,String>> recIter = recordLocks.entrySet().iterator();
+      while (recIter.hasNext()) {
+         Map.Entry<RecordId,String> e = recIter.next();
+         if (e.getKey().block().fileName().equals(filename) && covers(filemode, e.getValue())) {
+            locktbl.unlock(e.getKey(), txnum);
+            recIter.remove();
+         }
+      }
+      Iterator<Map.Entry<Block,String>> iter = locks.entrySet().iterator();
+      while (iter.hasNext()) {
+         Map.Entry<Block,String> e = iter.next();
+         String blockmode = e.getValue();
+         if (e.getKey().fileName().equals(filename) && covers(filemode, blockmode)
+               && (filemode.equals(X) || !covers(blockmode, IX))) {
+            locktbl.unlock(e.getKey(), txnum);
+            iter.remove();
+         }
+      }
+      lockCounts.remove(filename);
+      recordLockCounts.remove(filename);
+   }
+
+   /**
+    * Returns the cost of aborting the transaction if it deadlocks,
+    * measured by the number of locks it holds.
+    */
+   private int cost() {
+      return recordLocks.size() + locks.size() + fileLocks.size();
+   }
+
+   /**
+    * Returns true if the transaction holds enough SLocks on the
+    * blocks or on the records of the file to escalate its locks.
+    */
+   private boolean overThreshold(String filename) {
+      return lockCount(lockCounts, filename) >= SimpleDB.LOCK_ESCALATION_THRESHOLD
+            || lockCount(recordLockCounts, filename) >= SimpleDB.RECORD_LOCK_ESCALATION_THRESHOLD;
+   }
+
+   private void countLock(Map<String,Integer> counts, String filename) {
+      counts.put(filename, lockCount(counts, filename) + 1);
+   }
+
+   private void uncountLock(Map<String,Integer> counts, String filename) {
+      counts.put(filename, lockCount(counts, filename) - 1);
    }
 
-   private boolean hasXLock(Block blk) {
-      String locktype = locks.get(blk);
-      return locktype != null && locktype.equals("X");
+   private int lockCount(Map<String,Integer> counts, String filename) {
+      Integer count = counts.get(filename);
+      return (count == null) ? 0 : count;
    }
 }
@@ -0,0 +1,357 @@
+package simpledb.tx.concurrency;
+
+import java.util.*;
+
+/**
+ * The waits-for graph of the lock table, and the search for deadlocks in it.
+ * The graph has a vertex for each waiting transaction, holding the
+ * txnums of the transactions it waits for in an int array.
+ * The lock table updates a transaction's edges as its request moves
+ * through a queue, and the graph is searched for a cycle only when
+ * a transaction gains an edge, since only a new edge can close one.
+ * The search allocates nothing: the vertices are found by txnum in an
+ * open-addressed table of ints, they are marked with the number of the
+ * search that visits them, and the path is recorded in a reused array.
+ * <p>
+ * When a cycle is found, one of its transactions is chosen as the victim.
+ * Each waiting transaction has a cost, the number of locks it holds,
+ * which estimates the work lost by aborting it; the victim is the
+ * transaction in the cycle with the lowest cost.  On a tie, the
+ * transaction whose wait closed the cycle is chosen, since it
+ * can abort without having to be woken.
+ * <p>
+ * The detector also keeps track of the transactions waiting for a buffer.
+ * A transaction waiting for a buffer waits, in effect, for all the
+ * others waiting for one, so a lock cycle can pass through the buffer waits.
+ * The detector is not thread-safe; the lock table calls it while
+ * holding its own lock.
+ * @author Edward Sciore
+ */
+class DeadlockDetector {
+   private VertexMap vertices = new VertexMap();
+   // The transactions currently waiting for a buffer.
+   private int[] bufferWaiters = new int[8];
+   private int numBufferWaiters = 0;
+   // The path of the current search.
+   private Vertex[] path = new Vertex[16];
+   private int[] nextEdge = new int[16];
+   private int depth;
+   private int search = 0;
+   private int reachSearch = 0;
+   private boolean crossedBuffer;
+   private boolean unsure;
+
+   /**
+    * Sets the transactions that a waiting transaction waits for,
+    * and searches for a cycle if any of them is new.
+    * An empty list removes the transaction's edges.
+    * @param waiter the txnum of the waiting transaction
+    * @param possessors the txnums of the transactions it waits for
+    * @param cost the cost of aborting the waiting transaction
+    * @return the txnum of the transaction to abort, or -1 if there is no deadlock
+    */
+   int setWaitsFor(int waiter, List<Integer> possessors, int cost) {
+      Vertex v = vertices.get(waiter);
+      if (possessors.isEmpty()) {
+         if (v != null) {
+            v.numEdges = 0;
+            removeIfIdle(v);
+         }
+         return -1;
+      }
+      if (v == null) {
+         v = new Vertex(waiter);
+         vertices.put(v);
+      }
+      v.cost = cost;
+      boolean newEdge = v.setEdges(possessors);
+      return newEdge ? findVictim(v) : -1;
+   }
+
+   /**
+    * Removes a transaction's edges.
+    * @param waiter the txnum of the transaction that no longer waits
+    */
+   void clear(int waiter) {
+      Vertex v = vertices.get(waiter);
+      if (v != null) {
+         v.numEdges = 0;
+         removeIfIdle(v);
+      }
+   }
+
+   /**
+    * Records that a transaction is waiting for a buffer.
+    */
+   void putOnBufferWaitList(int txnum) {
+      Vertex v = vertices.get(txnum);
+      if (v == null) {
+         v = new Vertex(txnum);
+         vertices.put(v);
+      }
+      if (v.bufferWaiting)
+         return;
+      v.bufferWaiting = true;
+      if (numBufferWaiters == bufferWaiters.length)
+         bufferWaiters = Arrays.copyOf(bufferWaiters, 2 * numBufferWaiters);
+      bufferWaiters[numBufferWaiters++] = txnum;
+   }
+
+   /**
+    * Records that a transaction no longer waits for a buffer.
+    */
+   void takeOffBufferWaitList(int txnum) {
+      Vertex v = vertices.get(txnum);
+      if (v == null || !v.bufferWaiting)
+         return;
+      v.bufferWaiting = false;
+      for (int i = 0; i < numBufferWaiters; i++) {
+         if (bufferWaiters[i] == txnum) {
+            bufferWaiters[i] = bufferWaiters[--numBufferWaiters];
+            break;
+         }
+      }
+      removeIfIdle(v);
+   }
+
+   /**
+    * Returns true if having this transaction wait for a buffer
+    * will not cause deadlock, that is, if some other transaction
+    * waiting for a buffer does not itself wait for this one,
+    * and so will eventually release its buffers.
+    * Each vertex is searched at most once per call, however many
+    * transactions wait for a buffer.
+    */
+   boolean noBufferConflicts(int txnum) {
+      reachSearch++;
+      unsure = false;
+      for (int i = 0; i < numBufferWaiters; i++) {
+         int key = bufferWaiters[i];
+         if (key != txnum && !reaches(vertices.get(key), txnum))
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * Searches for a cycle through the specified waiting transaction again,
+    * once the victim of the previous cycle has been removed.
+    * @param waiter the txnum of the waiting transaction
+    * @return the txnum of the transaction to abort, or -1 if there is no deadlock
+    */
+   int findVictim(int waiter) {
+      Vertex v = vertices.get(waiter);
+      return (v == null) ? -1 : findVictim(v);
+   }
+
+   /**
+    * Searches for a cycle through the new edges of the specified vertex,
+    * and returns the victim if there is one.
+    */
+   private int findVictim(Vertex start) {
+      search++;
+      depth = 0;
+      crossedBuffer = false;
+      if (!findCycle(start, start.txnum))
+         return -1;
+      if (crossedBuffer)
+         return start.txnum;  // the buffer waits do not say which transactions are involved
+      Vertex victim = start;
+      for (int i = 1; i < depth; i++) {
+         if (path[i].cost < victim.cost)
+            victim = path[i];
+      }
+      return victim.txnum;
+   }
+
+   /**
+    * Searches depth first from the specified vertex for a path back to
+    * the target.  If one is found, the vertices on it are left in the path.
+    * The search keeps its own stack, the path and the index of
+    * the next edge of each vertex on it, rather than recursing.
+    */
+   private boolean findCycle(Vertex start, int target) {
+      start.mark = search;
+      path[0] = start;
+      nextEdge[0] = 0;
+      depth = 1;
+      while (depth > 0) {
+         Vertex v = path[depth-1];
+         if (nextEdge[depth-1] == v.numEdges) {
+            depth--;
+            continue;
+         }
+         int next = v.edges[nextEdge[depth-1]++];
+         if (next == target)
+            return true;
+         Vertex w = vertices.get(next);
+         if (w == null || w.mark == search)
+            continue;
+         w.mark = search;
+         if (w.numEdges == 0) {
+            // w waits for no lock; it is deadlocked if it waits for a buffer in vain.
+            if (w.bufferWaiting && !noBufferConflicts(w.txnum)) {
+               crossedBuffer = true;
+               return true;
+            }
+            continue;
+         }
+         if (depth == path.length) {
+            path = Arrays.copyOf(path, 2 * depth);
+            nextEdge = Arrays.copyOf(nextEdge, 2 * depth);
+         }
+         path[depth] = w;
+         nextEdge[depth] = 0;
+         depth++;
+      }
+      return false;
+   }
+
+   /**
+    * Returns true if the target can be reached from the specified vertex
+    * through lock waits.  The answer for each vertex is remembered for
+    * the rest of the search, unless it depended on a vertex whose
+    * answer was not yet known because the vertex was still being searched.
+    */
+   private boolean reaches(Vertex v, int target) {
+      if (v == null)
+         return false;
+      if (v.reachSearch == reachSearch) {
+         if (v.searching)
+            unsure = true;
+         return v.reaches;
+      }
+      v.reachSearch = reachSearch;
+      v.reaches = false;
+      v.searching = true;
+      boolean wasUnsure = unsure;
+      unsure = false;
+      for (int i = 0; i < v.numEdges; i++) {
+         if (v.edges[i] == target || reaches(vertices.get(v.edges[i]), target)) {
+            v.reaches = true;
+            break;
+         }
+      }
+      v.searching = false;
+      if (!v.reaches && unsure)
+         v.reachSearch = 0;  // search it again if it is reached another way
+      unsure = unsure || wasUnsure;
+      return v.reaches;
+   }
+
+   private void removeIfIdle(Vertex v) {
+      if (v.numEdges == 0 && !v.bufferWaiting)
+         vertices.remove(v.txnum);
+   }
+
+   /**
+    * A transaction in the graph, with the transactions it waits for.
+    */
+   private static class Vertex {
+      int txnum;
+      int[] edges = new int[2];
+      int numEdges = 0;
+      int cost = 0;
+      boolean bufferWaiting = false;
+      int mark = 0;          // the last search that visited the vertex
+      int reachSearch = 0;   // the last search that computed reaches
+      boolean reaches;
+      boolean searching = false;
+
+      Vertex(int txnum) {
+         this.txnum = txnum;
+      }
+
+      /**
+       * Replaces the edges, and returns true if one of them is new.
+       */
+      boolean setEdges(List<Integer> possessors) {
+         boolean newEdge = false;
+         int n = possessors.size();
+         if (n > edges.length)
+            edges = Arrays.copyOf(edges, Math.max(n, 2 * edges.length));
+         for (int i = 0; i < n && !newEdge; i++)
+            newEdge = !contains(possessors.get(i));
+         for (int i = 0; i < n; i++)
+            edges[i] = possessors.get(i);
+         numEdges = n;
+         return newEdge;
+      }
+
+      private boolean contains(int txnum) {
+         for (int i = 0; i < numEdges; i++) {
+            if (edges[i] == txnum)
+               return true;
+         }
+         return false;
+      }
+   }
+
+   /**
+    * A hash table of vertices keyed by txnum, with linear probing,
+    * which looks up a txnum without boxing it.
+    */
+   private static class VertexMap {
+      private int[] keys = new int[16];
+      private Vertex[] vals = new Vertex[16];
+      private int size = 0;
+
+      Vertex get(int txnum) {
+         int mask = keys.length - 1;
+         for (int i = hash(txnum) & mask; vals[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == txnum)
+               return vals[i];
+         }
+         return null;
+      }
+
+      void put(Vertex v) {
+         if (2 * (size + 1) > keys.length)
+            resize(2 * keys.length);
+         int mask = keys.length - 1;
+         int i = hash(v.txnum) & mask;
+         while (vals[i] != null && keys[i] != v.txnum)
+            i = (i + 1) & mask;
+         if (vals[i] == null)
+            size++;
+         keys[i] = v.txnum;
+         vals[i] = v;
+      }
+
+      void remove(int txnum) {
+         int mask = keys.length - 1;
+         int i = hash(txnum) & mask;
+         while (vals[i] != null && keys[i] != txnum)
+            i = (i + 1) & mask;
+         if (vals[i] == null)
+            return;
+         vals[i] = null;
+         size--;
+         // Move back the entries that probed past the removed one.
+         for (int j = (i + 1) & mask; vals[j] != null; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if ((j > i && (home <= i || home > j)) || (j < i && home <= i && home > j)) {
+               keys[i] = keys[j];
+               vals[i] = vals[j];
+               vals[j] = null;
+               i = j;
+            }
+         }
+      }
+
+      private void resize(int capacity) {
+         Vertex[] old = vals;
+         keys = new int[capacity];
+         vals = new Vertex[capacity];
+         size = 0;
+         for (Vertex v : old) {
+            if (v != null)
+               put(v);
+         }
+      }
+
+      private static int hash(int txnum) {
+         return txnum * 0x9E3779B9;
+      }
+   }
+}
@@ -6,38 +6,64 @@ import simpledb.server.SimpleDB;
 import java.util.*;
 
 /**
- * The lock table, which provides methods to lock and unlock blocks.
- * If a transaction requests a lock that causes a conflict with an
- * existing lock, then that transaction is placed on a wait list.
- * There is only one wait list for all blocks.
- * When the last lock on a block is unlocked, then all transactions
- * are removed from the wait list and rescheduled.
- * If one of those transactions discovers that the lock it is waiting for
- * is still locked, it will place itself back on the wait list.
+ * The lock table, which provides methods to lock and unlock
+ * records, blocks and whole files.
+ * Locks are multi-granularity: a file can be locked in one of the
+ * intention modes IS and IX, which announce S and X locks on its blocks,
+ * or in the modes S, SIX and X, which cover all of its blocks.
+ * A block can likewise be locked in an intention mode, which announces
+ * locks on its records, or in a mode that covers all of its records.
+ * A record is locked in mode S or X.
+ * <p>
+ * The table is split into shards by the hash of the record, block or file,
+ * each with its own lock, so that transactions locking different
+ * blocks seldom contend.
+ * Each lock has a FIFO queue of the requests waiting for it.
+ * If a transaction requests a lock that conflicts with an
+ * existing lock, or with a request that is already waiting,
+ * then the request joins the queue; a request to upgrade a
+ * lock that the transaction holds goes ahead of the others.
+ * When a lock is unlocked, the waiting requests that have become
+ * compatible with the locks and with the requests ahead of them
+ * are granted, and only their transactions are woken.
+ * <p>
+ * A waiting transaction appears in the waits-for graph of a
+ * {@link DeadlockDetector}, which is searched when the transaction
+ * starts waiting for another.  If a deadlock is found, the victim's
+ * request is cancelled and its transaction is woken to abort;
+ * the victim is the transaction in the cycle that holds the fewest locks.
+ * The graph has its own lock, the lock of the table itself,
+ * which is taken after the lock of a shard.
  * @author Edward Sciore
  */
 public class LockTable {
    private static final long MAX_TIME = 5000; // 10 seconds
 
-   // Key: block, Value: transactions #'s with xLocks on the Block
-   private Map<Block,Integer> xLocks = new HashMap<Block,Integer>();
-   // Key: block, Value: ArrayList of transactions #'s with sLocks on the block
-   private Map<Block, ArrayList<Integer>> sLocks = new HashMap<Block, ArrayList<Integer>>();
-   // Keeps track of transactions stalled waiting for a buffer; Key: transaction #, Value: true/false
-   private HashMap<Integer, Boolean> bufferWaitList = new HashMap<Integer, Boolean>();
-   // Graph that keeps track of transactions waiting for locks
-   private HashMap<Integer, ArrayList<Node>> waitsFor = new HashMap<Integer, ArrayList<Node>>();
+   /**
+    * The lock modes, from the weakest to the strongest.
+    */
+   static final String IS = "IS", IX = "IX", S = "S", SIX = "SIX", X = "X";
+
+   private Shard[] shards = new Shard[numShards()];
+   // Graph that keeps track of transactions waiting for locks or buffers
+   private DeadlockDetector detector = new DeadlockDetector();
+   // The request each waiting transaction waits on; Key: transaction #
+   private Map<Integer,Request> waiting = new HashMap<Integer,Request>();
 
-   public LockTable() {}
+   public LockTable() {
+      for (int i = 0; i < shards.length; i++) {
+         shards[i] = new Shard();
+      }
+   }
 
    // Keep track of the transactions waiting for a buffer.
-   public void putOnWaitList(int txnum) {
-      bufferWaitList.put(txnum, true);
+   public synchronized void putOnWaitList(int txnum) {
+      detector.putOnBufferWaitList(txnum);
    }
 
    // Keep track of the transactions waiting for a buffer.
-   public void takeOffWaitList(int txnum) {
-      bufferWaitList.put(txnum, false);
+   public synchronized void takeOffWaitList(int txnum) {
+      detector.takeOffBufferWaitList(txnum);
    }
 
    /**
@@ -45,90 +71,7 @@ public class LockTable {
     * wait for a buffer will not cause deadlock.
     */
    public synchronized boolean noBufferConflicts(int txnum) {
-      Set<Integer> set = bufferWaitList.keySet();
-      Iterator<Integer> keys = set.iterator();
-
-      // We must check to see if every transaction waiting for a buffer is also waiting for this transaction.
-      boolean allHaveConflicts = true;
-
-      // Loop through every transaction in the wait list.
-      while(keys.hasNext()) {
-         // Transaction # of the waiting transaction.
-         int key = keys.next();
-         // We don't need to look at the transaction waiting for the buffer.
-         if(key != txnum && bufferWaitList.get(key)) {
-            // Look for a cycle in the waitsFor graph.
-            HashMap<Integer, Boolean> visitList = new HashMap<Integer, Boolean>();
-            boolean cycleFound = depthFirstSearch(key, txnum, visitList, true);
-
-            // If a cycle was not found for a transaction, it will
-            // eventually release the buffer, so deadlock will not occur.
-            if(cycleFound == false) {
-               allHaveConflicts = false;
-               break;
-            }
-         }
-      }
-
-      return !allHaveConflicts;
-   }
-
-   /**
-    * Returns true if having this transaction
-    * wait for a lock will not cause deadlock.
-    */
-   public synchronized boolean noLockConflicts(int txnum) {
-      HashMap<Integer, Boolean> visitList = new HashMap<Integer, Boolean>();
-      boolean cycleFound = depthFirstSearch(txnum, txnum, visitList, false);
-
-      return !cycleFound;
-   }
-
-   /**
-    * Perform a DFS through the waitsFor graph, looking for a cycle.
-    * @param   current: The current txnum being investigated.
-    * @param   txnum: The txnum of the transaction that we wish to know whether it will cause deadlock.
-    * @param   visitList: A hashmap of nodes in the graph that the DFS has already visited.
-    * @param   calledForBuffer: True if this is being called from noBufferConflicts, false if from noLockConflicts
-    * @return  True if a cycle was found, false otherwise.
-    */
-   private boolean depthFirstSearch(int current, int txnum, HashMap<Integer, Boolean> visitList, boolean calledForBuffer) {
-      // Get the list of transactions current is waiting for.
-      ArrayList<Node> row = waitsFor.get(current);
-
-      // If current isn't waiting for any locks, we see if it's waiting for a buffer.
-      if(row == null) {
-         if(bufferWaitList.get(current) == null) {
-            return false;
-         }
-         if(calledForBuffer == true) {
-            return false;
-         }
-         if(!noBufferConflicts(current)) {
-            return true;
-         }
-         return false;
-      }
-
-      // Search "depth first" by calling this method recursively on each transaction current is waiting for.
-      for(int i = 0; i < row.size(); i++) {
-         if(row.get(i).txnum == txnum) {
-            return true;
-         }
-
-         // If we haven't visited the next node yet, visit it looking for a cycle.
-         boolean cycleFound = false;
-         if(visitList.get(row.get(i).txnum) == null) {
-            visitList.put(row.get(i).txnum, true);
-            cycleFound = depthFirstSearch(row.get(i).txnum, txnum, visitList, calledForBuffer);
-         }
-
-         if(cycleFound == true) {
-            return true;
-         }
-      }
-
-      return false;
+      return detector.noBufferConflicts(txnum);
    }
 
    /**
@@ -141,47 +84,20 @@ public class LockTable {
     * then an exception is thrown.
     * @param blk a reference to the disk block
     */
-   public synchronized void sLock(Block blk, int txnum) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         int possessor;
-
-         // Transaction txnum is waiting for transaction possessor.
-         if((possessor = hasXlock(blk)) != -1) {
-            ArrayList<Integer> possessors = new ArrayList<Integer>();
-            possessors.add(possessor);
-            addToGraph(txnum, possessors, blk);
-
-            // If a cycle exists in the waitsFor graph because of this transaction.
-            if(noLockConflicts(txnum) == false) {
-               throw new LockAbortException();
-            }
-         }
-
-         // Wait for the lock to become available.
-         while ((possessor != -1) && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            possessor = hasXlock(blk);
-         }
-         // Transaction is no longer waiting.
-         removeFromGraph(txnum);
-
-         if (hasXlock(blk) != -1) {
-            throw new LockAbortException();
-         }
-
-         if(sLocks.get(blk) == null) {
-            sLocks.put(blk, new ArrayList<Integer>());
-         }
-         // If another transaction is waiting for an xLock on this
-         // block, add this transaction to the ones it is waiting for.
-         addSLockToGraph(txnum, blk);
+   public void sLock(Block blk, int txnum) {
+      sLock(blk, txnum, 0);
+   }
 
-         sLocks.get(blk).add(txnum);
-      }
-      catch(InterruptedException e) {
-         throw new LockAbortException();
-      }
+   /**
+    * Grants an SLock on the specified block, for a transaction
+    * holding the specified number of locks.
+    * If the transaction has to wait and a deadlock results,
+    * the transaction in the cycle holding the fewest locks is aborted.
+    * @param blk a reference to the disk block
+    * @param cost the number of locks the transaction holds
+    */
+   void sLock(Block blk, int txnum, int cost) {
+      lock(blk, txnum, S, cost);
    }
 
    /**
@@ -193,165 +109,402 @@ public class LockTable {
     * amount of time (currently 10 seconds),
     * then an exception is thrown.
     * @param blk a reference to the disk block
+    * @param cost the number of locks the transaction holds
     */
-   synchronized void xLock(Block blk, int txnum) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         ArrayList<Integer> possessors;
+   void xLock(Block blk, int txnum, int cost) {
+      lock(blk, txnum, X, cost);
+   }
 
-         // Transaction txnum is waiting for transactions possessors.
-         if((possessors = hasOtherSLocks(blk)).size() > 1) {
-            addToGraph(txnum, possessors, blk);
+   /**
+    * Grants a lock of the specified mode on the specified block,
+    * which is how a block is locked in an intention mode.
+    * If the transaction already has a lock on the block,
+    * the lock is upgraded to a mode that covers both modes.
+    * @param blk a reference to the disk block
+    * @param mode the lock mode
+    * @param cost the number of locks the transaction holds
+    */
+   void lock(Block blk, int txnum, String mode, int cost) {
+      lock((Object) blk, txnum, mode, cost);
+   }
 
-            // If a cycle exists in the waitsFor graph because of this transaction.
-            if(noLockConflicts(txnum) == false) {
-               throw new LockAbortException();
-            }
-         }
+   /**
+    * Grants a lock of the specified mode on the specified record.
+    * As for blocks, the calling thread waits while the
+    * lock conflicts with the locks of other transactions.
+    * @param rec a reference to the record
+    * @param mode the lock mode, S or X
+    * @param cost the number of locks the transaction holds
+    */
+   void lock(RecordId rec, int txnum, String mode, int cost) {
+      lock((Object) rec, txnum, mode, cost);
+   }
 
-         // Wait for a lock to become available.
-         while ((possessors.size() > 1) && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            possessors = hasOtherSLocks(blk);
-         }
-         // Transaction is no longer waiting.
-         removeFromGraph(txnum);
+   /**
+    * Grants a lock of the specified mode on the specified file.
+    * If the transaction already has a lock on the file,
+    * the lock is upgraded to a mode that covers both modes.
+    * As for blocks, the calling thread waits while the
+    * lock conflicts with the locks of other transactions.
+    * @param filename the name of the file
+    * @param mode the lock mode
+    * @param cost the number of locks the transaction holds
+    */
+   void lock(String filename, int txnum, String mode, int cost) {
+      lock((Object) filename, txnum, mode, cost);
+   }
+
+   /**
+    * Releases a lock on the specified block.
+    * The waiting requests that can now be granted are granted.
+    * @param blk a reference to the disk block
+    */
+   void unlock(Block blk, int txnum) {
+      unlock((Object) blk, txnum);
+   }
+
+   /**
+    * Releases a lock on the specified record.
+    * The waiting requests that can now be granted are granted.
+    * @param rec a reference to the record
+    */
+   void unlock(RecordId rec, int txnum) {
+      unlock((Object) rec, txnum);
+   }
+
+   /**
+    * Releases a lock on the specified file.
+    * The waiting requests that can now be granted are granted.
+    * @param filename the name of the file
+    */
+   void unlock(String filename, int txnum) {
+      unlock((Object) filename, txnum);
+   }
 
-         if (hasOtherSLocks(blk).size() > 1) {
+   /**
+    * Returns true if a lock of the first mode held by one transaction
+    * allows another transaction a lock of the second mode.
+    */
+   static boolean compatible(String held, String mode) {
+      if (held.equals(X) || mode.equals(X))
+         return false;
+      if (held.equals(IS) || mode.equals(IS))
+         return true;
+      return held.equals(mode) && !held.equals(SIX);  // IX with IX, S with S
+   }
+
+   /**
+    * Returns true if a lock of the first mode grants everything
+    * that a lock of the second mode does.
+    * A null mode means no lock.
+    */
+   static boolean covers(String held, String mode) {
+      if (held == null)
+         return false;
+      if (held.equals(mode) || held.equals(X))
+         return true;
+      if (held.equals(SIX))
+         return !mode.equals(X);
+      return mode.equals(IS) && !held.equals(IS);
+   }
+
+   /**
+    * Returns the weakest mode that covers both modes.
+    * A null mode means no lock.
+    */
+   static String combine(String held, String mode) {
+      if (covers(held, mode))
+         return held;
+      if (held == null || covers(mode, held))
+         return mode;
+      return SIX;  // S with IX
+   }
+
+   /**
+    * Grants a lock on a record, a block or a file.
+    * The lock is granted at once if it is compatible with the locks
+    * of the other transactions and no request is waiting ahead of it;
+    * otherwise the request is queued, and the thread waits on the
+    * request until it is granted, or until it has waited too long.
+    */
+   private void lock(Object resource, int txnum, String mode, int cost) {
+      Shard shard = shardFor(resource);
+      Request req;
+      synchronized (shard) {
+         LockEntry entry = shard.entry(resource);
+         String held = entry.holders.get(txnum);
+         String wanted = combine(held, mode);
+         if (entry.grantable(txnum, wanted) && (held != null || entry.compatibleAhead(wanted, null))) {
+            entry.holders.put(txnum, wanted);
+            // A stronger lock may hold back more of the waiting requests.
+            if (held != null && !held.equals(wanted))
+               updateWaiting(entry);
+            return;
+         }
+         req = entry.enqueue(txnum, wanted, held != null, cost);
+         // Transaction txnum is waiting for the transactions ahead of it;
+         // an upgrade also holds back the requests it was placed ahead of.
+         if (req.upgrade)
+            updateWaiting(entry);
+         else
+            setWaitsFor(req, entry.blockers(req));
+
+         // If waiting closes a cycle in which this transaction is the victim.
+         if (req.aborted) {
+            cancel(shard, resource, entry, req);
             throw new LockAbortException();
          }
+      }
 
-         xLocks.put(blk, txnum);
+      try {
+         req.await(MAX_TIME);
       }
-      catch(InterruptedException e) {
-         throw new LockAbortException();
+      catch(InterruptedException e) {}
+
+      synchronized (shard) {
+         if (!req.granted) {
+            cancel(shard, resource, shard.entry(resource), req);
+            throw new LockAbortException();
+         }
+      }
+   }
+
+   private void unlock(Object resource, int txnum) {
+      Shard shard = shardFor(resource);
+      synchronized (shard) {
+         LockEntry entry = shard.entries.get(resource);
+         if (entry != null) {
+            entry.holders.remove(txnum);
+            grantWaiting(shard, resource, entry);
+         }
       }
    }
 
    /**
-    * Releases a lock on the specified block.
-    * If this lock is the last lock on that block,
-    * then the waiting transactions are notified.
-    * @param blk a reference to the disk block
+    * Removes a request that will not be granted from its queue,
+    * and grants the requests behind it that it was holding back.
+    * The caller must hold the shard's lock.
     */
-   synchronized void unlock(Block blk, int txnum) {
-      removeFromGraph(txnum, blk);
+   private void cancel(Shard shard, Object resource, LockEntry entry, Request req) {
+      entry.queue.remove(req);
+      stopWaiting(req);
+      grantWaiting(shard, resource, entry);
+   }
 
-      if(xLocks.get(blk) != null) {
-         xLocks.remove(blk);
+   /**
+    * Grants, in order, the requests of the queue that are compatible
+    * with the granted locks and with the requests still waiting
+    * ahead of them, and wakes the transactions of the granted requests.
+    * The remaining requests are placed in the waits-for graph again.
+    * An entry with no locks and no requests is removed.
+    * The caller must hold the shard's lock.
+    */
+   private void grantWaiting(Shard shard, Object resource, LockEntry entry) {
+      Iterator<Request> iter = entry.queue.iterator();
+      while (iter.hasNext()) {
+         Request req = iter.next();
+         if (entry.grantable(req.txnum, req.mode) && entry.compatibleAhead(req.mode, req)) {
+            iter.remove();
+            entry.holders.put(req.txnum, req.mode);
+            stopWaiting(req);
+            req.grant();
+         }
+      }
+      updateWaiting(entry);
+      if (entry.holders.isEmpty() && entry.queue.isEmpty()) {
+         shard.entries.remove(resource);
       }
+   }
 
-      if(sLocks.get(blk).size() > 0) {
-         sLocks.get(blk).remove(sLocks.get(blk).indexOf(txnum));
+   /**
+    * Places the requests waiting in the queue in the waits-for graph
+    * again, since the transactions they wait for may have changed.
+    */
+   private void updateWaiting(LockEntry entry) {
+      for (Request req : entry.queue) {
+         setWaitsFor(req, entry.blockers(req));
       }
-      notifyAll();
    }
 
    /**
-    * Adds to the waitsFor graph a transaction waiting for other transactions.
-    * @param  waiter: the txnum of the waiting transaction
+    * Sets the transactions that a waiting request waits for.
+    * If this closes cycles, the victim of each is aborted;
+    * the victim's thread then cancels its request.
+    * @param  req: the waiting request
     * @param  possessors: the txnums of the transactions it's waiting for
-    * @param  blk: the block in dispute
     */
-   private synchronized void addToGraph(int waiter, ArrayList<Integer> possessors, Block blk) {
-      ArrayList<Node> row = waitsFor.get(waiter);
-
-      if(row == null) {
-         row = new ArrayList<Node>();
+   private synchronized void setWaitsFor(Request req, List<Integer> possessors) {
+      waiting.put(req.txnum, req);
+      int victim = detector.setWaitsFor(req.txnum, possessors, req.cost);
+      while (victim >= 0) {
+         detector.clear(victim);
+         waiting.get(victim).abort();
+         // Other cycles may pass through the new edges but not the victim.
+         victim = (victim == req.txnum) ? -1 : detector.findVictim(req.txnum);
       }
+   }
 
-      for(int i = 0; i < possessors.size(); i++) {
-         if(possessors.get(i) != waiter) {
-            row.add(new Node(possessors.get(i), blk.number()));
-         }
+   /**
+    * Removes a request that no longer waits from the waits-for graph.
+    */
+   private synchronized void stopWaiting(Request req) {
+      if (waiting.get(req.txnum) == req) {
+         waiting.remove(req.txnum);
+         detector.clear(req.txnum);
       }
+   }
 
-      waitsFor.put(waiter, row);
+   private Shard shardFor(Object resource) {
+      return shards[(resource.hashCode() & Integer.MAX_VALUE) % shards.length];
    }
 
    /**
-    * If another transaction is waiting for an xLock on this
-    * block, add this transaction to the ones it is waiting for.
-    * @param  txnum: the transaction to be added
-    * @param  blk: the blk in dispute
+    * Determines how many shards the table is split into.
     */
-   private synchronized void addSLockToGraph(int txnum, Block blk) {
-      Set<Integer> set = waitsFor.keySet();
-      Iterator<Integer> keys = set.iterator();
-
-      // Loop through each of the waiting transactions.
-      while(keys.hasNext()) {
-         int key = keys.next();
-         ArrayList<Node> row = waitsFor.get(key);
-
-         // If it is waiting for another transaction.
-         if(row.size() > 0) {
-            // If it is waiting for a transaction with this block number.
-            if(row.get(0).blkNum == blk.number()) {
-               row.add(new Node(txnum, blk.number()));
-               waitsFor.put(key, row);
-            }
+   private static int numShards() {
+      return 4 * Runtime.getRuntime().availableProcessors();
+   }
+
+   /**
+    * A shard of the lock table, which holds the locks of the
+    * records, blocks and files whose hash falls in it.
+    * Its monitor protects those locks.
+    */
+   private static class Shard {
+      // Key: record, block or file name, Value: its locks and waiting requests
+      Map<Object,LockEntry> entries = new HashMap<Object,LockEntry>();
+
+      LockEntry entry(Object resource) {
+         LockEntry entry = entries.get(resource);
+         if (entry == null) {
+            entry = new LockEntry();
+            entries.put(resource, entry);
          }
+         return entry;
       }
    }
 
-   // Remove the entry in the waitsFor graph where this transaction is waiting on others.
-   private void removeFromGraph(int txnum) {
-      waitsFor.remove(txnum);
-   }
+   /**
+    * The locks on a block or file: the transactions holding them,
+    * with the mode of each lock, and the queue of waiting requests.
+    */
+   private static class LockEntry {
+      Map<Integer,String> holders = new HashMap<Integer,String>(2);  // most resources have a single holder
+      LinkedList<Request> queue = new LinkedList<Request>();
+
+      /**
+       * Returns true if a lock of the specified mode is compatible
+       * with the locks of the transactions other than txnum.
+       */
+      boolean grantable(int txnum, String mode) {
+         for (Map.Entry<Integer,String> e : holders.entrySet()) {
+            if (e.getKey() != txnum && !compatible(e.getValue(), mode)) {
+               return false;
+            }
+         }
+         return true;
+      }
 
-   // Remove all of the nodes in the waitsFor graph where this transaction possesses this block.
-   private void removeFromGraph(int txnum, Block blk) {
-      Set<Integer> set = waitsFor.keySet();
-      Iterator<Integer> keys = set.iterator();
+      /**
+       * Returns true if a lock of the specified mode is compatible with
+       * the requests waiting ahead of the specified request, or with all
+       * the waiting requests if it is null.
+       * A new request may thus pass waiting requests that it does not
+       * conflict with, but never one that it does.
+       */
+      boolean compatibleAhead(String mode, Request req) {
+         for (Request other : queue) {
+            if (other == req) {
+               return true;
+            }
+            if (!compatible(other.mode, mode)) {
+               return false;
+            }
+         }
+         return true;
+      }
 
-      while(keys.hasNext()) {
-         int key = keys.next();
-         ArrayList<Node> row = waitsFor.get(key);
+      /**
+       * Adds a request to the queue.  An upgrade goes ahead of
+       * the requests of transactions that hold no lock here.
+       */
+      Request enqueue(int txnum, String mode, boolean upgrade, int cost) {
+         Request req = new Request(txnum, mode, upgrade, cost);
+         int pos = queue.size();
+         if (upgrade) {
+            pos = 0;
+            while (pos < queue.size() && queue.get(pos).upgrade) {
+               pos++;
+            }
+         }
+         queue.add(pos, req);
+         return req;
+      }
 
-         for(int i = 0; i < row.size(); i++) {
-            Node node = row.get(i);
-            if(node.txnum == txnum && node.blkNum == blk.number()) {
-               row.remove(i);
-               waitsFor.put(key, row);
+      /**
+       * Returns the transactions that the request waits for:
+       * those holding conflicting locks, and those whose
+       * conflicting requests are ahead of it in the queue.
+       */
+      List<Integer> blockers(Request req) {
+         List<Integer> blockers = new ArrayList<Integer>();
+         for (Map.Entry<Integer,String> e : holders.entrySet()) {
+            if (e.getKey() != req.txnum && !compatible(e.getValue(), req.mode)) {
+               blockers.add(e.getKey());
+            }
+         }
+         for (Request other : queue) {
+            if (other == req) {
                break;
             }
+            if (other.txnum != req.txnum && !compatible(other.mode, req.mode) && !blockers.contains(other.txnum)) {
+               blockers.add(other.txnum);
+            }
          }
+         return blockers;
       }
    }
 
-   private int hasXlock(Block blk) {
-      if(xLocks.get(blk) == null) {
-         return -1;
+   /**
+    * A request waiting for a lock.
+    * The waiting thread waits on the request's own monitor,
+    * so that granting it wakes that thread alone.
+    */
+   private static class Request {
+      int txnum;
+      String mode;
+      boolean upgrade;
+      int cost;
+      boolean granted = false;
+      boolean aborted = false;
+
+      Request(int txnum, String mode, boolean upgrade, int cost) {
+         this.txnum = txnum;
+         this.mode = mode;
+         this.upgrade = upgrade;
+         this.cost = cost;
       }
-      return xLocks.get(blk);
-   }
 
-   private ArrayList<Integer> hasOtherSLocks(Block blk) {
-      return sLocks.get(blk);
-   }
-
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
-   }
-
-   private int indexOfTx(ArrayList<Node> row, int txnum) {
-      for(int i = 0; i < row.size(); i++) {
-         if(row.get(i).txnum == txnum) {
-            return i;
-         }
+      synchronized void grant() {
+         granted = true;
+         notify();
       }
 
-      return -1;
-   }
-
-   private class Node {
-      public int txnum;
-      public int blkNum;
+      synchronized void abort() {
+         aborted = true;
+         notify();
+      }
 
-      public Node(int txnum, int blkNum) {
-         this.txnum = txnum;
-         this.blkNum = blkNum;
+      /**
+       * Waits until the request is granted or aborted, or the time is up.
+       */
+      synchronized void await(long maxtime) throws InterruptedException {
+         long deadline = System.currentTimeMillis() + maxtime;
+         long remaining = maxtime;
+         while (!granted && !aborted && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+         }
       }
    }
 }
@@ -0,0 +1,48 @@
+package simpledb.tx.concurrency;
+
+import simpledb.file.Block;
+
+/**
+ * A reference to a record, by which the lock table locks it.
+ * A RecordId consists of the record's block and
+ * the slot of the record in that block.
+ * @author Edward Sciore
+ */
+class RecordId {
+   private Block blk;
+   private int slot;
+
+   /**
+    * Creates a reference to the record in the specified slot
+    * of the specified block.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    */
+   RecordId(Block blk, int slot) {
+      this.blk = blk;
+      this.slot = slot;
+   }
+
+   /**
+    * Returns the block where the record lives.
+    * @return a reference to the disk block
+    */
+   Block block() {
+      return blk;
+   }
+
+   public boolean equals(Object obj) {
+      if (!(obj instanceof RecordId))
+         return false;
+      RecordId r = (RecordId) obj;
+      return blk.equals(r.blk) && slot == r.slot;
+   }
+
+   public String toString() {
+      return "[" + blk + ", slot " + slot + "]";
+   }
+
+   public int hashCode() {
+      return 31 * blk.hashCode() + slot;
+   }
+}
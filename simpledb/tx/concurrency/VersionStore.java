@@ -0,0 +1,284 @@
+package simpledb.tx.concurrency;
+
+import simpledb.buffer.Buffer;
+import simpledb.file.Block;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The older versions of the values in the buffers,
+ * which let read-only transactions read a snapshot of the
+ * database without locking it.
+ * <p>
+ * Before a transaction changes a value, the old value is saved
+ * in the chain of versions of its block, in the order of the changes.
+ * When a transaction commits, it gets a commit timestamp from a
+ * counter that the commits increment.  A snapshot is the value of the
+ * counter when the snapshot began; it contains the changes of the
+ * transactions that committed by then, and no others.
+ * To read a value from a snapshot, a transaction reads the current
+ * value in the buffer and then undoes, newest first, the changes of
+ * the transactions that the snapshot does not contain.
+ * Since the changes to a value are ordered by the XLocks on its block
+ * or its record, those changes are newer than any change to the value
+ * that the snapshot contains.
+ * The changes of a transaction that rolls back are dropped
+ * once the transaction has undone them.
+ * <p>
+ * The versions of a committed transaction are discarded once every
+ * active snapshot contains it.  Temporary tables are read only by the
+ * transaction that writes them, so they have no versions.
+ * <p>
+ * A version is found by the offset of its value, and so a value must
+ * always be read with the type it was written with, as records are.
+ * @author Edward Sciore
+ */
+public class VersionStore {
+   private ConcurrentMap<Block,Chain> chains = new ConcurrentHashMap<Block,Chain>();
+   // The commit timestamps of the committed transactions that still have versions.
+   private Map<Integer,Long> commitTimes = new ConcurrentHashMap<Integer,Long>();
+   // The blocks changed by each transaction that still has versions.
+   private Map<Integer,Set<Block>> changed = new ConcurrentHashMap<Integer,Set<Block>>();
+   // The committed transactions that still have versions, in commit order.
+   private LinkedList<Integer> committed = new LinkedList<Integer>();
+   // The number of active transactions using each snapshot.
+   private TreeMap<Long,Integer> snapshots = new TreeMap<Long,Integer>();
+   private long clock = 0;
+
+   /**
+    * Begins a snapshot, which contains the transactions
+    * committed so far.  Its versions are kept until it ends.
+    * @return the snapshot
+    */
+   public synchronized long beginSnapshot() {
+      Integer count = snapshots.get(clock);
+      snapshots.put(clock, (count == null) ? 1 : count + 1);
+      return clock;
+   }
+
+   /**
+    * Ends a snapshot, and discards the versions that no active snapshot needs.
+    * @param snapshot the snapshot
+    */
+   public synchronized void endSnapshot(long snapshot) {
+      int count = snapshots.get(snapshot);
+      if (count == 1)
+         snapshots.remove(snapshot);
+      else
+         snapshots.put(snapshot, count - 1);
+      discardVersions();
+   }
+
+   /**
+    * Writes an integer to a buffer, after saving the old value
+    * as a version of the buffer's block.
+    * The caller must hold an XLock on the block.
+    * @param buff the buffer
+    * @param offset the byte offset within the page
+    * @param val the new value
+    * @param txnum the id of the transaction performing the modification
+    * @param lsn the LSN of the corresponding log record
+    */
+   public void setInt(Buffer buff, int offset, int val, int txnum, long lsn) {
+      if (isTemporary(buff.block())) {
+         buff.setInt(offset, val, txnum, lsn);
+         return;
+      }
+      while (true) {
+         Chain chain = chainFor(buff.block(), txnum);
+         synchronized (chain) {
+            if (!chain.discarded) {
+               chain.versions.add(new Version(txnum, offset, buff.getInt(offset)));
+               buff.setInt(offset, val, txnum, lsn);
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * Writes a string to a buffer, after saving the old value
+    * as a version of the buffer's block.
+    * The caller must hold an XLock on the block.
+    * @param buff the buffer
+    * @param offset the byte offset within the page
+    * @param val the new value
+    * @param txnum the id of the transaction performing the modification
+    * @param lsn the LSN of the corresponding log record
+    */
+   public void setString(Buffer buff, int offset, String val, int txnum, long lsn) {
+      if (isTemporary(buff.block())) {
+         buff.setString(offset, val, txnum, lsn);
+         return;
+      }
+      while (true) {
+         Chain chain = chainFor(buff.block(), txnum);
+         synchronized (chain) {
+            if (!chain.discarded) {
+               chain.versions.add(new Version(txnum, offset, buff.getString(offset)));
+               buff.setString(offset, val, txnum, lsn);
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns the integer at the specified offset of a buffer,
+    * as it is in the specified snapshot.
+    * The changes of the reading transaction itself are seen.
+    * @param buff the buffer
+    * @param offset the byte offset within the page
+    * @param txnum the id of the reading transaction
+    * @param snapshot the snapshot
+    * @return the integer in the snapshot
+    */
+   public int getInt(Buffer buff, int offset, int txnum, long snapshot) {
+      return (Integer) getValue(buff, offset, txnum, snapshot, true);
+   }
+
+   /**
+    * Returns the string at the specified offset of a buffer,
+    * as it is in the specified snapshot.
+    * The changes of the reading transaction itself are seen.
+    * @param buff the buffer
+    * @param offset the byte offset within the page
+    * @param txnum the id of the reading transaction
+    * @param snapshot the snapshot
+    * @return the string in the snapshot
+    */
+   public String getString(Buffer buff, int offset, int txnum, long snapshot) {
+      return (String) getValue(buff, offset, txnum, snapshot, false);
+   }
+
+   /**
+    * Records that a transaction has committed,
+    * and discards the versions that no active snapshot needs.
+    * @param txnum the id of the transaction
+    */
+   public synchronized void commit(int txnum) {
+      if (changed.containsKey(txnum)) {
+         clock++;
+         commitTimes.put(txnum, clock);
+         committed.add(txnum);
+         discardVersions();
+      }
+   }
+
+   /**
+    * Drops the versions of a transaction that has rolled back.
+    * The transaction must have undone its changes already.
+    * @param txnum the id of the transaction
+    */
+   public void rollback(int txnum) {
+      Set<Block> blocks = changed.remove(txnum);
+      if (blocks != null)
+         dropVersions(txnum, blocks);
+   }
+
+   private Object getValue(Buffer buff, int offset, int txnum, long snapshot, boolean isInt) {
+      Block blk = buff.block();
+      while (true) {
+         Object val = isInt ? (Object) buff.getInt(offset) : buff.getString(offset);
+         // A block without versions has no changes that a snapshot could miss.
+         Chain chain = chains.get(blk);
+         if (chain == null)
+            return val;
+         synchronized (chain) {
+            if (chain.discarded)
+               continue;
+            val = isInt ? (Object) buff.getInt(offset) : buff.getString(offset);
+            for (int i = chain.versions.size() - 1; i >= 0; i--) {
+               Version v = chain.versions.get(i);
+               if (v.offset == offset && !isVisible(v.txnum, txnum, snapshot))
+                  val = v.oldval;
+            }
+            return val;
+         }
+      }
+   }
+
+   private boolean isVisible(int writer, int reader, long snapshot) {
+      if (writer == reader)
+         return true;
+      Long committedAt = commitTimes.get(writer);
+      return committedAt != null && committedAt <= snapshot;
+   }
+
+   private Chain chainFor(Block blk, int txnum) {
+      Set<Block> blocks = changed.get(txnum);
+      if (blocks == null) {
+         blocks = new HashSet<Block>();
+         changed.put(txnum, blocks);
+      }
+      blocks.add(blk);
+      Chain chain = chains.get(blk);
+      if (chain == null) {
+         chain = new Chain();
+         Chain other = chains.putIfAbsent(blk, chain);
+         if (other != null)
+            chain = other;
+      }
+      return chain;
+   }
+
+   /**
+    * Discards the versions of the committed transactions
+    * that every active snapshot contains.
+    * The caller must hold the store's lock.
+    */
+   private void discardVersions() {
+      long oldest = snapshots.isEmpty() ? clock : snapshots.firstKey();
+      while (!committed.isEmpty() && commitTimes.get(committed.getFirst()) <= oldest) {
+         int txnum = committed.removeFirst();
+         dropVersions(txnum, changed.remove(txnum));
+         commitTimes.remove(txnum);
+      }
+   }
+
+   private void dropVersions(int txnum, Set<Block> blocks) {
+      for (Block blk : blocks) {
+         Chain chain = chains.get(blk);
+         synchronized (chain) {
+            Iterator<Version> iter = chain.versions.iterator();
+            while (iter.hasNext()) {
+               if (iter.next().txnum == txnum)
+                  iter.remove();
+            }
+            if (chain.versions.isEmpty()) {
+               chain.discarded = true;
+               chains.remove(blk);
+            }
+         }
+      }
+   }
+
+   private boolean isTemporary(Block blk) {
+      return blk.fileName().startsWith("temp");
+   }
+
+   /**
+    * The versions of a block, oldest first.
+    * A chain that has been discarded is no longer in the store,
+    * and a new chain must be used instead.
+    */
+   private static class Chain {
+      List<Version> versions = new ArrayList<Version>();
+      boolean discarded = false;
+   }
+
+   /**
+    * A value as it was before a transaction changed it.
+    */
+   private static class Version {
+      int txnum;
+      int offset;
+      Object oldval;
+
+      Version(int txnum, int offset, Object oldval) {
+         this.txnum = txnum;
+         this.offset = offset;
+         this.oldval = oldval;
+      }
+   }
+}
@@ -1,34 +1,53 @@
 package simpledb.tx.recovery;
 
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
 import simpledb.log.BasicLogRecord;
 
 /**
  * The CHECKPOINT log record.
+ * The record holds the LSN of the oldest log record that
+ * recovery may need: the oldest record of a transaction that
+ * was active, or of a modification that had not been written
+ * to disk, when the checkpoint was taken.
  * @author Edward Sciore
  */
 class CheckpointRecord implements LogRecord {
+   private long startLSN;
    
    /**
-    * Creates a quiescent checkpoint record.
+    * Creates a checkpoint record.
+    * @param startLSN the LSN of the oldest record that recovery needs
     */
-   public CheckpointRecord() {}
+   public CheckpointRecord(long startLSN) {
+      this.startLSN = startLSN;
+   }
    
    /**
-    * Creates a log record by reading no other values 
+    * Creates a log record by reading one other value 
     * from the basic log record.
     * @param rec the basic log record
     */
-   public CheckpointRecord(BasicLogRecord rec) {}
+   public CheckpointRecord(BasicLogRecord rec) {
+      startLSN = rec.nextLong();
+   }
    
    /** 
     * Writes a checkpoint record to the log.
     * This log record contains the CHECKPOINT operator,
-    * and nothing else.
+    * followed by the LSN where recovery starts.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {CHECKPOINT};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return SimpleDB.logMgr().append(CHECKPOINT, startLSN);
+   }
+   
+   /**
+    * Returns the LSN of the oldest log record that recovery needs.
+    * @return the LSN where recovery starts
+    */
+   public long startLSN() {
+      return startLSN;
    }
    
    public int op() {
@@ -43,6 +62,20 @@ class CheckpointRecord implements LogRecord {
       return -1; // dummy value
    }
    
+   public long prevLSN() {
+      return 0;
+   }
+   
+   public Block block() {
+      return null;
+   }
+   
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+   
    /**
     * Does nothing, because a checkpoint record
     * contains no undo information.
@@ -50,6 +83,6 @@ class CheckpointRecord implements LogRecord {
    public void undo(int txnum) {}
    
    public String toString() {
-      return "<CHECKPOINT>";
+      return "<CHECKPOINT " + startLSN + ">";
    }
 }
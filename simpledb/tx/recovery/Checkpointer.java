@@ -0,0 +1,42 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.log.LogMgr;
+
+/**
+ * A daemon thread that takes a fuzzy checkpoint every so often,
+ * so that restart reads a bounded amount of log and
+ * the old segments of the log can be removed.
+ * The thread belongs to the log manager that was running
+ * when it started, and stops once the system is restarted.
+ */
+class Checkpointer extends Thread {
+   private LogMgr logMgr = SimpleDB.logMgr();
+   private long interval;
+
+   /**
+    * Creates a checkpointer for the running system.
+    * @param interval the time between checkpoints, in milliseconds
+    */
+   Checkpointer(long interval) {
+      super("checkpointer");
+      this.interval = interval;
+      setDaemon(true);
+   }
+
+   /**
+    * Takes checkpoints until the thread is interrupted
+    * or the system is restarted.
+    */
+   public void run() {
+      try {
+         while (!isInterrupted()) {
+            sleep(interval);
+            if (SimpleDB.logMgr() != logMgr)
+               return;
+            RecoveryMgr.checkpoint();
+         }
+      }
+      catch(InterruptedException e) {}
+   }
+}
@@ -1,5 +1,7 @@
 package simpledb.tx.recovery;
 
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
 import simpledb.log.BasicLogRecord;
 
 /**
@@ -31,9 +33,8 @@ class CommitRecord implements LogRecord {
     * followed by the transaction id.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {COMMIT, txnum};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return SimpleDB.logMgr().append(COMMIT, txnum);
    }
    
    public int op() {
@@ -44,6 +45,20 @@ class CommitRecord implements LogRecord {
       return txnum;
    }
    
+   public long prevLSN() {
+      return 0;
+   }
+   
+   public Block block() {
+      return null;
+   }
+   
+   /**
+    * Does nothing, because a commit record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+   
    /**
     * Does nothing, because a commit record
     * contains no undo information.
@@ -1,7 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.log.LogMgr;
-import simpledb.server.SimpleDB;
+import simpledb.file.Block;
 
 /**
  * The interface implemented by each type of log record.
@@ -9,19 +8,20 @@ import simpledb.server.SimpleDB;
  */
 public interface LogRecord {
    /**
-    * The six different types of log record
+    * The eight different types of log record.
+    * SETINT_CLR and SETSTRING_CLR are compensation records,
+    * which are written when an update is undone.
     */
    static final int CHECKPOINT = 0, START = 1,
       COMMIT = 2, ROLLBACK  = 3,
-      SETINT = 4, SETSTRING = 5;
-   
-   static final LogMgr logMgr = SimpleDB.logMgr();
+      SETINT = 4, SETSTRING = 5,
+      SETINT_CLR = 6, SETSTRING_CLR = 7;
    
    /**
     * Writes the record to the log and returns its LSN.
     * @return the LSN of the record in the log
     */
-   int writeToLog();
+   long writeToLog();
    
    /**
     * Returns the log record's type. 
@@ -36,6 +36,32 @@ public interface LogRecord {
     */
    int txNumber();
    
+   /**
+    * Returns the LSN of the previous update record
+    * of the same transaction, or 0 if there is none.
+    * Only the SETINT and SETSTRING records have one;
+    * together they form a chain that rollback follows.
+    * @return the LSN of the transaction's previous update
+    */
+   long prevLSN();
+   
+   /**
+    * Returns the block modified by the log record, or null.
+    * Only the SETINT and SETSTRING records and their
+    * compensation records modify a block.
+    * @return the modified block, or null
+    */
+   Block block();
+   
+   /**
+    * Redoes the operation encoded by this log record.
+    * The only log record types for which this method
+    * does anything interesting are the SETINT and SETSTRING
+    * records and their compensation records.
+    * @param txnum the id of the transaction that is performing the redo.
+    */
+   void redo(int txnum);
+   
    /**
     * Undoes the operation encoded by this log record.
     * The only log record types for which this method
@@ -15,22 +15,44 @@ import simpledb.server.SimpleDB;
  */
 public class LogRecordIterator implements Iterator<LogRecord> {
    private Iterator<BasicLogRecord> iter = SimpleDB.logMgr().iterator();
+   private long lsn = -1;
 
    public boolean hasNext() {
       return iter.hasNext();
    }
 
+   /**
+    * Returns the LSN of the record most recently
+    * returned by {@link #next()}.
+    * @return the LSN of the current record
+    */
+   public long lsn() {
+      return lsn;
+   }
+
    /**
     * Constructs a log record from the values in the
     * current basic log record.
+    * @return the next log record, or null if no more records
+    * @see #createLogRecord(BasicLogRecord)
+    */
+   public LogRecord next() {
+      BasicLogRecord rec = iter.next();
+      lsn = rec.lsn();
+      return createLogRecord(rec);
+   }
+
+   /**
+    * Constructs a log record from the values in the
+    * specified basic log record.
     * The method first reads an integer, which denotes
     * the type of the log record.  Based on that type,
     * the method calls the appropriate LogRecord constructor
     * to read the remaining values.
-    * @return the next log record, or null if no more records
+    * @param rec the basic log record
+    * @return the log record, or null if its type is unknown
     */
-   public LogRecord next() {
-      BasicLogRecord rec = iter.next();
+   static LogRecord createLogRecord(BasicLogRecord rec) {
       int op = rec.nextInt();
       switch (op) {
          case CHECKPOINT:
@@ -42,9 +64,11 @@ public class LogRecordIterator implements Iterator<LogRecord> {
          case ROLLBACK:
             return new RollbackRecord(rec);
          case SETINT:
-            return new SetIntRecord(rec);
+         case SETINT_CLR:
+            return new SetIntRecord(op, rec);
          case SETSTRING:
-            return new SetStringRecord(rec);
+         case SETSTRING_CLR:
+            return new SetStringRecord(op, rec);
          default:
             return null;
       }
@@ -0,0 +1,134 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The redo and undo passes of recovery, applied on a pool of worker threads.
+ * The log records that modify a block are grouped together,
+ * and a single worker applies them: it redoes each of them
+ * in log order, and then undoes the records of the unfinished
+ * transactions in reverse order.  Since the final contents of a
+ * block depend only on its own records, different blocks are
+ * recovered in parallel, and their compensation records
+ * may be interleaved in the log.
+ * <p>
+ * The recovering thread prefetches the blocks for the workers:
+ * it pins them in file and block order, so that the reads
+ * are mostly sequential, and hands each pinned buffer to a worker.
+ * The number of blocks pinned ahead of the workers is bounded,
+ * so that the buffer pool is not exhausted.
+ */
+class ParallelRecovery {
+   private int txnum;
+   private Collection<Integer> finishedTxs;
+   private Map<Block,List<LogRecord>> partitions = new HashMap<Block,List<LogRecord>>();
+
+   /**
+    * Creates the redo and undo passes for the specified recovering transaction.
+    * @param txnum the ID of the transaction performing the recovery
+    * @param finishedTxs the transactions that committed or rolled back
+    */
+   ParallelRecovery(int txnum, Collection<Integer> finishedTxs) {
+      this.txnum = txnum;
+      this.finishedTxs = finishedTxs;
+   }
+
+   /**
+    * Adds a log record to the partition of the block it modifies.
+    * The records must be added in log order.
+    * Records that modify no block are ignored.
+    * @param rec the log record
+    */
+   void add(LogRecord rec) {
+      Block blk = rec.block();
+      if (blk == null)
+         return;
+      List<LogRecord> recs = partitions.get(blk);
+      if (recs == null) {
+         recs = new ArrayList<LogRecord>();
+         partitions.put(blk, recs);
+      }
+      recs.add(rec);
+   }
+
+   /**
+    * Recovers every block on the specified number of worker threads,
+    * and returns once all of them are done.
+    * An exception thrown by a worker is rethrown here.
+    * @param threads the number of worker threads
+    */
+   void run(int threads) {
+      final BufferMgr bufferMgr = SimpleDB.bufferMgr();
+      int depth = Math.max(1, Math.min(2 * threads, bufferMgr.available() / 2));
+      final Semaphore prefetched = new Semaphore(depth);
+      ExecutorService workers = Executors.newFixedThreadPool(threads);
+      List<Future<?>> results = new ArrayList<Future<?>>();
+      try {
+         for (Block blk : sortedBlocks()) {
+            prefetched.acquireUninterruptibly();
+            final Buffer buff = bufferMgr.pin(blk, txnum);
+            final List<LogRecord> recs = partitions.get(blk);
+            results.add(workers.submit(new Runnable() {
+               public void run() {
+                  try {
+                     recover(recs);
+                  }
+                  finally {
+                     bufferMgr.unpin(buff, txnum);
+                     prefetched.release();
+                  }
+               }
+            }));
+         }
+      }
+      finally {
+         workers.shutdown();
+      }
+      for (Future<?> result : results) {
+         try {
+            result.get();
+         }
+         catch(ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+               throw (RuntimeException) e.getCause();
+            throw new RuntimeException("recovery failed", e.getCause());
+         }
+         catch(InterruptedException e) {
+            throw new RuntimeException("interrupted during recovery");
+         }
+      }
+   }
+
+   /**
+    * Redoes the specified records of a block in log order,
+    * and then undoes those of unfinished transactions in reverse order.
+    */
+   private void recover(List<LogRecord> recs) {
+      for (LogRecord rec : recs)
+         rec.redo(txnum);
+      for (int i=recs.size()-1; i>=0; i--) {
+         LogRecord rec = recs.get(i);
+         int tx = rec.txNumber();
+         if (tx != txnum && !finishedTxs.contains(tx))
+            rec.undo(txnum);
+      }
+   }
+
+   /**
+    * Returns the modified blocks, ordered by file and block number.
+    */
+   private List<Block> sortedBlocks() {
+      List<Block> blocks = new ArrayList<Block>(partitions.keySet());
+      Collections.sort(blocks, new Comparator<Block>() {
+         public int compare(Block b1, Block b2) {
+            int cmp = b1.fileName().compareTo(b2.fileName());
+            return (cmp != 0) ? cmp : b1.number() - b2.number();
+         }
+      });
+      return blocks;
+   }
+}
@@ -3,129 +3,271 @@ package simpledb.tx.recovery;
 import static simpledb.tx.recovery.LogRecord.*;
 import simpledb.file.Block;
 import simpledb.buffer.Buffer;
+import simpledb.log.LogMgr;
 import simpledb.server.SimpleDB;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * <p>
+ * The recovery manager logs both the old and the new value of
+ * every update, so that recovery can redo committed transactions
+ * as well as undo unfinished ones.  Thus a transaction's modified
+ * pages need not be written when it commits (no force), and
+ * may be written before it commits (steal), as long as the log
+ * records describing them are written first.
+ * Undoing an update writes a compensation record, so that
+ * recovery repeats a rollback along with the rest of the history.
+ * <p>
+ * Checkpoints are fuzzy: they do not wait for transactions to finish
+ * or for the buffer pool to be written.  Instead, the class keeps a
+ * table of the active transactions and the end of the log when each began,
+ * and a checkpoint record holds the LSN of the oldest record that
+ * recovery may need.  Recovery starts there, and the log segments
+ * before it are removed.
+ * <p>
+ * A read-only transaction changes nothing that recovery must restore,
+ * so its recovery manager writes no log records at all:
+ * neither START nor COMMIT or ROLLBACK records, and the log is
+ * not flushed when it commits.  It is not an active transaction
+ * for checkpoints either.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
+   private static Map<Integer,Long> activeTxs = new ConcurrentHashMap<Integer,Long>();
+   private static long lastCheckpoint = 0;  // the LSN of the previous checkpoint record
    private int txnum;
+   private boolean readOnly;
+   private long lastLSN = 0;  // the LSN of the transaction's last update record
 
    /**
     * Creates a recovery manager for the specified transaction.
+    * The transaction enters the active transaction table
+    * before its START record is written, with the current end
+    * of the log, so that a concurrent checkpoint either sees it
+    * or reads an end of the log that precedes all its records.
     * @param txnum the ID of the specified transaction
     */
    public RecoveryMgr(int txnum) {
+      this(txnum, false);
+   }
+
+   /**
+    * Creates a recovery manager for the specified transaction,
+    * which writes nothing to the log if the transaction is read-only.
+    * @param txnum the ID of the specified transaction
+    * @param readOnly true if the transaction is read-only
+    */
+   public RecoveryMgr(int txnum, boolean readOnly) {
       this.txnum = txnum;
-      new StartRecord(txnum).writeToLog();
+      this.readOnly = readOnly;
+      if (!readOnly) {
+         activeTxs.put(txnum, SimpleDB.logMgr().currentLSN());
+         new StartRecord(txnum).writeToLog();
+      }
+   }
+
+   /**
+    * Starts a daemon thread that takes a checkpoint
+    * at the specified interval.
+    * The thread stops when the system is restarted.
+    * @param interval the time between checkpoints, in milliseconds
+    */
+   public static void startCheckpointer(long interval) {
+      new Checkpointer(interval).start();
+   }
+
+   /**
+    * Takes a fuzzy checkpoint, while other transactions keep running.
+    * The method first writes the buffers whose modifications began
+    * before the previous checkpoint, so that a page that is never
+    * replaced does not hold recovery back.
+    * It then finds the oldest log record that recovery may need:
+    * the START record of an active transaction, the first record of
+    * a modification still in the buffer pool, or else the end of the log.
+    * The active transactions are read before the buffer pool, since a
+    * transaction modifies its buffers before it finishes.
+    * Once the data files are forced, the checkpoint record is
+    * written and flushed, and the log segments before
+    * that oldest record are removed.
+    */
+   public static synchronized void checkpoint() {
+      SimpleDB.bufferMgr().flushOlderThan(lastCheckpoint);
+      long startLSN = SimpleDB.logMgr().currentLSN();
+      for (long lsn : activeTxs.values())
+         startLSN = Math.min(startLSN, lsn);
+      long oldest = SimpleDB.bufferMgr().oldestLSN();
+      if (oldest >= 0)
+         startLSN = Math.min(startLSN, oldest);
+      SimpleDB.fileMgr().force();
+      long lsn = new CheckpointRecord(startLSN).writeToLog();
+      SimpleDB.logMgr().flush(lsn);
+      SimpleDB.logMgr().truncate(startLSN);
+      lastCheckpoint = lsn;
    }
 
    /**
     * Writes a commit record to the log, and flushes it to disk.
+    * The transaction's modified pages are left in the buffer pool,
+    * since recovery can redo them from the log.
+    * A read-only transaction writes no record.
     */
    public void commit() {
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CommitRecord(txnum).writeToLog();
-      SimpleDB.logMgr().flush(lsn);
+      if (readOnly) {
+         SimpleDB.bufferMgr().forget(txnum);
+         return;
+      }
+      long lsn = new CommitRecord(txnum).writeToLog();
+      SimpleDB.logMgr().flushForCommit(lsn);
+      SimpleDB.bufferMgr().forget(txnum);
+      finished();
    }
 
    /**
-    * Writes a rollback record to the log, and flushes it to disk.
+    * Rolls back the transaction, and writes a rollback record to the log.
+    * The log is not flushed: if the record is lost in a crash,
+    * recovery rolls the transaction back again.
+    * A read-only transaction has nothing to undo, and writes no record.
     */
    public void rollback() {
+      if (readOnly) {
+         SimpleDB.bufferMgr().forget(txnum);
+         return;
+      }
       doRollback();
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new RollbackRecord(txnum).writeToLog();
-      SimpleDB.logMgr().flush(lsn);
+      new RollbackRecord(txnum).writeToLog();
+      SimpleDB.bufferMgr().forget(txnum);
+      finished();
    }
 
    /**
-    * Recovers uncompleted transactions from the log,
-    * then writes a quiescent checkpoint record to the log and flushes it.
+    * Recovers the database from the log,
+    * writes every page that recovery modified to disk,
+    * and then takes a checkpoint.
+    * Since the other transactions in the active transaction table
+    * belong to the crashed system, they are removed from it first.
     */
    public void recover() {
+      activeTxs.keySet().retainAll(Collections.singleton(txnum));
+      synchronized (RecoveryMgr.class) {
+         lastCheckpoint = 0;
+      }
       doRecover();
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CheckpointRecord().writeToLog();
-      SimpleDB.logMgr().flush(lsn);
-
+      checkpoint();
    }
 
    /**
     * Writes a setint record to the log, and returns its lsn.
+    * The record points to the transaction's previous update record,
+    * and becomes its last one.
     * Updates to temporary files are not logged; instead, a
     * "dummy" negative lsn is returned.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.getInt(offset);
       Block blk = buff.block();
       if (isTempBlock(blk))
          return -1;
-      else
-         return new SetIntRecord(txnum, blk, offset, oldval).writeToLog();
+      lastLSN = new SetIntRecord(txnum, lastLSN, blk, offset, oldval, newval).writeToLog();
+      return lastLSN;
    }
 
    /**
     * Writes a setstring record to the log, and returns its lsn.
+    * The record points to the transaction's previous update record,
+    * and becomes its last one.
     * Updates to temporary files are not logged; instead, a
     * "dummy" negative lsn is returned.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
+   public long setString(Buffer buff, int offset, String newval) {
       String oldval = buff.getString(offset);
       Block blk = buff.block();
       if (isTempBlock(blk))
          return -1;
-      else
-         return new SetStringRecord(txnum, blk, offset, oldval).writeToLog();
+      lastLSN = new SetStringRecord(txnum, lastLSN, blk, offset, oldval, newval).writeToLog();
+      return lastLSN;
    }
 
    /**
     * Rolls back the transaction.
-    * The method iterates through the log records,
-    * calling undo() for each log record it finds
-    * for the transaction,
-    * until it finds the transaction's START record.
+    * The method follows the chain of the transaction's
+    * update records, from its last update back to its first,
+    * and calls undo() for each of them; the records of other
+    * transactions are not read.  Recent records are read
+    * from the log manager's pages, and the log is not flushed.
+    * Each undo writes a compensation record to the log.
     */
    private void doRollback() {
-      Iterator<LogRecord> iter = new LogRecordIterator();
-      while (iter.hasNext()) {
-         LogRecord rec = iter.next();
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(txnum);
-         }
+      LogMgr logMgr = SimpleDB.logMgr();
+      for (long lsn = lastLSN; lsn > 0; ) {
+         LogRecord rec = LogRecordIterator.createLogRecord(logMgr.record(lsn));
+         rec.undo(txnum);
+         lsn = rec.prevLSN();
       }
+      lastLSN = 0;
    }
 
    /**
     * Does a complete database recovery.
-    * The method iterates through the log records.
-    * Whenever it finds a log record for an unfinished
-    * transaction, it calls undo() on that record.
-    * The method stops when it encounters a CHECKPOINT record
-    * or the end of the log.
+    * The analysis pass iterates backwards through the log records,
+    * which is the only time the log is read.
+    * When it encounters the most recent CHECKPOINT record, it learns
+    * the LSN where recovery starts, and it stops at the first record
+    * before that LSN, or at the start of the log.
+    * It notes which transactions have finished.
+    * The redo pass then repeats history, since the pages of committed
+    * and rolled back transactions may not have been written,
+    * and the undo pass rolls back the unfinished transactions.
+    * Both passes are applied block by block on
+    * {@link SimpleDB#RECOVERY_THREADS} worker threads;
+    * see {@link ParallelRecovery}.
+    * Finally, a rollback record is written for each unfinished transaction.
     */
    private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<Integer>();
-      Iterator<LogRecord> iter = new LogRecordIterator();
+      Collection<Integer> finishedTxs = new HashSet<Integer>();
+      List<LogRecord> recs = new ArrayList<LogRecord>();
+      LogRecordIterator iter = new LogRecordIterator();
+      long startLSN = -1;
       while (iter.hasNext()) {
          LogRecord rec = iter.next();
-         if (rec.op() == CHECKPOINT)
-            return;
+         if (iter.lsn() < startLSN)
+            break;
+         if (rec.op() == CHECKPOINT) {
+            if (startLSN < 0)
+               startLSN = ((CheckpointRecord) rec).startLSN();
+            continue;
+         }
          if (rec.op() == COMMIT || rec.op() == ROLLBACK)
             finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
-            rec.undo(txnum);
+         recs.add(rec);
+      }
+      ParallelRecovery passes = new ParallelRecovery(txnum, finishedTxs);
+      Collection<Integer> undoneTxs = new LinkedHashSet<Integer>();
+      for (int i=recs.size()-1; i>=0; i--) {
+         LogRecord rec = recs.get(i);
+         passes.add(rec);
+         int tx = rec.txNumber();
+         if (tx != txnum && !finishedTxs.contains(tx))
+            undoneTxs.add(tx);
       }
+      passes.run(SimpleDB.RECOVERY_THREADS);
+      for (int tx : undoneTxs)
+         new RollbackRecord(tx).writeToLog();
+   }
+
+   /**
+    * Removes the transaction from the active transaction table.
+    */
+   private void finished() {
+      activeTxs.remove(txnum);
    }
 
    /**
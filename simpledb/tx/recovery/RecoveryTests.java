@@ -0,0 +1,280 @@
+package simpledb.tx.recovery;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import java.io.File;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.record.*;
+import simpledb.tx.Transaction;
+
+// These tests simulate a crash by throwing away the file, log and
+// buffer managers and starting new ones on the same database,
+// as a restarted server would.  Whatever was only in the old buffer
+// pool is lost; whatever was written to the files survives.
+// The tests use their own database, and leave the system running
+// on it, so they should run after tests that need the server's database.
+public class RecoveryTests {
+   private static final String DBNAME = "recoverytests";
+   private long writerInterval;
+
+   // Start every test with an empty database, and without the background
+   // writer, which would keep flushing the crashed buffer pool.
+   // The database is recovered, as at server startup, so that transactions
+   // left unfinished by earlier tests no longer count as active.
+   @Before
+   public void createDatabase() {
+      writerInterval = SimpleDB.BUFFER_WRITER_INTERVAL;
+      SimpleDB.BUFFER_WRITER_INTERVAL = 0;
+      File dir = new File(System.getProperty("user.home"), DBNAME);
+      if (dir.exists()) {
+         for (File f : dir.listFiles())
+            f.delete();
+         dir.delete();
+      }
+      SimpleDB.initFileLogAndBufferMgr(DBNAME);
+      Transaction transaction = new Transaction();
+      transaction.recover();
+      transaction.commit();
+   }
+
+   @After
+   public void restoreWriter() {
+      SimpleDB.BUFFER_WRITER_INTERVAL = writerInterval;
+   }
+
+   // Test that a committed transaction survives a crash, and that
+   // the changes of an unfinished transaction are undone, both those
+   // that had been written to disk and those that had not.
+   @Test
+   public void committedSurviveCrash() {
+      System.out.println("\nRecovery Test 1");
+
+      Transaction transaction1 = new Transaction();
+      Block block1 = transaction1.append("recovery1.tbl", formatter());
+      Block block2 = transaction1.append("recovery1.tbl", formatter());
+      transaction1.pin(block1);
+      transaction1.pin(block2);
+      transaction1.setInt(block1, 0, 11);
+      transaction1.setString(block1, 4, "committed");
+      transaction1.setInt(block2, 0, 12);
+      transaction1.commit();
+
+      // Transaction 2 never finishes.  Its change to block 1 is
+      // written to disk before the crash; its change to block 2 is not.
+      Transaction transaction2 = new Transaction();
+      transaction2.pin(block1);
+      transaction2.pin(block2);
+      transaction2.setInt(block1, 0, 21);
+      SimpleDB.bufferMgr().flushAll(transaction2.getTxNum());
+      transaction2.setInt(block2, 0, 22);
+
+      crashAndRecover();
+
+      assertEquals("Block 1 should have the committed value 11", readInt(block1, 0), 11);
+      assertEquals("Block 1 should have the committed string", readString(block1, 4), "committed");
+      assertEquals("Block 2 should have the committed value 12", readInt(block2, 0), 12);
+   }
+
+   // Test that rolled back transactions stay rolled back, and that
+   // the database can crash and recover more than once.
+   @Test
+   public void repeatedCrashes() {
+      System.out.println("\nRecovery Test 2");
+
+      Transaction transaction1 = new Transaction();
+      Block block = transaction1.append("recovery2.tbl", formatter());
+      transaction1.pin(block);
+      transaction1.setInt(block, 0, 5);
+      transaction1.commit();
+
+      Transaction transaction2 = new Transaction();
+      transaction2.pin(block);
+      transaction2.setInt(block, 0, 6);
+      SimpleDB.bufferMgr().flushAll(transaction2.getTxNum());
+      transaction2.rollback();
+
+      crashAndRecover();
+      assertEquals("Block should have the value 5 after the first crash", readInt(block, 0), 5);
+
+      // Each committed transaction increments the value.
+      for (int i = 0; i < 20; i++) {
+         Transaction transaction = new Transaction();
+         transaction.pin(block);
+         transaction.setInt(block, 0, transaction.getInt(block, 0) + 1);
+         transaction.commit();
+      }
+
+      crashAndRecover();
+      assertEquals("Block should have the value 25 after the second crash", readInt(block, 0), 25);
+   }
+
+   // Test that a rollback is repeated by recovery even when a later
+   // transaction has committed a change to the same value, and that
+   // nothing needs to be written to the data files for either.
+   @Test
+   public void rollbackThenCommit() {
+      System.out.println("\nRecovery Test 3");
+
+      Transaction transaction1 = new Transaction();
+      Block block = transaction1.append("recovery3.tbl", formatter());
+      transaction1.pin(block);
+      transaction1.setInt(block, 0, 1);
+      transaction1.setString(block, 4, "first");
+      transaction1.commit();
+      SimpleDB.bufferMgr().flushAll(transaction1.getTxNum());
+
+      Transaction transaction2 = new Transaction();
+      transaction2.pin(block);
+      transaction2.setInt(block, 0, 2);
+      transaction2.setString(block, 4, "second");
+      transaction2.rollback();
+
+      Transaction transaction3 = new Transaction();
+      transaction3.pin(block);
+      transaction3.setInt(block, 0, transaction3.getInt(block, 0) + 10);
+      transaction3.commit();
+
+      crashAndRecover();
+      assertEquals("Block should have the value 11", readInt(block, 0), 11);
+      assertEquals("Block should have the first string", readString(block, 4), "first");
+   }
+
+   // Test that checkpoints remove the old segments of the log,
+   // and that recovery starts from the last checkpoint, undoing
+   // a transaction that was active when the checkpoint was taken.
+   @Test
+   public void checkpointTruncatesLog() {
+      System.out.println("\nRecovery Test 4");
+
+      Transaction transaction1 = new Transaction();
+      Block block = transaction1.append("recovery4.tbl", formatter());
+      Block block2 = transaction1.append("recovery4.tbl", formatter());
+      transaction1.commit();
+
+      // Fill more than two segments of the log.
+      String longString = new String(new char[100]).replace('\0', 'x');
+      for (int i = 0; i < 1200; i++) {
+         Transaction transaction = new Transaction();
+         transaction.pin(block);
+         transaction.setInt(block, 0, i);
+         transaction.setString(block, 4, (i % 2 == 0) ? longString : "short");
+         transaction.commit();
+      }
+      String firstSegment = SimpleDB.LOG_FILE + ".0";
+      assertTrue("The log should have its first segment", SimpleDB.fileMgr().fileNames(SimpleDB.LOG_FILE + ".").contains(firstSegment));
+
+      // Transaction 2 is active during the checkpoints, and never finishes.
+      Transaction transaction2 = new Transaction();
+      transaction2.pin(block2);
+      transaction2.setInt(block2, 0, 7);
+      RecoveryMgr.checkpoint();
+      RecoveryMgr.checkpoint();
+      assertFalse("The first segment should be removed", SimpleDB.fileMgr().fileNames(SimpleDB.LOG_FILE + ".").contains(firstSegment));
+      transaction2.setInt(block2, 4, 8);
+
+      crashAndRecover();
+      assertEquals("Block should have the last committed value", readInt(block, 0), 1199);
+      assertEquals("Block should have the last committed string", readString(block, 4), "short");
+      assertEquals("The first change of transaction 2 should be undone", readInt(block2, 0), 0);
+      assertEquals("The second change of transaction 2 should be undone", readInt(block2, 4), 0);
+   }
+
+   // Test that a rollback undoes only its own changes, both those whose
+   // log records are still in the log manager's pages and those whose
+   // records have been written out by the updates of another transaction.
+   @Test
+   public void rollbackFollowsOwnRecords() {
+      System.out.println("\nRecovery Test 5");
+
+      Transaction transaction1 = new Transaction();
+      Block block1 = transaction1.append("recovery5.tbl", formatter());
+      Block block2 = transaction1.append("recovery5.tbl", formatter());
+      transaction1.commit();
+
+      Transaction transaction2 = new Transaction();
+      transaction2.pin(block1);
+      transaction2.setInt(block1, 0, 21);
+      transaction2.setString(block1, 4, "rolled back");
+
+      // Write many more log pages than the log manager keeps.
+      Transaction transaction3 = new Transaction();
+      transaction3.pin(block2);
+      for (int i = 0; i < 1000; i++)
+         transaction3.setInt(block2, 0, i);
+      transaction3.commit();
+
+      transaction2.setInt(block1, 100, 22);
+      transaction2.rollback();
+
+      Transaction transaction4 = new Transaction();
+      transaction4.pin(block1);
+      transaction4.pin(block2);
+      assertEquals("The first change of transaction 2 should be undone", transaction4.getInt(block1, 0), 0);
+      assertEquals("The string of transaction 2 should be undone", transaction4.getString(block1, 4), "");
+      assertEquals("The last change of transaction 2 should be undone", transaction4.getInt(block1, 100), 0);
+      assertEquals("The changes of transaction 3 should remain", transaction4.getInt(block2, 0), 999);
+      transaction4.commit();
+   }
+
+   // Test that a read-only transaction writes nothing to the log, neither
+   // when it begins and reads nor when it commits or rolls back, and that
+   // it cannot change a table.
+   @Test
+   public void readOnlyWritesNoLog() {
+      System.out.println("\nRecovery Test 6");
+
+      Transaction transaction1 = new Transaction();
+      Block block = transaction1.append("recovery6.tbl", formatter());
+      transaction1.pin(block);
+      transaction1.setInt(block, 0, 61);
+      transaction1.commit();
+
+      long lsn = SimpleDB.logMgr().currentLSN();
+      Transaction transaction2 = new Transaction(true);
+      transaction2.pin(block);
+      assertEquals("The reader should see the committed value", transaction2.getInt(block, 0), 61);
+      transaction2.commit();
+      Transaction transaction3 = new Transaction(true);
+      transaction3.pin(block);
+      try {
+         transaction3.setInt(block, 0, 62);
+         fail("A read-only transaction should not change a table");
+      }
+      catch(RuntimeException e) {}
+      transaction3.rollback();
+      assertEquals("Read-only transactions should write no log records", SimpleDB.logMgr().currentLSN(), lsn);
+   }
+
+   private RecordFormatter formatter() {
+      Schema schema = new Schema();
+      schema.addIntField("id");
+      return new RecordFormatter(new TableInfo("recovery", schema));
+   }
+
+   // Discard the running system without flushing anything,
+   // then restart it and recover the database.
+   private void crashAndRecover() {
+      SimpleDB.initFileLogAndBufferMgr(DBNAME);
+      Transaction transaction = new Transaction();
+      transaction.recover();
+      transaction.commit();
+   }
+
+   // Read values straight from disk, bypassing the buffer pool and the
+   // lock table, which still holds the locks of the crashed transactions.
+   private int readInt(Block block, int offset) {
+      Page page = new Page();
+      page.read(block);
+      return page.getInt(offset);
+   }
+
+   private String readString(Block block, int offset) {
+      Page page = new Page();
+      page.read(block);
+      return page.getString(offset);
+   }
+}
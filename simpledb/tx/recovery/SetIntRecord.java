@@ -5,74 +5,149 @@ import simpledb.buffer.*;
 import simpledb.file.Block;
 import simpledb.log.BasicLogRecord;
 
+/**
+ * The SETINT log record, and its compensation record SETINT_CLR.
+ * A SETINT record holds the value at an offset of a block
+ * before and after an update, so that the update can be
+ * both redone and undone, and the LSN of the transaction's
+ * previous SETINT or SETSTRING record, so that a rollback
+ * can find the transaction's updates without reading the rest of the log.
+ * A SETINT_CLR record is written when an update is undone,
+ * and holds only the restored value; it is redone like an update,
+ * but is never undone.
+ */
 class SetIntRecord implements LogRecord {
-   private int txnum, offset, val;
+   private int op, txnum, offset, oldval, newval;
+   private long prevLSN;
    private Block blk;
 
    /**
     * Creates a new setint log record.
     * @param txnum the ID of the specified transaction
+    * @param prevLSN the LSN of the transaction's previous update, or 0
     * @param blk the block containing the value
     * @param offset the offset of the value in the block
-    * @param val the new value
+    * @param oldval the value before the update
+    * @param newval the value after the update
+    */
+   public SetIntRecord(int txnum, long prevLSN, Block blk, int offset, int oldval, int newval) {
+      this.op = SETINT;
+      this.txnum = txnum;
+      this.prevLSN = prevLSN;
+      this.blk = blk;
+      this.offset = offset;
+      this.oldval = oldval;
+      this.newval = newval;
+   }
+
+   /**
+    * Creates a new compensation record, which records
+    * that an update of the specified transaction was undone.
+    * @param txnum the ID of the specified transaction
+    * @param blk the block containing the value
+    * @param offset the offset of the value in the block
+    * @param val the restored value
     */
    public SetIntRecord(int txnum, Block blk, int offset, int val) {
+      this.op = SETINT_CLR;
       this.txnum = txnum;
       this.blk = blk;
       this.offset = offset;
-      this.val = val;
+      this.newval = val;
    }
 
    /**
-    * Creates a log record by reading five other values from the log.
+    * Creates a log record by reading the other values from the log.
+    * A SETINT record has six other values, and a SETINT_CLR record four.
+    * @param op the type of the record, SETINT or SETINT_CLR
     * @param rec the basic log record
     */
-   public SetIntRecord(BasicLogRecord rec) {
+   public SetIntRecord(int op, BasicLogRecord rec) {
+      this.op = op;
       txnum = rec.nextInt();
-      String filename = rec.nextString();
-      int blknum = rec.nextInt();
-      blk = new Block(filename, blknum);
+      if (op == SETINT)
+         prevLSN = rec.nextLong();
+      blk = rec.nextBlock();
       offset = rec.nextInt();
-      val = rec.nextInt();
+      if (op == SETINT)
+         oldval = rec.nextInt();
+      newval = rec.nextInt();
    }
 
    /**
     * Writes a setInt record to the log.
     * This log record contains the SETINT operator,
-    * followed by the transaction id, the filename, number,
-    * and offset of the modified block, and the previous
-    * integer value at that offset.
+    * followed by the transaction id, the LSN of the
+    * transaction's previous update, the modified block,
+    * the offset of the value in the block, and the
+    * integer values at that offset before and after the update.
+    * A compensation record has only the restored value.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {SETINT, txnum, blk.fileName(),
-         blk.number(), offset, val};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      if (op == SETINT)
+         return SimpleDB.logMgr().append(SETINT, txnum, prevLSN, blk, offset, oldval, newval);
+      else
+         return SimpleDB.logMgr().append(SETINT_CLR, txnum, blk, offset, newval);
    }
 
    public int op() {
-      return SETINT;
+      return op;
    }
 
    public int txNumber() {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLSN;
+   }
+
+   public Block block() {
+      return blk;
+   }
+
    public String toString() {
-      return "<SETINT " + txnum + " " + blk + " " + offset + " " + val + ">";
+      if (op == SETINT)
+         return "<SETINT " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
+      else
+         return "<SETINT_CLR " + txnum + " " + blk + " " + offset + " " + newval + ">";
+   }
+
+   /**
+    * Writes the new value saved in the log record to the block.
+    * The method pins a buffer to the specified block,
+    * calls setInt with a dummy LSN, since the record is
+    * already in the log, and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#redo(int)
+    */
+   public void redo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk, txnum);
+      buff.setInt(offset, newval, txnum, -1);
+      buffMgr.unpin(buff, txnum);
    }
 
    /**
     * Replaces the specified data value with the value saved in the log record.
     * The method pins a buffer to the specified block,
+    * writes a compensation record to the log,
     * calls setInt to restore the saved value
-    * (using a dummy LSN), and unpins the buffer.
+    * (using the LSN of the compensation record), and unpins the buffer.
+    * The buffer is latched while the record is written and the value
+    * restored, as a transaction latches it to change a value.
+    * A compensation record is not undone.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(int txnum) {
+      if (op == SETINT_CLR)
+         return;
       BufferMgr buffMgr = SimpleDB.bufferMgr();
       Buffer buff = buffMgr.pin(blk, txnum);
-      buff.setInt(offset, val, txnum, -1);
+      synchronized (buff) {
+         long lsn = new SetIntRecord(this.txnum, blk, offset, oldval).writeToLog();
+         buff.setInt(offset, oldval, txnum, lsn);
+      }
       buffMgr.unpin(buff, txnum);
    }
 }
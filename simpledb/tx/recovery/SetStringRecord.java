@@ -5,76 +5,143 @@ import simpledb.buffer.*;
 import simpledb.file.Block;
 import simpledb.log.BasicLogRecord;
 
+/**
+ * The SETSTRING log record, and its compensation record SETSTRING_CLR.
+ * They are the string counterparts of {@link SetIntRecord}.
+ */
 class SetStringRecord implements LogRecord {
-   private int txnum, offset;
-   private String val;
+   private int op, txnum, offset;
+   private long prevLSN;
+   private String oldval, newval;
    private Block blk;
 
    /**
     * Creates a new setstring log record.
     * @param txnum the ID of the specified transaction
+    * @param prevLSN the LSN of the transaction's previous update, or 0
     * @param blk the block containing the value
     * @param offset the offset of the value in the block
-    * @param val the new value
+    * @param oldval the value before the update
+    * @param newval the value after the update
+    */
+   public SetStringRecord(int txnum, long prevLSN, Block blk, int offset, String oldval, String newval) {
+      this.op = SETSTRING;
+      this.txnum = txnum;
+      this.prevLSN = prevLSN;
+      this.blk = blk;
+      this.offset = offset;
+      this.oldval = oldval;
+      this.newval = newval;
+   }
+
+   /**
+    * Creates a new compensation record, which records
+    * that an update of the specified transaction was undone.
+    * @param txnum the ID of the specified transaction
+    * @param blk the block containing the value
+    * @param offset the offset of the value in the block
+    * @param val the restored value
     */
    public SetStringRecord(int txnum, Block blk, int offset, String val) {
+      this.op = SETSTRING_CLR;
       this.txnum = txnum;
       this.blk = blk;
       this.offset = offset;
-      this.val = val;
+      this.newval = val;
    }
 
    /**
-    * Creates a log record by reading five other values from the log.
+    * Creates a log record by reading the other values from the log.
+    * A SETSTRING record has six other values, and a SETSTRING_CLR record four.
+    * @param op the type of the record, SETSTRING or SETSTRING_CLR
     * @param rec the basic log record
     */
-   public SetStringRecord(BasicLogRecord rec) {
+   public SetStringRecord(int op, BasicLogRecord rec) {
+      this.op = op;
       txnum = rec.nextInt();
-      String filename = rec.nextString();
-      int blknum = rec.nextInt();
-      blk = new Block(filename, blknum);
+      if (op == SETSTRING)
+         prevLSN = rec.nextLong();
+      blk = rec.nextBlock();
       offset = rec.nextInt();
-      val = rec.nextString();
+      if (op == SETSTRING)
+         oldval = rec.nextString();
+      newval = rec.nextString();
    }
 
    /**
     * Writes a setString record to the log.
     * This log record contains the SETSTRING operator,
-    * followed by the transaction id, the filename, number,
-    * and offset of the modified block, and the previous
-    * string value at that offset.
+    * followed by the transaction id, the LSN of the
+    * transaction's previous update, the modified block,
+    * the offset of the value in the block, and the
+    * string values at that offset before and after the update.
+    * A compensation record has only the restored value.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {SETSTRING, txnum, blk.fileName(),
-         blk.number(), offset, val};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      if (op == SETSTRING)
+         return SimpleDB.logMgr().append(SETSTRING, txnum, prevLSN, blk, offset, oldval, newval);
+      else
+         return SimpleDB.logMgr().append(SETSTRING_CLR, txnum, blk, offset, newval);
    }
 
    public int op() {
-      return SETSTRING;
+      return op;
    }
 
    public int txNumber() {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLSN;
+   }
+
+   public Block block() {
+      return blk;
+   }
+
    public String toString() {
-      System.out.println(val);
-      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + val + ">";
+      if (op == SETSTRING)
+         return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
+      else
+         return "<SETSTRING_CLR " + txnum + " " + blk + " " + offset + " " + newval + ">";
+   }
+
+   /**
+    * Writes the new value saved in the log record to the block.
+    * The method pins a buffer to the specified block,
+    * calls setString with a dummy LSN, since the record is
+    * already in the log, and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#redo(int)
+    */
+   public void redo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk, txnum);
+      buff.setString(offset, newval, txnum, -1);
+      buffMgr.unpin(buff, txnum);
    }
 
    /**
     * Replaces the specified data value with the value saved in the log record.
     * The method pins a buffer to the specified block,
+    * writes a compensation record to the log,
     * calls setString to restore the saved value
-    * (using a dummy LSN), and unpins the buffer.
+    * (using the LSN of the compensation record), and unpins the buffer.
+    * The buffer is latched while the record is written and the value
+    * restored, as a transaction latches it to change a value.
+    * A compensation record is not undone.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(int txnum) {
+      if (op == SETSTRING_CLR)
+         return;
       BufferMgr buffMgr = SimpleDB.bufferMgr();
       Buffer buff = buffMgr.pin(blk, txnum);
-      buff.setString(offset, val, txnum, -1);
+      synchronized (buff) {
+         long lsn = new SetStringRecord(this.txnum, blk, offset, oldval).writeToLog();
+         buff.setString(offset, oldval, txnum, lsn);
+      }
       buffMgr.unpin(buff, txnum);
    }
 }
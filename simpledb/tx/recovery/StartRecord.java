@@ -1,5 +1,7 @@
 package simpledb.tx.recovery;
 
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
 import simpledb.log.BasicLogRecord;
 
 class StartRecord implements LogRecord {
@@ -27,9 +29,8 @@ class StartRecord implements LogRecord {
     * followed by the transaction id.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {START, txnum};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return SimpleDB.logMgr().append(START, txnum);
    }
    
    public int op() {
@@ -40,6 +41,20 @@ class StartRecord implements LogRecord {
       return txnum;
    }
    
+   public long prevLSN() {
+      return 0;
+   }
+   
+   public Block block() {
+      return null;
+   }
+   
+   /**
+    * Does nothing, because a start record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+   
    /**
     * Does nothing, because a start record
     * contains no undo information.
@@ -0,0 +1,206 @@
+// This program measures how the cost of pinning and unpinning a buffer
+// changes as the size of the buffer pool grows.
+// For each pool size it reports the average time of a pin/unpin pair
+// when the block is already in the pool (a hit), and when every pin
+// has to replace an unpinned buffer (a miss).
+// It then reports the throughput of concurrent clients pinning
+// random blocks of a large pool, which shows how well the
+// partitioned buffer manager scales with the number of cores.
+// Finally, it compares the hit ratio of each replacement policy
+// on a workload in which a small set of hot blocks (such as catalog
+// and index pages) is interleaved with long sequential scans.
+// The last table shows the median and 99th percentile latency of
+// pins that replace dirty buffers, with and without the background
+// writer cleaning buffers between the client's requests.
+// The commit table shows the time to flush a small transaction's
+// buffers, which should not depend on the size of the pool.
+//
+// Usage: java BufferBenchmark <dbname>
+
+import java.util.Arrays;
+import java.util.Random;
+
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
+import simpledb.file.*;
+
+public class BufferBenchmark {
+   private static final String FILENAME = "bufferbench.tbl";
+   private static final int OPS = 200000;
+   private static final int[] POOL_SIZES = {8, 64, 512, 4096, 16384};
+   private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16};
+   private static final String[] POLICIES = {ReplacementPolicy.LRU, ReplacementPolicy.LRU_K, ReplacementPolicy.TWO_Q};
+
+   public static void main(String args[]) {
+      SimpleDB.initFileAndLogMgr(args[0]);
+
+      // Make sure the file is large enough that the biggest pool can miss on every pin.
+      int maxPool = POOL_SIZES[POOL_SIZES.length - 1];
+      createBlocks(2 * maxPool);
+
+      System.out.println("pool size\thit ns/op\tmiss ns/op");
+      for (int poolSize : POOL_SIZES) {
+         BufferMgr bufferMgr = new BufferMgr(poolSize);
+         long hit = runHits(bufferMgr, poolSize);
+         long miss = runMisses(bufferMgr, poolSize);
+         System.out.println(poolSize + "\t\t" + hit + "\t\t" + miss);
+      }
+
+      System.out.println("\nthreads\t\tpins/sec (pool of " + maxPool + ")");
+      BufferMgr bufferMgr = new BufferMgr(maxPool);
+      runHits(bufferMgr, maxPool);
+      for (int numThreads : THREAD_COUNTS) {
+         System.out.println(numThreads + "\t\t" + runConcurrentHits(bufferMgr, maxPool, numThreads));
+      }
+
+      System.out.println("\npolicy\t\thit ratio");
+      for (String policy : POLICIES) {
+         System.out.println(policy + "\t\t" + runMixed(new BufferMgr(512, policy), 512));
+      }
+
+      System.out.println("\nwriter\t\tp50 pin ns\tp99 pin ns");
+      System.out.println("off\t\t" + runDirty(new BufferMgr(512), 512));
+      BufferMgr writerMgr = new BufferMgr(512);
+      writerMgr.startWriter(1);
+      System.out.println("on\t\t" + runDirty(writerMgr, 512));
+
+      System.out.println("\npool size\tcommit ns/op");
+      for (int poolSize : POOL_SIZES) {
+         System.out.println(poolSize + "\t\t" + runCommits(new BufferMgr(poolSize), poolSize));
+      }
+      System.exit(0);
+   }
+
+   // Appends empty blocks to the benchmark file until it has the specified size.
+   static void createBlocks(int numBlocks) {
+      Page page = new Page();
+      int size = SimpleDB.fileMgr().size(FILENAME);
+      for (int i = size; i < numBlocks; i++) {
+         page.append(FILENAME);
+      }
+   }
+
+   // Pins resident blocks in a random order.
+   static long runHits(BufferMgr bufferMgr, int poolSize) {
+      for (int i = 0; i < poolSize; i++) {
+         pinAndUnpin(bufferMgr, i);
+      }
+
+      Random random = new Random(poolSize);
+      long start = System.nanoTime();
+      for (int i = 0; i < OPS; i++) {
+         pinAndUnpin(bufferMgr, random.nextInt(poolSize));
+      }
+      return (System.nanoTime() - start) / OPS;
+   }
+
+   // Cycles through twice as many blocks as there are buffers,
+   // so that the LRU buffer is replaced on every pin.
+   static long runMisses(BufferMgr bufferMgr, int poolSize) {
+      long start = System.nanoTime();
+      for (int i = 0; i < OPS; i++) {
+         pinAndUnpin(bufferMgr, i % (2 * poolSize));
+      }
+      return (System.nanoTime() - start) / OPS;
+   }
+
+   // Has each thread pin resident blocks in a random order, and returns the combined pins per second.
+   static long runConcurrentHits(final BufferMgr bufferMgr, final int poolSize, int numThreads) {
+      Thread[] threads = new Thread[numThreads];
+      for (int i = 0; i < numThreads; i++) {
+         final int seed = i;
+         threads[i] = new Thread() {
+            public void run() {
+               Random random = new Random(seed);
+               for (int j = 0; j < OPS; j++) {
+                  pinAndUnpin(bufferMgr, random.nextInt(poolSize));
+               }
+            }
+         };
+      }
+
+      long start = System.nanoTime();
+      for (Thread thread : threads) {
+         thread.start();
+      }
+      try {
+         for (Thread thread : threads) {
+            thread.join();
+         }
+      } catch(InterruptedException e) {
+         System.out.println(e.toString());
+      }
+      long elapsed = System.nanoTime() - start;
+      return (long) numThreads * OPS * 1000000000L / elapsed;
+   }
+
+   // Interleaves random pins of a hot set half the size of the pool
+   // with a sequential scan of many more blocks than the pool holds.
+   static double runMixed(BufferMgr bufferMgr, int poolSize) {
+      int hotSize = poolSize / 2;
+      int scanSize = 8 * poolSize;
+      Random random = new Random(poolSize);
+      int scanPos = 0;
+      for (int i = 0; i < OPS / 10; i++) {
+         for (int j = 0; j < 5; j++) {
+            pinAndUnpin(bufferMgr, random.nextInt(hotSize));
+         }
+         for (int j = 0; j < 5; j++) {
+            pinAndUnpin(bufferMgr, hotSize + scanPos);
+            scanPos = (scanPos + 1) % scanSize;
+         }
+      }
+      long hits = bufferMgr.hits();
+      return (double) hits / (hits + bufferMgr.misses());
+   }
+
+   // Modifies every pinned block, pausing briefly between batches
+   // as a client would, and returns the median and 99th percentile pin times.
+   static String runDirty(BufferMgr bufferMgr, int poolSize) {
+      int ops = 20000;
+      long[] times = new long[ops];
+      Random random = new Random(poolSize);
+      for (int i = 0; i < ops; i++) {
+         Block blk = new Block(FILENAME, random.nextInt(4 * poolSize));
+         long start = System.nanoTime();
+         Buffer buff = bufferMgr.pin(blk, 0);
+         times[i] = System.nanoTime() - start;
+         buff.setInt(0, i, 0, -1);
+         bufferMgr.unpin(buff, 0);
+         if (i % 20 == 0) {
+            try {
+               Thread.sleep(1);
+            } catch(InterruptedException e) {
+               System.out.println(e.toString());
+            }
+         }
+      }
+      Arrays.sort(times);
+      return times[ops / 2] + "\t\t" + times[ops * 99 / 100];
+   }
+
+   // Each transaction modifies two resident blocks and then
+   // flushes its buffers, as Transaction.commit does.
+   static long runCommits(BufferMgr bufferMgr, int poolSize) {
+      int ops = 20000;
+      for (int i = 0; i < poolSize; i++) {
+         pinAndUnpin(bufferMgr, i);
+      }
+      Random random = new Random(poolSize);
+      long start = System.nanoTime();
+      for (int txnum = 1; txnum <= ops; txnum++) {
+         for (int j = 0; j < 2; j++) {
+            Buffer buff = bufferMgr.pin(new Block(FILENAME, random.nextInt(poolSize)), txnum);
+            buff.setInt(0, txnum, txnum, -1);
+            bufferMgr.unpin(buff, txnum);
+         }
+         bufferMgr.flushAll(txnum);
+      }
+      return (System.nanoTime() - start) / ops;
+   }
+
+   static void pinAndUnpin(BufferMgr bufferMgr, int blknum) {
+      Buffer buff = bufferMgr.pin(new Block(FILENAME, blknum), 0);
+      bufferMgr.unpin(buff, 0);
+   }
+}
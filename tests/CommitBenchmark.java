@@ -0,0 +1,106 @@
+// This program measures the commit throughput of concurrent clients,
+// each of which runs small transactions that modify one block of
+// its own file and commit.
+// It compares forcing the log separately for every commit with group
+// commit, both without a window (batches form while a force is in
+// progress) and with a short window.
+// It then measures how the commit rate of a single client depends
+// on the number of blocks that each transaction modifies.
+//
+// Usage: java CommitBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.buffer.PageFormatter;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+public class CommitBenchmark {
+   private static final int COMMITS_PER_THREAD = 200;
+   private static final int[] THREAD_COUNTS = {1, 4, 16};
+   private static final long[] WINDOWS = {-1, 0, 2};
+   private static final int[] BLOCKS_PER_COMMIT = {1, 4, 16};
+
+   public static void main(String args[]) {
+      SimpleDB.BUFFER_SIZE = 64;
+      System.out.println("window ms\tthreads\t\tcommits/sec");
+      for (long window : WINDOWS) {
+         SimpleDB.GROUP_COMMIT_WINDOW = window;
+         SimpleDB.initFileLogAndBufferMgr(args[0] + (window < 0 ? "off" : window));
+         for (int numThreads : THREAD_COUNTS) {
+            String mode = (window < 0) ? "off" : Long.toString(window);
+            System.out.println(mode + "\t\t" + numThreads + "\t\t" + runCommits(numThreads));
+         }
+      }
+
+      SimpleDB.GROUP_COMMIT_WINDOW = -1;
+      SimpleDB.initFileLogAndBufferMgr(args[0] + "wide");
+      System.out.println("\nblocks/commit\tcommits/sec (group commit off)");
+      for (int numBlocks : BLOCKS_PER_COMMIT) {
+         System.out.println(numBlocks + "\t\t" + runWideCommits(numBlocks));
+      }
+      System.exit(0);
+   }
+
+   static long runCommits(int numThreads) {
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+         final String filename = "commitbench" + t + ".tbl";
+         threads[t] = new Thread(new Runnable() {
+            public void run() {
+               Block blk = createBlock(filename);
+               for (int i = 0; i < COMMITS_PER_THREAD; i++) {
+                  Transaction tx = new Transaction();
+                  tx.pin(blk);
+                  tx.setInt(blk, 0, i);
+                  tx.commit();
+               }
+            }
+         });
+      }
+      long start = System.nanoTime();
+      for (Thread thread : threads) {
+         thread.start();
+      }
+      try {
+         for (Thread thread : threads) {
+            thread.join();
+         }
+      } catch(InterruptedException e) {
+         System.out.println(e.toString());
+      }
+      long elapsed = System.nanoTime() - start;
+      return (long) numThreads * COMMITS_PER_THREAD * 1000000000L / elapsed;
+   }
+
+   // Each transaction modifies the first value of several blocks.
+   static long runWideCommits(int numBlocks) {
+      Block[] blocks = new Block[numBlocks];
+      for (int b = 0; b < numBlocks; b++) {
+         blocks[b] = createBlock("commitwide" + b + ".tbl");
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < COMMITS_PER_THREAD; i++) {
+         Transaction tx = new Transaction();
+         for (Block blk : blocks) {
+            tx.pin(blk);
+            tx.setInt(blk, 0, i);
+         }
+         tx.commit();
+      }
+      long elapsed = System.nanoTime() - start;
+      return COMMITS_PER_THREAD * 1000000000L / elapsed;
+   }
+
+   // Returns the first block of the file, appending it if necessary.
+   static Block createBlock(String filename) {
+      if (SimpleDB.fileMgr().size(filename) > 0) {
+         return new Block(filename, 0);
+      }
+      Transaction tx = new Transaction();
+      Block blk = tx.append(filename, new PageFormatter() {
+         public void format(Page page) {}
+      });
+      tx.commit();
+      return blk;
+   }
+}
@@ -0,0 +1,71 @@
+// This program measures the cost of deadlock detection when the
+// waits-for graph is large.  It builds a chain of transactions,
+// each holding a lock on one block and waiting for the block of the
+// one before it; the first waits for a block held by the main
+// transaction.  The main transaction then repeatedly requests the
+// block of the last transaction in the chain, which closes a cycle
+// through the whole chain, and is aborted.  The program reports the
+// average time of such a request for chains of increasing length.
+//
+// Usage: java DeadlockBenchmark
+
+import simpledb.file.Block;
+import simpledb.tx.concurrency.*;
+import java.util.*;
+
+public class DeadlockBenchmark {
+   private static final int[] CHAIN_LENGTHS = {10, 100, 1000};
+   private static final int REQUESTS = 2000;
+   private static int nextTxNum = 4000000;
+
+   public static void main(String args[]) throws InterruptedException {
+      System.out.println("chain length\tdeadlocked request us");
+      runChain(100);  // warm up
+      for (int n : CHAIN_LENGTHS)
+         System.out.println(n + "\t\t" + runChain(n));
+      System.exit(0);
+   }
+
+   // Returns the average time in microseconds (to two decimals)
+   // of a request that deadlocks with a chain of the specified length.
+   static String runChain(int length) throws InterruptedException {
+      final String filename = "deadlockbench" + length + ".tbl";
+      ConcurrencyMgr main = new ConcurrencyMgr(nextTxNum++);
+      main.xLock(new Block(filename, 0));
+      List<Thread> chain = new ArrayList<Thread>();
+      for (int i = 1; i <= length; i++) {
+         final int blknum = i;
+         final ConcurrencyMgr cm = new ConcurrencyMgr(nextTxNum++);
+         Thread t = new Thread() {
+            public void run() {
+               try {
+                  cm.xLock(new Block(filename, blknum));
+                  cm.xLock(new Block(filename, blknum - 1));
+               }
+               catch(LockAbortException e) {}
+               cm.release();
+            }
+         };
+         t.start();
+         while (t.getState() != Thread.State.TIMED_WAITING && t.getState() != Thread.State.WAITING)
+            Thread.sleep(1);
+         chain.add(t);
+      }
+
+      Block last = new Block(filename, length);
+      long start = System.nanoTime();
+      for (int r = 0; r < REQUESTS; r++) {
+         try {
+            main.xLock(last);
+            throw new RuntimeException("no deadlock was detected");
+         }
+         catch(LockAbortException e) {}
+      }
+      long elapsed = System.nanoTime() - start;
+
+      main.release();
+      for (Thread t : chain)
+         t.join();
+      return String.format("%.2f", elapsed / 1000.0 / REQUESTS);
+   }
+}
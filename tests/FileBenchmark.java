@@ -0,0 +1,122 @@
+// This program compares the file manager's backends.
+// For each backend it reports the average time to read a random
+// block of a file that is resident in the operating system's cache,
+// the average time to write a random block, and the average time
+// of a commit that writes a few blocks and then forces them to disk.
+// The channel backend makes a system call for every block, while the
+// mapped backend copies blocks to and from memory; both sync only
+// when the file manager is forced.
+// Finally, it reports the read throughput of concurrent clients
+// reading random blocks, which shows whether their reads overlap.
+//
+// Usage: java FileBenchmark <dbname>
+
+import java.util.Random;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+public class FileBenchmark {
+   private static final String FILENAME = "filebench.tbl";
+   private static final int NUM_BLOCKS = 4096;
+   private static final int READS = 200000;
+   private static final int WRITES = 2000;
+   private static final int COMMITS = 500;
+   private static final int BLOCKS_PER_COMMIT = 4;
+   private static final String[] BACKENDS = {FileMgr.CHANNEL, FileMgr.MAPPED};
+   private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+   public static void main(String args[]) {
+      SimpleDB.BLOCK_SIZE = 4096;
+      System.out.println("backend\t\tread ns/op\twrite ns/op\tcommit ns/op");
+      for (String backend : BACKENDS) {
+         SimpleDB.FILE_BACKEND = backend;
+         SimpleDB.initFileMgr(args[0] + backend);
+         createBlocks(NUM_BLOCKS);
+         System.out.println(backend + "\t\t" + runReads() + "\t\t" + runWrites() + "\t\t" + runCommits());
+      }
+
+      System.out.println("\nthreads\t\treads/sec (" + SimpleDB.FILE_BACKEND + ")");
+      for (int numThreads : THREAD_COUNTS) {
+         System.out.println(numThreads + "\t\t" + runConcurrentReads(numThreads));
+      }
+      System.exit(0);
+   }
+
+   // Appends empty blocks to the benchmark file until it has the specified size.
+   static void createBlocks(int numBlocks) {
+      Page page = new Page();
+      int size = SimpleDB.fileMgr().size(FILENAME);
+      for (int i = size; i < numBlocks; i++) {
+         page.append(FILENAME);
+      }
+      SimpleDB.fileMgr().force();
+   }
+
+   static long runReads() {
+      Page page = new Page();
+      Random random = new Random(1);
+      long start = System.nanoTime();
+      for (int i = 0; i < READS; i++) {
+         page.read(new Block(FILENAME, random.nextInt(NUM_BLOCKS)));
+      }
+      return (System.nanoTime() - start) / READS;
+   }
+
+   // Each thread reads random blocks with its own page.
+   static long runConcurrentReads(int numThreads) {
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+         final int seed = t;
+         threads[t] = new Thread(new Runnable() {
+            public void run() {
+               Page page = new Page();
+               Random random = new Random(seed);
+               for (int i = 0; i < READS / 4; i++) {
+                  page.read(new Block(FILENAME, random.nextInt(NUM_BLOCKS)));
+               }
+            }
+         });
+      }
+      long start = System.nanoTime();
+      for (Thread thread : threads) {
+         thread.start();
+      }
+      try {
+         for (Thread thread : threads) {
+            thread.join();
+         }
+      } catch(InterruptedException e) {
+         System.out.println(e.toString());
+      }
+      long elapsed = System.nanoTime() - start;
+      return (long) numThreads * (READS / 4) * 1000000000L / elapsed;
+   }
+
+   static long runWrites() {
+      Page page = new Page();
+      Random random = new Random(2);
+      long start = System.nanoTime();
+      for (int i = 0; i < WRITES; i++) {
+         page.setInt(0, i);
+         page.write(new Block(FILENAME, random.nextInt(NUM_BLOCKS)));
+      }
+      SimpleDB.fileMgr().force();
+      return (System.nanoTime() - start) / WRITES;
+   }
+
+   // Each commit writes a few blocks and forces them, as RecoveryMgr.commit does.
+   static long runCommits() {
+      Page page = new Page();
+      Random random = new Random(3);
+      long start = System.nanoTime();
+      for (int i = 0; i < COMMITS; i++) {
+         for (int j = 0; j < BLOCKS_PER_COMMIT; j++) {
+            page.setInt(0, i);
+            page.write(new Block(FILENAME, random.nextInt(NUM_BLOCKS)));
+         }
+         SimpleDB.fileMgr().force();
+      }
+      return (System.nanoTime() - start) / COMMITS;
+   }
+}
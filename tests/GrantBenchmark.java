@@ -0,0 +1,95 @@
+// This program measures concurrent operators that each pin many buffers
+// at once, as the chunks of a multibuffer product do.  Each thread
+// repeatedly sizes a chunk of its own table, opens its scan, pins
+// that many blocks, holds them briefly and unpins them.  The threads
+// first size their chunks from the number of buffers available, as the operators did before they
+// reserved buffers, and then from the number the buffer manager
+// grants them.  The program reports the blocks pinned in completed
+// chunks and the transactions aborted per second for each way.
+//
+// Usage: java GrantBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
+import simpledb.tx.Transaction;
+import simpledb.buffer.BufferAbortException;
+import java.util.*;
+
+public class GrantBenchmark {
+   private static final int THREADS = 4;
+   private static final int BLOCKS = 8;
+   private static final long RUN_MILLIS = 3000;
+
+   private static volatile boolean running;
+   private static int blocks, aborts;
+
+   public static void main(String args[]) throws InterruptedException {
+      SimpleDB.initFileLogAndBufferMgr(args[0]);
+      Transaction tx = new Transaction();
+      for (int t = 0; t < THREADS; t++)
+         for (int b = 0; b < BLOCKS; b++) {
+            Block blk = new Block("grantbench" + t + ".tbl", b);
+            tx.pin(blk);
+            tx.setInt(blk, 0, b);
+            tx.unpin(blk);
+         }
+      tx.commit();
+
+      System.out.println("chunk size from\tblocks/s\taborts/s");
+      for (boolean reserve : new boolean[] {false, true}) {
+         run(reserve);
+         System.out.println((reserve ? "reserved" : "available")
+                            + "\t" + blocks * 1000 / RUN_MILLIS + "\t" + aborts * 1000 / RUN_MILLIS);
+      }
+      System.exit(0);
+   }
+
+   static void run(final boolean reserve) throws InterruptedException {
+      blocks = 0;
+      aborts = 0;
+      running = true;
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < THREADS; t++) {
+         final String filename = "grantbench" + t + ".tbl";
+         threads.add(new Thread() {
+            public void run() {
+               while (running) {
+                  Transaction tx = new Transaction(true);
+                  try {
+                     int size = reserve ? tx.reserveBuffers(BLOCKS, 1)
+                                        : SimpleDB.bufferMgr().available();
+                     size = Math.max(1, Math.min(size, BLOCKS));
+                     Thread.sleep(1);  // open the scan
+                     for (int b = 0; b < size; b++)
+                        tx.pin(new Block(filename, b));
+                     Thread.sleep(2);
+                     tx.commit();
+                     countChunk(size);
+                  }
+                  catch(BufferAbortException e) {
+                     tx.rollback();
+                     countAbort();
+                  }
+                  catch(InterruptedException e) {
+                     tx.rollback();
+                  }
+               }
+            }
+         });
+      }
+      for (Thread t : threads)
+         t.start();
+      Thread.sleep(RUN_MILLIS);
+      running = false;
+      for (Thread t : threads)
+         t.join();
+   }
+
+   static synchronized void countChunk(int size) {
+      blocks += size;
+   }
+
+   static synchronized void countAbort() {
+      aborts++;
+   }
+}
@@ -0,0 +1,35 @@
+// This program measures insert throughput when every insert is
+// its own transaction, so that the cost of making each commit
+// durable dominates.
+// It reports the number of committed inserts per second.
+//
+// Usage: java InsertBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.planner.Planner;
+
+public class InsertBenchmark {
+   private static final int INSERTS = 2000;
+
+   public static void main(String args[]) {
+      SimpleDB.init(args[0]);
+      Planner planner = SimpleDB.planner();
+      Transaction tx;
+      if (SimpleDB.fileMgr().isNew()) {
+         tx = new Transaction();
+         planner.executeUpdate("create table insertbench(id int, name varchar(20))", tx);
+         tx.commit();
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < INSERTS; i++) {
+         tx = new Transaction();
+         planner.executeUpdate("insert into insertbench(id, name) values (" + i + ", 'name" + i + "')", tx);
+         tx.commit();
+      }
+      long elapsed = System.nanoTime() - start;
+      System.out.println("\n" + (INSERTS * 1000000000L / elapsed) + " committed inserts/sec");
+      System.exit(0);
+   }
+}
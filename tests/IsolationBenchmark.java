@@ -0,0 +1,126 @@
+// This program measures the throughput of writers while a long
+// report scans the same table in a transaction that locks.
+// A scanner thread repeatedly reads every record of the table,
+// pausing at each block as a slow client would, while writer threads
+// update random records.  The scanner runs first at the isolation level
+// SERIALIZABLE and then at READ_COMMITTED; the program reports the
+// scans and the updates committed per second at each level.
+//
+// Usage: java IsolationBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.record.*;
+import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.*;
+import java.util.*;
+
+public class IsolationBenchmark {
+   private static final int BLOCKS = 10;
+   private static final int WRITERS = 4;
+   private static final long RUN_MILLIS = 3000;
+
+   private static TableInfo ti;
+   private static List<RID> rids = new ArrayList<RID>();
+   private static volatile boolean running;
+   private static int scans, updates;
+
+   public static void main(String args[]) throws InterruptedException {
+      SimpleDB.initFileLogAndBufferMgr(args[0]);
+      Schema sch = new Schema();
+      sch.addIntField("v");
+      ti = new TableInfo("isolationbench", sch);
+      Transaction tx = new Transaction();
+      RecordFile rf = new RecordFile(ti, tx);
+      while (tx.size(ti.fileName()) <= BLOCKS) {
+         rf.insert();
+         rf.setInt("v", 0);
+         rids.add(rf.currentRid());
+      }
+      rf.close();
+      tx.commit();
+
+      run(ConcurrencyMgr.SERIALIZABLE);  // warm up
+      System.out.println("scanner level\tscans/s\tupdates/s");
+      int[] levels = {ConcurrencyMgr.SERIALIZABLE, ConcurrencyMgr.READ_COMMITTED};
+      for (int level : levels) {
+         run(level);
+         System.out.println((level == ConcurrencyMgr.SERIALIZABLE ? "serializable" : "read committed")
+                            + "\t" + scans * 1000 / RUN_MILLIS + "\t" + updates * 1000 / RUN_MILLIS);
+      }
+      System.exit(0);
+   }
+
+   static void run(final int level) throws InterruptedException {
+      scans = 0;
+      updates = 0;
+      running = true;
+      List<Thread> threads = new ArrayList<Thread>();
+      threads.add(new Thread() {
+         public void run() {
+            while (running) {
+               Transaction tx = new Transaction();
+               tx.setIsolationLevel(level);
+               try {
+                  RecordFile rf = new RecordFile(ti, tx);
+                  int blknum = -1;
+                  while (rf.next()) {
+                     rf.getInt("v");
+                     if (rf.currentRid().blockNumber() != blknum) {
+                        blknum = rf.currentRid().blockNumber();
+                        Thread.sleep(5);
+                     }
+                  }
+                  rf.close();
+                  tx.commit();
+                  countScan();
+               }
+               catch(LockAbortException e) {
+                  tx.rollback();
+               }
+               catch(InterruptedException e) {
+                  tx.rollback();
+               }
+            }
+         }
+      });
+      for (int i = 0; i < WRITERS; i++) {
+         final Random rand = new Random(i);
+         threads.add(new Thread() {
+            public void run() {
+               while (running) {
+                  Transaction tx = new Transaction();
+                  try {
+                     RecordFile rf = new RecordFile(ti, tx);
+                     rf.moveToRid(rids.get(rand.nextInt(rids.size())));
+                     rf.setInt("v", rf.getInt("v") + 1);
+                     rf.close();
+                     Thread.sleep(2);
+                     tx.commit();
+                     countUpdate();
+                  }
+                  catch(LockAbortException e) {
+                     tx.rollback();
+                  }
+                  catch(InterruptedException e) {
+                     tx.rollback();
+                  }
+               }
+            }
+         });
+      }
+      for (Thread t : threads)
+         t.start();
+      Thread.sleep(RUN_MILLIS);
+      running = false;
+      for (Thread t : threads)
+         t.join();
+   }
+
+   static synchronized void countScan() {
+      scans++;
+   }
+
+   static synchronized void countUpdate() {
+      updates++;
+   }
+}
@@ -0,0 +1,45 @@
+// This program measures the cost of locking during a full scan.
+// A transaction reads one value from each block of a large file,
+// as a table scan does, and then commits.  The program reports the
+// average time per block, with lock escalation disabled and with
+// the default escalation threshold, for which the scan holds a
+// single file lock once it has read that many blocks.
+//
+// Usage: java LockBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+public class LockBenchmark {
+   private static final int BLOCKS = 5000;
+   private static final int SCANS = 20;
+
+   public static void main(String args[]) {
+      SimpleDB.BUFFER_SIZE = 64;
+      SimpleDB.initFileLogAndBufferMgr(args[0]);
+      int threshold = SimpleDB.LOCK_ESCALATION_THRESHOLD;
+      System.out.println("escalation threshold\tscan ns/block");
+      for (int t : new int[] {Integer.MAX_VALUE, threshold}) {
+         SimpleDB.LOCK_ESCALATION_THRESHOLD = t;
+         runScans();  // warm up
+         System.out.println((t == Integer.MAX_VALUE ? "none" : "" + t) + "\t\t\t" + runScans());
+      }
+      System.exit(0);
+   }
+
+   static long runScans() {
+      long start = System.nanoTime();
+      for (int i = 0; i < SCANS; i++) {
+         Transaction tx = new Transaction();
+         for (int b = 0; b < BLOCKS; b++) {
+            Block blk = new Block("lockbench.tbl", b);
+            tx.pin(blk);
+            tx.getInt(blk, 0);
+            tx.unpin(blk);
+         }
+         tx.commit();
+      }
+      return (System.nanoTime() - start) / (SCANS * BLOCKS);
+   }
+}
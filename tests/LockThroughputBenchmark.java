@@ -0,0 +1,70 @@
+// This program measures the throughput of the lock table
+// when several threads lock blocks at the same time.
+// Each thread runs a series of short transactions, each of which
+// locks a few blocks of a shared file and then releases its locks.
+// In the first run, the threads lock disjoint blocks, so they contend
+// only inside the lock table; in the second, they all read a small
+// set of hot blocks, and a tenth of the transactions also write one.
+// The program reports the locks granted per millisecond for each
+// number of threads.
+//
+// Usage: java LockThroughputBenchmark
+
+import simpledb.file.Block;
+import simpledb.tx.concurrency.*;
+import java.util.*;
+
+public class LockThroughputBenchmark {
+   private static final int[] THREADS = {1, 2, 4, 8};
+   private static final int TXS_PER_THREAD = 20000;
+   private static final int LOCKS_PER_TX = 10;
+   private static final int HOT_BLOCKS = 16;
+   private static int nextTxNum = 3000000;
+
+   public static void main(String args[]) throws InterruptedException {
+      run(false, 1);  // warm up
+      run(true, 1);
+      System.out.println("threads\tdisjoint locks/ms\thot locks/ms");
+      for (int n : THREADS)
+         System.out.println(n + "\t" + run(false, n) + "\t\t\t" + run(true, n));
+      System.exit(0);
+   }
+
+   static long run(final boolean hot, int threads) throws InterruptedException {
+      List<Thread> workers = new ArrayList<Thread>();
+      for (int t = 0; t < threads; t++) {
+         final int id = t;
+         workers.add(new Thread() {
+            public void run() {
+               Random rand = new Random(id);
+               for (int i = 0; i < TXS_PER_THREAD; i++) {
+                  ConcurrencyMgr cm = new ConcurrencyMgr(nextTxNum());
+                  try {
+                     for (int j = 0; j < LOCKS_PER_TX; j++) {
+                        if (hot)
+                           cm.sLock(new Block("lockbench.tbl", rand.nextInt(HOT_BLOCKS)));
+                        else
+                           cm.xLock(new Block("lockbench.tbl", 1000000 * id + j));
+                     }
+                     if (hot && i % 10 == 0)
+                        cm.xLock(new Block("lockbench.tbl", rand.nextInt(HOT_BLOCKS)));
+                  }
+                  catch(LockAbortException e) {}
+                  cm.release();
+               }
+            }
+         });
+      }
+      long start = System.nanoTime();
+      for (Thread w : workers)
+         w.start();
+      for (Thread w : workers)
+         w.join();
+      long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+      return (long) threads * TXS_PER_THREAD * LOCKS_PER_TX / ms;
+   }
+
+   static synchronized int nextTxNum() {
+      return nextTxNum++;
+   }
+}
@@ -0,0 +1,70 @@
+// This program measures the log manager.
+// It reports the average size of a log record and the average time
+// to append it, for the records that an update and a commit write,
+// and the average time of the check that a buffer
+// makes before writing a page, which flushes the log up to the
+// page's LSN.  Most of those checks find the log already on disk
+// past the LSN, and so cost no I/O.
+//
+// Usage: java LogBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
+import simpledb.log.LogMgr;
+
+public class LogBenchmark {
+   private static final int APPENDS = 200000;
+   private static final int CHECKS = 1000000;
+   private static final int FLUSH_EVERY = 1000;
+   private static final String[] RECORDS = {"setint", "setstring", "commit"};
+   private static final int SETINT = 4, SETSTRING = 5, COMMIT = 2;
+
+   public static void main(String args[]) {
+      SimpleDB.initFileAndLogMgr(args[0]);
+      LogMgr logMgr = SimpleDB.logMgr();
+      System.out.println("record\t\tbytes/record\tappend ns/op");
+      for (String record : RECORDS) {
+         runAppends(logMgr, record);  // warm up
+         long start = logMgr.append(COMMIT, 0);
+         long elapsed = runAppends(logMgr, record);
+         long bytes = logMgr.append(COMMIT, 0) - start;
+         System.out.println(record + "\t" + (bytes / APPENDS) + "\t\t" + elapsed);
+      }
+      System.out.println("\nWAL check ns/op (flush every " + FLUSH_EVERY + " records): " + runChecks(logMgr));
+      System.exit(0);
+   }
+
+   // Appends records like those of a transaction that updates
+   // consecutive values of a table, and then flushes the log.
+   static long runAppends(LogMgr logMgr, String record) {
+      Block blk = new Block("logbench.tbl", 17);
+      String val = "value of twenty char";
+      long start = System.nanoTime();
+      for (int i = 0; i < APPENDS; i++) {
+         int txnum = 1000 + i / 100;
+         int offset = (i % 100) * 4;
+         if (record.equals("setint"))
+            logMgr.append(SETINT, txnum, blk, offset, i);
+         else if (record.equals("setstring"))
+            logMgr.append(SETSTRING, txnum, blk, offset, val);
+         else
+            logMgr.append(COMMIT, txnum);
+      }
+      logMgr.flush(logMgr.append(COMMIT, 0));
+      return (System.nanoTime() - start) / APPENDS;
+   }
+
+   // Every check asks for an LSN that was appended recently;
+   // the log is flushed only every FLUSH_EVERY records.
+   static long runChecks(LogMgr logMgr) {
+      long lsn = logMgr.append(COMMIT, 0);
+      long start = System.nanoTime();
+      for (int i = 0; i < CHECKS; i++) {
+         if (i % FLUSH_EVERY == 0) {
+            lsn = logMgr.append(COMMIT, i);
+         }
+         logMgr.flush(lsn);
+      }
+      return (System.nanoTime() - start) / CHECKS;
+   }
+}
@@ -0,0 +1,101 @@
+// This program measures how the block size of a database affects
+// the throughput of table scans and index lookups.
+// It creates a database with the specified block size, loads a table
+// with an index, and then reports the rows scanned per second,
+// the index lookups per second, and the number of blocks each
+// workload had to read into the buffer pool.
+// The block size is fixed when a database is created, so each size
+// needs its own database directory, for example:
+//
+//    for size in 400 4096 16384; do java PageSizeBenchmark pagebench$size $size | grep -v transaction; done
+//
+// Usage: java PageSizeBenchmark <dbname> <blocksize>
+
+import java.util.Random;
+
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.query.*;
+import simpledb.planner.Planner;
+import simpledb.metadata.IndexInfo;
+import simpledb.index.query.IndexSelectScan;
+
+public class PageSizeBenchmark {
+   private static final int ROWS = 20000;
+   private static final int GROUPS = 500;
+   private static final int SCANS = 5;
+   private static final int LOOKUPS = 500;
+
+   public static void main(String args[]) {
+      SimpleDB.BLOCK_SIZE = Integer.parseInt(args[1]);
+      SimpleDB.BUFFER_SIZE = 64;
+      SimpleDB.init(args[0]);
+      Planner planner = SimpleDB.planner();
+      if (SimpleDB.fileMgr().size("bench.tbl") == 0) {
+         load(planner);
+      }
+      System.out.println("block size " + SimpleDB.fileMgr().blockSize() + " bytes");
+
+      long misses = SimpleDB.bufferMgr().misses();
+      long start = System.nanoTime();
+      int rows = 0;
+      for (int i = 0; i < SCANS; i++) {
+         rows += count(planner, "select id, name, grp from bench");
+      }
+      long elapsed = System.nanoTime() - start;
+      System.out.println("scan\t\t" + (rows * 1000000000L / elapsed) + " rows/sec\t"
+                         + (SimpleDB.bufferMgr().misses() - misses) / SCANS + " blocks read/scan");
+
+      Random random = new Random(1);
+      misses = SimpleDB.bufferMgr().misses();
+      start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++) {
+         lookup(random.nextInt(GROUPS));
+      }
+      elapsed = System.nanoTime() - start;
+      System.out.println("index lookup\t" + (LOOKUPS * 1000000000L / elapsed) + " lookups/sec\t"
+                         + (SimpleDB.bufferMgr().misses() - misses) / LOOKUPS + " blocks read/lookup");
+      System.exit(0);
+   }
+
+   static void load(Planner planner) {
+      Transaction tx = new Transaction();
+      planner.executeUpdate("create table bench(id int, name varchar(20), grp int)", tx);
+      planner.executeUpdate("create index benchgrp on bench(grp)", tx);
+      tx.commit();
+      for (int i = 0; i < ROWS; i += 1000) {
+         tx = new Transaction();
+         for (int j = i; j < i + 1000; j++) {
+            planner.executeUpdate("insert into bench(id, name, grp) values (" + j + ", 'name" + j + "', " + (j % GROUPS) + ")", tx);
+         }
+         tx.commit();
+      }
+   }
+
+   // Reads the rows of one group through the index on grp.
+   static int lookup(int grp) {
+      Transaction tx = new Transaction();
+      IndexInfo ii = SimpleDB.mdMgr().getIndexInfo("bench", tx).get("grp");
+      TableScan ts = new TableScan(SimpleDB.mdMgr().getTableInfo("bench", tx), tx);
+      Scan scan = new IndexSelectScan(ii.open(), new IntConstant(grp), ts);
+      int n = 0;
+      while (scan.next()) {
+         n++;
+      }
+      scan.close();
+      tx.commit();
+      return n;
+   }
+
+   static int count(Planner planner, String query) {
+      Transaction tx = new Transaction();
+      Scan scan = planner.createQueryPlan(query, tx).open();
+      int n = 0;
+      while (scan.next()) {
+         n++;
+      }
+      scan.close();
+      tx.commit();
+      return n;
+   }
+}
@@ -0,0 +1,54 @@
+// This program measures the cost of short transactions that only read,
+// as the queries of a select-only workload are.  Each transaction reads
+// one value from each of a few blocks and commits.  The transactions run
+// first as ordinary transactions and then as read-only ones; the program
+// reports the average time of a transaction and the number of bytes
+// written to the log by all of them.
+//
+// Usage: java ReadOnlyBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
+import simpledb.tx.Transaction;
+
+public class ReadOnlyBenchmark {
+   private static final int BLOCKS = 4;
+   private static final int TXS = 5000;
+
+   public static void main(String args[]) {
+      SimpleDB.initFileLogAndBufferMgr(args[0]);
+      Transaction tx = new Transaction();
+      for (int b = 0; b < BLOCKS; b++) {
+         Block blk = new Block("readonlybench.tbl", b);
+         tx.pin(blk);
+         tx.setInt(blk, 0, b);
+         tx.unpin(blk);
+      }
+      tx.commit();
+
+      run(false);  // warm up
+      System.out.println("transactions\tus/tx\tlog bytes");
+      for (boolean readOnly : new boolean[] {false, true}) {
+         long lsn = SimpleDB.logMgr().currentLSN();
+         long us = run(readOnly);
+         System.out.println((readOnly ? "read-only" : "ordinary") + "\t" + us
+                            + "\t" + (SimpleDB.logMgr().currentLSN() - lsn));
+      }
+      System.exit(0);
+   }
+
+   static long run(boolean readOnly) {
+      long start = System.nanoTime();
+      for (int i = 0; i < TXS; i++) {
+         Transaction tx = new Transaction(readOnly);
+         for (int b = 0; b < BLOCKS; b++) {
+            Block blk = new Block("readonlybench.tbl", b);
+            tx.pin(blk);
+            tx.getInt(blk, 0);
+            tx.unpin(blk);
+         }
+         tx.commit();
+      }
+      return (System.nanoTime() - start) / 1000 / TXS;
+   }
+}
@@ -0,0 +1,92 @@
+// This program measures how long a restart takes after a crash.
+// A client runs transactions that each update a few values and commit,
+// and then the system is discarded without writing its buffers, as in
+// a crash, and restarted.  The program reports the number of log
+// segments on disk at the crash and the time to recover, both
+// without checkpoints and with a checkpoint every CHECKPOINT_EVERY
+// transactions.  With checkpoints, the restart time does not grow
+// with the number of transactions run before the crash.
+//
+// The program then generates a large log, spread over many more
+// blocks than the buffer pool holds, and reports the restart time
+// without checkpoints for an increasing number of recovery threads.
+//
+// Usage: java RestartBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.buffer.PageFormatter;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+import simpledb.tx.recovery.RecoveryMgr;
+
+public class RestartBenchmark {
+   private static final int[] TRANSACTIONS = {1000, 4000, 16000};
+   private static final int CHECKPOINT_EVERY = 500;
+   private static final int BLOCKS = 32;
+   private static final int UPDATES_PER_TX = 4;
+   private static final int LARGE_TRANSACTIONS = 50000;
+   private static final int LARGE_BLOCKS = 2000;
+   private static final int[] THREADS = {1, 2, 4, 8};
+
+   public static void main(String args[]) {
+      SimpleDB.BUFFER_SIZE = 64;
+      SimpleDB.BUFFER_WRITER_INTERVAL = 0;
+      System.out.println("transactions\tcheckpoints\tlog segments\trestart ms");
+      for (int numTxs : TRANSACTIONS) {
+         for (boolean checkpoints : new boolean[] {false, true}) {
+            String dbname = args[0] + numTxs + (checkpoints ? "ckpt" : "");
+            SimpleDB.initFileLogAndBufferMgr(dbname);
+            runTransactions(numTxs, BLOCKS, checkpoints);
+
+            SimpleDB.initFileLogAndBufferMgr(dbname);
+            int segments = SimpleDB.fileMgr().fileNames(SimpleDB.LOG_FILE + ".").size() - 1;  // not the file name table
+            long elapsed = restart();
+            System.out.println(numTxs + "\t\t" + (checkpoints ? "yes" : "no") + "\t\t" + segments + "\t\t" + elapsed);
+         }
+      }
+
+      System.out.println("\n" + LARGE_TRANSACTIONS + " transactions over " + LARGE_BLOCKS + " blocks, no checkpoints");
+      System.out.println("recovery threads\trestart ms");
+      for (int threads : THREADS) {
+         String dbname = args[0] + "large" + threads;
+         SimpleDB.initFileLogAndBufferMgr(dbname);
+         runTransactions(LARGE_TRANSACTIONS, LARGE_BLOCKS, false);
+
+         SimpleDB.initFileLogAndBufferMgr(dbname);
+         SimpleDB.RECOVERY_THREADS = threads;
+         System.out.println(threads + "\t\t\t" + restart());
+      }
+      System.exit(0);
+   }
+
+   // Recovers the restarted system, and returns the time it took in milliseconds.
+   static long restart() {
+      long start = System.nanoTime();
+      Transaction tx = new Transaction();
+      tx.recover();
+      tx.commit();
+      return (System.nanoTime() - start) / 1000000;
+   }
+
+   static void runTransactions(int numTxs, int numBlocks, boolean checkpoints) {
+      Transaction tx = new Transaction();
+      Block[] blocks = new Block[numBlocks];
+      for (int b = 0; b < numBlocks; b++) {
+         blocks[b] = tx.append("restartbench.tbl", new PageFormatter() {
+            public void format(Page page) {}
+         });
+      }
+      tx.commit();
+      for (int i = 0; i < numTxs; i++) {
+         tx = new Transaction();
+         for (int j = 0; j < UPDATES_PER_TX; j++) {
+            Block blk = blocks[(i * UPDATES_PER_TX + j) % numBlocks];
+            tx.pin(blk);
+            tx.setInt(blk, 4 * j, i);
+         }
+         tx.commit();
+         if (checkpoints && i % CHECKPOINT_EVERY == CHECKPOINT_EVERY - 1)
+            RecoveryMgr.checkpoint();
+      }
+   }
+}
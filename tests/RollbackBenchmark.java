@@ -0,0 +1,61 @@
+// This program measures the cost of rolling back a transaction
+// while other transactions keep writing to the log.
+// A transaction makes a few updates, interleaved with the updates
+// of other transactions, and then rolls back.  The program reports
+// the average time of a rollback, for an increasing number of
+// records that the other transactions write in the meantime.
+// A rollback reads only its own records, so its time should not
+// grow with the number of other records.
+//
+// Usage: java RollbackBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.buffer.PageFormatter;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+public class RollbackBenchmark {
+   private static final int[] OTHER_RECORDS = {0, 1000, 10000, 50000};
+   private static final int ROLLBACKS = 20;
+   private static final int UPDATES_PER_TX = 10;
+
+   public static void main(String args[]) {
+      SimpleDB.BUFFER_WRITER_INTERVAL = 0;
+      SimpleDB.initFileLogAndBufferMgr(args[0]);
+      Transaction tx = new Transaction();
+      Block mine = tx.append("rollbackbench.tbl", new PageFormatter() {
+         public void format(Page page) {}
+      });
+      Block theirs = tx.append("rollbackbench.tbl", new PageFormatter() {
+         public void format(Page page) {}
+      });
+      tx.commit();
+
+      System.out.println("other records\trollback us");
+      for (int others : OTHER_RECORDS) {
+         long elapsed = 0;
+         for (int r = 0; r < ROLLBACKS; r++)
+            elapsed += runRollback(mine, theirs, others);
+         System.out.println(others + "\t\t" + elapsed / ROLLBACKS / 1000);
+      }
+      System.exit(0);
+   }
+
+   // Returns the time to roll back a transaction whose updates are
+   // separated by the specified number of records of another transaction.
+   static long runRollback(Block mine, Block theirs, int others) {
+      Transaction tx = new Transaction();
+      Transaction other = new Transaction();
+      tx.pin(mine);
+      other.pin(theirs);
+      for (int i = 0; i < UPDATES_PER_TX; i++) {
+         tx.setInt(mine, 4 * i, i);
+         for (int j = 0; j < others / UPDATES_PER_TX; j++)
+            other.setInt(theirs, 0, j);
+      }
+      other.commit();
+      long start = System.nanoTime();
+      tx.rollback();
+      return System.nanoTime() - start;
+   }
+}
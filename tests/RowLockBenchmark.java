@@ -0,0 +1,90 @@
+// This program measures the throughput of updates to a small table
+// whose records all fit in one block.  Each thread runs a series of
+// transactions, each of which increments a field of a random record
+// and holds its locks briefly before committing, as a client of the
+// server would.  The program reports the transactions committed per
+// second for each number of threads.
+//
+// Usage: java RowLockBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
+import simpledb.record.*;
+import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.LockAbortException;
+import java.util.*;
+
+public class RowLockBenchmark {
+   private static final int[] THREADS = {1, 2, 4, 8};
+   private static final long RUN_MILLIS = 3000;
+
+   private static TableInfo ti;
+   private static Block blk;
+   private static int records = 0;
+   private static volatile boolean running;
+   private static int commits;
+
+   public static void main(String args[]) throws InterruptedException {
+      SimpleDB.initFileLogAndBufferMgr(args[0]);
+      Schema sch = new Schema();
+      sch.addIntField("v");
+      ti = new TableInfo("rowlockbench", sch);
+      Transaction tx = new Transaction();
+      blk = tx.append(ti.fileName(), new RecordFormatter(ti));
+      RecordPage rp = new FixedRecordPage(blk, ti, tx);
+      while (rp.insert()) {
+         rp.setInt("v", 0);
+         records++;
+      }
+      rp.close();
+      tx.commit();
+
+      run(2);  // warm up
+      System.out.println("threads\tupdates/s (" + records + " records in one block)");
+      for (int n : THREADS)
+         System.out.println(n + "\t" + run(n));
+      System.exit(0);
+   }
+
+   static long run(int threads) throws InterruptedException {
+      commits = 0;
+      running = true;
+      List<Thread> workers = new ArrayList<Thread>();
+      for (int t = 0; t < threads; t++) {
+         final Random rand = new Random(t);
+         workers.add(new Thread() {
+            public void run() {
+               while (running) {
+                  Transaction tx = new Transaction();
+                  try {
+                     RecordPage rp = new FixedRecordPage(blk, ti, tx);
+                     rp.moveToId(rand.nextInt(records));
+                     rp.setInt("v", rp.getInt("v") + 1);
+                     rp.close();
+                     Thread.sleep(2);
+                     tx.commit();
+                     countCommit();
+                  }
+                  catch(LockAbortException e) {
+                     tx.rollback();
+                  }
+                  catch(InterruptedException e) {
+                     tx.rollback();
+                  }
+               }
+            }
+         });
+      }
+      for (Thread w : workers)
+         w.start();
+      Thread.sleep(RUN_MILLIS);
+      running = false;
+      for (Thread w : workers)
+         w.join();
+      return commits * 1000 / RUN_MILLIS;
+   }
+
+   static synchronized void countCommit() {
+      commits++;
+   }
+}
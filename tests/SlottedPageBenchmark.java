@@ -0,0 +1,111 @@
+// This program compares tables stored in fixed-size slots with tables
+// stored in slotted pages, for records whose strings are much shorter
+// than their declared length.  It loads the same rows into a table of
+// each kind, then grows the strings of some of the rows, so that some
+// records of the slotted table move.  For each table it reports the
+// blocks in the file, the rows scanned per second and the blocks each
+// scan had to read into the buffer pool, and the same for the index
+// lookups, which find the moved records through their old RIDs.
+//
+// Usage: java SlottedPageBenchmark <dbname>
+
+import java.util.Random;
+
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.query.*;
+import simpledb.planner.Planner;
+import simpledb.metadata.IndexInfo;
+import simpledb.index.query.IndexSelectScan;
+
+public class SlottedPageBenchmark {
+   private static final int ROWS = 20000;
+   private static final int GROUPS = 500;
+   private static final int GROWN = 10;  // one row in GROWN gets a longer name
+   private static final int SCANS = 5;
+   private static final int LOOKUPS = 500;
+
+   public static void main(String args[]) {
+      SimpleDB.BUFFER_SIZE = 64;
+      SimpleDB.init(args[0]);
+      Planner planner = SimpleDB.planner();
+      if (SimpleDB.fileMgr().size("fixedbench.tbl") == 0) {
+         load(planner, "fixedbench", "");
+         load(planner, "slottedbench", " slotted");
+      }
+      System.out.println("block size " + SimpleDB.fileMgr().blockSize() + " bytes");
+      System.out.println("table\t\tblocks\tscan rows/sec\tblocks read/scan\tlookups/sec\tblocks read/lookup");
+      run(planner, "fixedbench");
+      run(planner, "slottedbench");
+      System.exit(0);
+   }
+
+   static void load(Planner planner, String tblname, String format) {
+      Transaction tx = new Transaction();
+      planner.executeUpdate("create table " + tblname + "(id int, name varchar(80), city varchar(40), grp int)" + format, tx);
+      planner.executeUpdate("create index " + tblname + "grp on " + tblname + "(grp)", tx);
+      tx.commit();
+      for (int i = 0; i < ROWS; i += 1000) {
+         tx = new Transaction();
+         for (int j = i; j < i + 1000; j++) {
+            planner.executeUpdate("insert into " + tblname + "(id, name, city, grp) values (" + j + ", 'name" + j + "', 'city" + (j % 50) + "', " + (j % GROUPS) + ")", tx);
+         }
+         tx.commit();
+      }
+      tx = new Transaction();
+      planner.executeUpdate("update " + tblname + " set name = 'a considerably longer name for this row' where grp < " + (GROUPS / GROWN), tx);
+      tx.commit();
+   }
+
+   static void run(Planner planner, String tblname) {
+      long misses = SimpleDB.bufferMgr().misses();
+      long start = System.nanoTime();
+      int rows = 0;
+      for (int i = 0; i < SCANS; i++) {
+         rows += count(planner, "select id, name, city, grp from " + tblname);
+      }
+      long scanElapsed = System.nanoTime() - start;
+      long scanMisses = (SimpleDB.bufferMgr().misses() - misses) / SCANS;
+
+      Random random = new Random(1);
+      misses = SimpleDB.bufferMgr().misses();
+      start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++) {
+         lookup(tblname, random.nextInt(GROUPS));
+      }
+      long lookupElapsed = System.nanoTime() - start;
+      System.out.println(tblname + "\t" + SimpleDB.fileMgr().size(tblname + ".tbl")
+                         + "\t" + (rows * 1000000000L / scanElapsed) + "\t\t" + scanMisses
+                         + "\t\t\t" + (LOOKUPS * 1000000000L / lookupElapsed)
+                         + "\t\t" + (SimpleDB.bufferMgr().misses() - misses) / LOOKUPS);
+   }
+
+   // Reads the rows of one group through the index on grp.
+   static int lookup(String tblname, int grp) {
+      Transaction tx = new Transaction();
+      IndexInfo ii = SimpleDB.mdMgr().getIndexInfo(tblname, tx).get("grp");
+      TableScan ts = new TableScan(SimpleDB.mdMgr().getTableInfo(tblname, tx), tx);
+      Scan scan = new IndexSelectScan(ii.open(), new IntConstant(grp), ts);
+      int n = 0;
+      while (scan.next()) {
+         scan.getString("name");
+         n++;
+      }
+      scan.close();
+      tx.commit();
+      return n;
+   }
+
+   static int count(Planner planner, String query) {
+      Transaction tx = new Transaction();
+      Scan scan = planner.createQueryPlan(query, tx).open();
+      int n = 0;
+      while (scan.next()) {
+         scan.getString("name");
+         n++;
+      }
+      scan.close();
+      tx.commit();
+      return n;
+   }
+}
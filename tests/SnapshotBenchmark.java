@@ -0,0 +1,119 @@
+// This program measures the throughput of a mixed workload of
+// queries and updates.  Reader threads repeatedly scan a small file,
+// reading one value from each block, while writer threads repeatedly
+// change a few of its blocks and hold their locks briefly before
+// committing.  The readers run first as ordinary transactions, which
+// lock what they read, and then as read-only transactions, which read
+// a snapshot without locking.  The program reports the scans and the
+// updates committed per second in each case.
+//
+// Usage: java SnapshotBenchmark <dbname>
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.LockAbortException;
+import java.util.*;
+
+public class SnapshotBenchmark {
+   private static final int BLOCKS = 32;
+   private static final int READERS = 2;
+   private static final int WRITERS = 2;
+   private static final int UPDATES_PER_TX = 4;
+   private static final long RUN_MILLIS = 3000;
+
+   private static volatile boolean running;
+   private static int scans, updates;
+
+   public static void main(String args[]) throws InterruptedException {
+      SimpleDB.BUFFER_SIZE = 64;
+      SimpleDB.initFileLogAndBufferMgr(args[0]);
+      Transaction tx = new Transaction();
+      for (int b = 0; b < BLOCKS; b++) {
+         Block blk = new Block("snapshotbench.tbl", b);
+         tx.pin(blk);
+         tx.setInt(blk, 0, 0);
+         tx.unpin(blk);
+      }
+      tx.commit();
+
+      run(false);  // warm up
+      System.out.println("readers\t\tscans/s\tupdates/s");
+      for (boolean readOnly : new boolean[] {false, true}) {
+         run(readOnly);
+         System.out.println((readOnly ? "snapshot" : "locking") + "\t" + scans * 1000 / RUN_MILLIS
+                            + "\t" + updates * 1000 / RUN_MILLIS);
+      }
+      System.exit(0);
+   }
+
+   static void run(final boolean readOnly) throws InterruptedException {
+      scans = 0;
+      updates = 0;
+      running = true;
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < READERS; i++) {
+         threads.add(new Thread() {
+            public void run() {
+               while (running) {
+                  Transaction tx = new Transaction(readOnly);
+                  try {
+                     for (int b = 0; b < BLOCKS; b++) {
+                        Block blk = new Block("snapshotbench.tbl", b);
+                        tx.pin(blk);
+                        tx.getInt(blk, 0);
+                        tx.unpin(blk);
+                     }
+                     tx.commit();
+                     countScan();
+                  }
+                  catch(LockAbortException e) {
+                     tx.rollback();
+                  }
+               }
+            }
+         });
+      }
+      for (int i = 0; i < WRITERS; i++) {
+         final Random rand = new Random(i);
+         threads.add(new Thread() {
+            public void run() {
+               while (running) {
+                  Transaction tx = new Transaction();
+                  try {
+                     for (int j = 0; j < UPDATES_PER_TX; j++) {
+                        Block blk = new Block("snapshotbench.tbl", rand.nextInt(BLOCKS));
+                        tx.pin(blk);
+                        tx.setInt(blk, 0, tx.getInt(blk, 0) + 1);
+                        tx.unpin(blk);
+                     }
+                     Thread.sleep(2);
+                     tx.commit();
+                     countUpdate();
+                  }
+                  catch(LockAbortException e) {
+                     tx.rollback();
+                  }
+                  catch(InterruptedException e) {
+                     tx.rollback();
+                  }
+               }
+            }
+         });
+      }
+      for (Thread t : threads)
+         t.start();
+      Thread.sleep(RUN_MILLIS);
+      running = false;
+      for (Thread t : threads)
+         t.join();
+   }
+
+   static synchronized void countScan() {
+      scans++;
+   }
+
+   static synchronized void countUpdate() {
+      updates++;
+   }
+}
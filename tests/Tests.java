@@ -2,6 +2,7 @@ import simpledb.remote.*;
 import simpledb.buffer.*;
 import simpledb.server.*;
 import simpledb.tx.*;
+import simpledb.tx.recovery.RecoveryTests;
 import simpledb.parse.*;
 import java.rmi.registry.*;
 
@@ -35,6 +36,7 @@ public class Tests {
 
       addToDB();
       runParserTests();
+      // runRecoveryTests();
 
       // Kill server.
       System.exit(1);
@@ -166,6 +168,27 @@ public class Tests {
       }
    }
 
+   // Run the crash recovery tests.
+   // These tests leave the system running on their own database,
+   // so they are run after the tests that use the server's database.
+   static void runRecoveryTests() {
+      Result result = JUnitCore.runClasses(RecoveryTests.class);
+
+      System.out.println("\n");
+
+      for (Failure failure : result.getFailures()) {
+         System.out.println(failure.toString());
+      }
+
+      System.out.println("\n");
+
+      if(result.wasSuccessful()) {
+         System.out.println("All recovery tests passed");
+      } else {
+         System.out.println("At least one recovery test failed");
+      }
+   }
+
    // Run tests on the parser
    static void runParserTests() {
       Result result = JUnitCore.runClasses(ParserTests.class);